@@ -19,21 +19,33 @@ package at.favre.tools.dconvert;
 import at.favre.tools.dconvert.arg.Arguments;
 import at.favre.tools.dconvert.arg.EPlatform;
 import at.favre.tools.dconvert.converters.IPlatformConverter;
+import at.favre.tools.dconvert.converters.Result;
+import at.favre.tools.dconvert.converters.SourceDecoder;
+import at.favre.tools.dconvert.converters.postprocessing.APostProcessor;
+import at.favre.tools.dconvert.converters.postprocessing.CachingPostProcessor;
 import at.favre.tools.dconvert.converters.postprocessing.IPostProcessor;
 import at.favre.tools.dconvert.converters.postprocessing.MozJpegProcessor;
 import at.favre.tools.dconvert.converters.postprocessing.PngCrushProcessor;
+import at.favre.tools.dconvert.converters.postprocessing.PngOptimizerProcessor;
 import at.favre.tools.dconvert.converters.postprocessing.WebpProcessor;
 import at.favre.tools.dconvert.converters.scaling.ImageHandler;
 import at.favre.tools.dconvert.converters.scaling.ScaleAlgorithm;
+import at.favre.tools.dconvert.util.HeapBudget;
 import at.favre.tools.dconvert.util.MiscUtil;
+import at.favre.tools.dconvert.util.OutputCache;
+import at.favre.tools.dconvert.util.SourceImageCache;
 
 import javax.imageio.ImageIO;
 import javax.imageio.ImageReader;
 import javax.imageio.ImageWriter;
+import java.awt.*;
 import java.io.File;
 import java.util.*;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.CountDownLatch;
 import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
 
 /**
  * This is the main class handling all of the converters and post processors.
@@ -42,11 +54,25 @@ import java.util.concurrent.TimeUnit;
  * All user interfaces will call this class to execute.
  */
 public class DConvert {
+    private static String registeredImageReadersAndWriters;
+
     private CountDownLatch mainLatch;
 
     private HandlerCallback handlerCallback;
     private long beginMs;
     private StringBuilder logStringBuilder = new StringBuilder();
+    private float converterProgress;
+    private float postProcessorProgress;
+    private float reportedProgress;
+    private int finishedJobsConverters;
+    private List<Exception> exceptionsConverters = Collections.emptyList();
+    private boolean finished;
+    private WorkerHandler<SourceDecoder> decodeHandler;
+    private WorkerHandler<IPlatformConverter> converterHandler;
+    private WorkerHandler<IPostProcessor> postProcessorHandler;
+    private IncrementalIndex incrementalIndex;
+    private final List<File> pendingPostProcessFiles = new ArrayList<>();
+    private int postProcessBatchSize = 1;
 
     /**
      * Starts the execution of the dconvert
@@ -56,6 +82,23 @@ public class DConvert {
      * @param callback              main callback
      */
     public void execute(Arguments args, boolean blockingWaitForFinish, HandlerCallback callback) {
+        execute(args, args.filesToProcess, args.clearDirBeforeConvert, blockingWaitForFinish, callback);
+    }
+
+    /**
+     * Starts the execution of the dconvert for only the given source files. Output dirs are never cleaned, even with
+     * {@link Arguments#clearDirBeforeConvert}, since that would delete the outputs of all other sources.
+     *
+     * @param args                  from user interface
+     * @param filesToProcess        source files to convert, instead of {@link Arguments#filesToProcess}
+     * @param blockingWaitForFinish if true will block the thread until all threads are finished
+     * @param callback              main callback
+     */
+    public void execute(Arguments args, List<File> filesToProcess, boolean blockingWaitForFinish, HandlerCallback callback) {
+        execute(args, filesToProcess, false, blockingWaitForFinish, callback);
+    }
+
+    private void execute(Arguments args, List<File> filesToProcess, boolean clearDirBeforeConvert, boolean blockingWaitForFinish, HandlerCallback callback) {
         beginMs = System.currentTimeMillis();
         handlerCallback = callback;
 
@@ -63,7 +106,7 @@ public class DConvert {
         logStringBuilder.append("begin execution using ").append(args.threadCount).append(" theads\n");
         logStringBuilder.append("args: ").append(args).append("\n");
 
-        if (!args.filesToProcess.isEmpty()) {
+        if (!filesToProcess.isEmpty()) {
             List<IPlatformConverter> converters = new ArrayList<>();
             List<IPostProcessor> postProcessors = new ArrayList<>();
 
@@ -72,7 +115,7 @@ public class DConvert {
                 converters.add(ePlatform.getConverter());
             }
 
-            if (args.clearDirBeforeConvert) {
+            if (clearDirBeforeConvert) {
                 logStringBuilder.append("clear out dirs before convert\n");
                 for (IPlatformConverter converter : converters) {
                     converter.clean(args);
@@ -84,6 +127,9 @@ public class DConvert {
                 if (postProcessor.isSupported()) {
                     logStringBuilder.append("add pngcrush postprocessor\n");
                     postProcessors.add(postProcessor);
+                } else if (!args.enablePngOptimizer) {
+                    logStringBuilder.append("WARNING: Tool 'pngcrush' cannot be accessed. Is it set in PATH? Using built-in png optimizer instead\n");
+                    postProcessors.add(new PngOptimizerProcessor());
                 } else {
                     logStringBuilder.append("WARNING: Tool 'pngcrush' cannot be accessed. Is it set in PATH?\n");
                 }
@@ -107,7 +153,26 @@ public class DConvert {
                 }
             }
 
-            int convertJobs = args.filesToProcess.size() * converters.size();
+            OutputCache outputCache = OutputCache.get(args);
+            if (outputCache != null) {
+                logStringBuilder.append("use output cache ").append(args.cacheDir).append(" (max ").append(args.cacheMaxMb).append("MB)\n");
+                for (int i = 0; i < postProcessors.size(); i++) {
+                    if (postProcessors.get(i) instanceof APostProcessor) {
+                        postProcessors.set(i, new CachingPostProcessor((APostProcessor) postProcessors.get(i), outputCache));
+                    }
+                }
+            }
+
+            for (IPostProcessor postProcessor : postProcessors) {
+                postProcessBatchSize = Math.max(postProcessBatchSize, postProcessor.getMaxBatchSize());
+            }
+            if (postProcessBatchSize > 1) {
+                logStringBuilder.append("post process in batches of up to ").append(postProcessBatchSize).append(" files\n");
+            }
+
+            // sources skipped by the incremental index count as finished convert jobs
+            int convertJobs = filesToProcess.size() * converters.size();
+            AtomicInteger skippedConvertJobs = new AtomicInteger();
             int postProcessorJobs = convertJobs * postProcessors.size();
 
             float convertPercentage = (float) convertJobs / (float) (convertJobs + postProcessorJobs);
@@ -115,7 +180,11 @@ public class DConvert {
 
             mainLatch = new CountDownLatch(1);
 
-            for (File srcFile : args.filesToProcess) {
+            if ((args.incremental || args.watch) && !args.dryRun) {
+                incrementalIndex = new IncrementalIndex(args);
+            }
+
+            for (File srcFile : filesToProcess) {
                 logStringBuilder.append("add ").append(srcFile).append(" to processing queue\n");
 
                 if (!srcFile.exists() || !srcFile.isFile()) {
@@ -123,34 +192,118 @@ public class DConvert {
                 }
             }
 
-            new WorkerHandler<>(converters, args, new WorkerHandler.Callback() {
+            // stages: discover -> decode -> convert (scale + encode) -> post process; each stage has its own
+            // workers and a bounded queue, a full queue blocks the previous stage
+            postProcessorHandler = new WorkerHandler<>(postProcessors, args.threadCount, WorkerHandler.DEFAULT_QUEUE_CAPACITY, args, new WorkerHandler.Callback() {
                 @Override
                 public void onProgress(float percent) {
-                    handlerCallback.onProgress(convertPercentage * percent);
+                    onStageProgress(convertPercentage, postProcessPercentage, -1, percent);
+                }
+
+                @Override
+                public void onJobFinished(File file, Result result) {
+                    if (incrementalIndex != null) {
+                        incrementalIndex.onPostProcessed(file, result);
+                    }
+                }
+
+                @Override
+                public void onFinished(int finishedJobsPostProcessors, List<File> outFiles, StringBuilder log, List<Exception> exceptions, boolean haltedDuringProcess) {
+                    if (haltedDuringProcess) {
+                        decodeHandler.cancel();
+                        converterHandler.cancel();
+                    }
+                    onFinishedPostProcessors(finishedJobsPostProcessors, log, exceptions, haltedDuringProcess);
+                }
+            });
+
+            // queued convert jobs hold the decoded source, so this queue is kept short
+            converterHandler = new WorkerHandler<>(converters, args.threadCount, args.threadCount, args, new WorkerHandler.Callback() {
+                @Override
+                public void onProgress(float percent) {
+                    onStageProgress(convertPercentage, postProcessPercentage, (float) (converterHandler.getFinishedJobCount() + skippedConvertJobs.get()) / (float) convertJobs, -1);
+                }
+
+                @Override
+                public void onJobFinished(File file, Result result) {
+                    if (incrementalIndex != null) {
+                        incrementalIndex.onConverted(file, result);
+                    }
+                    if (result.exception == null && result.processedFiles != null) {
+                        submitToPostProcessors(result.processedFiles, false);
+                    }
                 }
 
                 @Override
                 public void onFinished(final int finishedJobsConverters, List<File> outFiles, final StringBuilder logConverters, final List<Exception> exceptionsConverters, final boolean haltedDuringProcessConverters) {
                     logStringBuilder.append(logConverters);
                     if (haltedDuringProcessConverters) {
-                        informFinished(finishedJobsConverters, exceptionsConverters, true);
+                        decodeHandler.cancel();
+                        postProcessorHandler.cancel();
+                        informFinished(finishedJobsConverters + postProcessorHandler.getFinishedJobCount(), exceptionsConverters, true);
                     } else {
-                        new WorkerHandler<>(postProcessors, args, new WorkerHandler.Callback() {
-                            @Override
-                            public void onProgress(float percent) {
-                                handlerCallback.onProgress(convertPercentage + (postProcessPercentage * percent));
-                            }
-
-                            @Override
-                            public void onFinished(int finishedJobsPostProcessors, List<File> outFiles, StringBuilder log, List<Exception> exceptions, boolean haltedDuringProcess) {
-                                exceptionsConverters.addAll(exceptions);
-                                logStringBuilder.append(log);
-                                informFinished(finishedJobsPostProcessors + finishedJobsConverters, exceptionsConverters, haltedDuringProcess);
-                            }
-                        }).start(outFiles);
+                        onFinishedConverters(finishedJobsConverters, exceptionsConverters);
+                        onStageProgress(convertPercentage, postProcessPercentage, 1f, -1);
+                        submitToPostProcessors(Collections.emptyList(), true);
+                        postProcessorHandler.close();
+                    }
+                }
+            });
+
+            Map<File, Dimension> srcDimensions = new ConcurrentHashMap<>();
+            HeapBudget heapBudget = new HeapBudget(args.heapBudgetMb * 1024L * 1024L);
+            logStringBuilder.append("heap budget for concurrent images: ").append(heapBudget.getBudgetBytes() / (1024 * 1024)).append("MB\n");
+
+            decodeHandler = new WorkerHandler<>(Collections.singletonList(new SourceDecoder(converters, args, heapBudget, srcDimensions)), Math.max(1, args.threadCount / 2), WorkerHandler.DEFAULT_QUEUE_CAPACITY, args, new WorkerHandler.Callback() {
+                @Override
+                public void onProgress(float percent) {
+                }
+
+                @Override
+                public void onJobFinished(File file, Result result) {
+                    for (File srcFile : result.processedFiles) {
+                        try {
+                            converterHandler.submit(srcFile);
+                        } finally {
+                            SourceImageCache.release(srcFile);
+                        }
+                    }
+                }
+
+                @Override
+                public void onFinished(int finishedJobs, List<File> outFiles, StringBuilder log, List<Exception> exceptions, boolean haltedDuringProcess) {
+                    logStringBuilder.append(log);
+                    converterHandler.close();
+                }
+            });
+
+            // planning reads headers and feeding may block, so it must never run on the caller's (e.g. UI) thread
+            Thread feeder = new Thread(() -> {
+                List<File> sources = filesToProcess;
+                if (incrementalIndex != null) {
+                    sources = incrementalIndex.filterChanged(sources, logStringBuilder);
+                    skippedConvertJobs.set((filesToProcess.size() - sources.size()) * converters.size());
+                    if (skippedConvertJobs.get() > 0) {
+                        onStageProgress(convertPercentage, postProcessPercentage, (float) skippedConvertJobs.get() / (float) convertJobs, -1);
+                    }
+                }
+
+                List<JobPlanner.Job> jobs = JobPlanner.plan(sources, converters, args);
+                logStringBuilder.append("planned order:\n");
+                for (JobPlanner.Job job : jobs) {
+                    logStringBuilder.append(job).append("\n");
+                    if (job.srcDimension != null) {
+                        srcDimensions.put(job.file, job.srcDimension);
                     }
                 }
-            }).start(args.filesToProcess);
+
+                for (JobPlanner.Job job : jobs) {
+                    decodeHandler.submit(job.file);
+                }
+                decodeHandler.close();
+            }, "dconvert-discover");
+            feeder.setDaemon(true);
+            feeder.start();
 
             if (blockingWaitForFinish) {
                 try {
@@ -165,8 +318,76 @@ public class DConvert {
         }
     }
 
+    /**
+     * Converted files are collected until a full batch for the post processors is ready; without a batch capable
+     * post processor they are submitted right away
+     *
+     * @param flush if true, submits the remaining files even if the batch is not full
+     */
+    private void submitToPostProcessors(List<File> convertedFiles, boolean flush) {
+        List<File> batch = null;
+        synchronized (pendingPostProcessFiles) {
+            pendingPostProcessFiles.addAll(convertedFiles);
+            if (!pendingPostProcessFiles.isEmpty() && (flush || pendingPostProcessFiles.size() >= postProcessBatchSize)) {
+                batch = new ArrayList<>(pendingPostProcessFiles);
+                pendingPostProcessFiles.clear();
+            }
+        }
+        // outside of the lock, submit blocks while the post processor queue is full
+        if (batch != null) {
+            postProcessorHandler.submit(batch);
+        }
+    }
+
+    private synchronized void onStageProgress(float convertPercentage, float postProcessPercentage, float converterProgress, float postProcessorProgress) {
+        if (converterProgress >= 0) {
+            this.converterProgress = converterProgress;
+        }
+        if (postProcessorProgress >= 0) {
+            this.postProcessorProgress = postProcessorProgress;
+        }
+
+        // post processor jobs are only known after conversion, so their share grows with the converter progress
+        float progress = convertPercentage * this.converterProgress + postProcessPercentage * this.converterProgress * this.postProcessorProgress;
+        if (progress > reportedProgress) {
+            reportedProgress = progress;
+            handlerCallback.onProgress(progress);
+        }
+    }
+
+    private synchronized void onFinishedConverters(int finishedJobs, List<Exception> exceptions) {
+        finishedJobsConverters = finishedJobs;
+        exceptionsConverters = exceptions;
+    }
+
+    private void onFinishedPostProcessors(int finishedJobsPostProcessors, StringBuilder log, List<Exception> exceptionsPostProcessors, boolean haltedDuringProcess) {
+        List<Exception> exceptions;
+        int finishedJobs;
+        synchronized (this) {
+            logStringBuilder.append(log);
+            exceptions = new ArrayList<>(exceptionsConverters);
+            exceptions.addAll(exceptionsPostProcessors);
+            finishedJobs = finishedJobsPostProcessors + (haltedDuringProcess ? converterHandler.getFinishedJobCount() : finishedJobsConverters);
+        }
+        informFinished(finishedJobs, exceptions, haltedDuringProcess);
+    }
+
     private void informFinished(int finishedJobs, List<Exception> exceptions, boolean haltedDuringProcess) {
-        System.gc();
+        synchronized (this) {
+            if (finished) {
+                return;
+            }
+            finished = true;
+        }
+
+        if (incrementalIndex != null && !haltedDuringProcess) {
+            try {
+                incrementalIndex.save();
+            } catch (Exception e) {
+                logStringBuilder.append("could not write build manifest: ").append(e.getMessage()).append("\n");
+            }
+        }
+
         printTrace();
         if (handlerCallback != null) {
             if (mainLatch != null) {
@@ -185,7 +406,14 @@ public class DConvert {
         void onFinished(int finishedJobs, List<Exception> exceptions, long time, boolean haltedDuringProcess, String log);
     }
 
-    private String getRegisteredImageReadersAndWriters() {
+    /**
+     * The registry does not change at runtime, so it is only looked up once per process (e.g. in daemon or watch mode)
+     */
+    private static synchronized String getRegisteredImageReadersAndWriters() {
+        if (registeredImageReadersAndWriters != null) {
+            return registeredImageReadersAndWriters;
+        }
+
         String[] formats = new String[]{"JPEG", "PNG", "TIFF", "PSD", "SVG", "BMP"};
 
         StringBuilder sb = new StringBuilder();
@@ -201,7 +429,8 @@ public class DConvert {
                 sb.append("writer: ").append(next).append("\n");
             }
         }
-        return sb.toString();
+        registeredImageReadersAndWriters = sb.toString();
+        return registeredImageReadersAndWriters;
     }
 
     private void printTrace() {
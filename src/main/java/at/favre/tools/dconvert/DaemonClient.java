@@ -0,0 +1,99 @@
+/*
+ *  Copyright 2016 Patrick Favre-Bulle
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package at.favre.tools.dconvert;
+
+import at.favre.tools.dconvert.arg.Arguments;
+import at.favre.tools.dconvert.arg.ArgumentsJson;
+import at.favre.tools.dconvert.util.FlatJson;
+
+import java.io.*;
+import java.net.ConnectException;
+import java.net.InetAddress;
+import java.net.Socket;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Thin client of the {@link DaemonServer}: forwards a job and streams progress and result back to the callback
+ */
+public final class DaemonClient {
+    private DaemonClient() {
+    }
+
+    /**
+     * Sends the job to the daemon on {@link Arguments#daemonPort} and blocks until it is finished
+     *
+     * @throws ConnectException if no daemon is running, nothing was sent - the job can safely run locally
+     * @throws IOException      if the connection was lost after the job was sent, the daemon may still be running it
+     */
+    public static void execute(Arguments args, DConvert.HandlerCallback callback) throws IOException {
+        execute(args, DaemonServer.DEFAULT_TOKEN_DIR, callback);
+    }
+
+    /**
+     * @param tokenDir dir the daemon wrote its token to
+     */
+    public static void execute(Arguments args, File tokenDir, DConvert.HandlerCallback callback) throws IOException {
+        File tokenFile = DaemonServer.getTokenFile(tokenDir, args.daemonPort);
+        if (!tokenFile.isFile()) {
+            throw new ConnectException("no daemon token " + tokenFile);
+        }
+        String token = new String(Files.readAllBytes(tokenFile.toPath()), StandardCharsets.UTF_8).trim();
+
+        try (Socket socket = new Socket(InetAddress.getLoopbackAddress(), args.daemonPort);
+             BufferedReader in = new BufferedReader(new InputStreamReader(socket.getInputStream(), StandardCharsets.UTF_8));
+             Writer out = new BufferedWriter(new OutputStreamWriter(socket.getOutputStream(), StandardCharsets.UTF_8))) {
+            out.write(token);
+            out.write('\n');
+            out.write(ArgumentsJson.toJson(args));
+            out.write('\n');
+            out.flush();
+
+            String line;
+            while ((line = in.readLine()) != null) {
+                Map<String, Object> event;
+                try {
+                    event = FlatJson.decode(line);
+                } catch (IllegalArgumentException e) {
+                    throw new IOException("invalid response from daemon: " + e.getMessage(), e);
+                }
+
+                Object type = event.get("event");
+                if (DaemonServer.EVENT_PROGRESS.equals(type)) {
+                    callback.onProgress(((Number) event.get("progress")).floatValue());
+                } else if (DaemonServer.EVENT_FINISHED.equals(type)) {
+                    List<Exception> exceptions = new ArrayList<>();
+                    for (Object error : (List<?>) event.get("errors")) {
+                        exceptions.add(new Exception((String) error));
+                    }
+                    callback.onFinished(((Number) event.get("finishedJobs")).intValue(), exceptions, ((Number) event.get("time")).longValue(),
+                            Boolean.TRUE.equals(event.get("halted")), (String) event.get("log"));
+                    return;
+                } else if (DaemonServer.EVENT_ERROR.equals(type)) {
+                    String message = (String) event.get("message");
+                    callback.onFinished(0, Collections.singletonList(new Exception(message)), 0, true, message);
+                    return;
+                }
+            }
+            throw new IOException("daemon closed the connection before the job was finished");
+        }
+    }
+}
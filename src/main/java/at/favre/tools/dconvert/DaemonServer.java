@@ -0,0 +1,274 @@
+/*
+ *  Copyright 2016 Patrick Favre-Bulle
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package at.favre.tools.dconvert;
+
+import at.favre.tools.dconvert.arg.Arguments;
+import at.favre.tools.dconvert.arg.ArgumentsJson;
+import at.favre.tools.dconvert.exceptions.InvalidArgumentException;
+import at.favre.tools.dconvert.util.FlatJson;
+
+import java.io.*;
+import java.net.InetAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.net.SocketException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.FileSystems;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.attribute.PosixFilePermissions;
+import java.security.MessageDigest;
+import java.security.SecureRandom;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.*;
+
+/**
+ * Long-lived daemon: keeps one warm JVM (JIT, image io registry, caches) and converts jobs sent by {@link DaemonClient}
+ * over a loopback socket, so repeated invocations do not pay the startup cost again.
+ * <p>
+ * Protocol: the client sends one line with the token of the daemon and one line with the {@link ArgumentsJson} of the
+ * job, the daemon answers with one JSON line per event ({@link #EVENT_PROGRESS}, then {@link #EVENT_FINISHED} or
+ * {@link #EVENT_ERROR}) and closes the connection. Jobs of concurrent clients are queued and run one after another,
+ * every job already uses all of its worker threads.
+ * <p>
+ * Every local user can connect to a loopback port, so jobs (which may write and delete files anywhere) are only
+ * accepted with the random token the daemon writes to a file only readable by its own user.
+ */
+public final class DaemonServer {
+    public static final String EVENT_PROGRESS = "progress";
+    public static final String EVENT_FINISHED = "finished";
+    public static final String EVENT_ERROR = "error";
+    public static final File DEFAULT_TOKEN_DIR = new File(System.getProperty("user.home"), ".dconvert");
+
+    /**
+     * max wait for the finish callback after the blocking execute returned
+     */
+    private static final long FINISH_TIMEOUT_SEC = 60;
+
+    private final ServerSocket serverSocket;
+    private final File tokenFile;
+    private final byte[] token;
+    private final ExecutorService jobExecutor = Executors.newSingleThreadExecutor();
+    private final ExecutorService connectionExecutor = Executors.newCachedThreadPool();
+
+    /**
+     * Binds to the loopback interface only and writes the token to {@link #DEFAULT_TOKEN_DIR}
+     *
+     * @param port to listen on, 0 for any free port
+     */
+    public DaemonServer(int port) throws IOException {
+        this(port, DEFAULT_TOKEN_DIR);
+    }
+
+    /**
+     * @param port     to listen on, 0 for any free port
+     * @param tokenDir dir of the token file, see {@link #getTokenFile(File, int)}
+     */
+    public DaemonServer(int port, File tokenDir) throws IOException {
+        this.serverSocket = new ServerSocket(port, 50, InetAddress.getLoopbackAddress());
+        this.tokenFile = getTokenFile(tokenDir, getPort());
+        this.token = createToken();
+        try {
+            writeUserOnly(tokenFile, token);
+        } catch (IOException e) {
+            serverSocket.close();
+            throw e;
+        }
+    }
+
+    /**
+     * @return file holding the token of the daemon on the given port
+     */
+    public static File getTokenFile(File tokenDir, int port) {
+        return new File(tokenDir, "daemon-" + port + ".token");
+    }
+
+    public int getPort() {
+        return serverSocket.getLocalPort();
+    }
+
+    /**
+     * Accepts connections until {@link #stop()} is called
+     */
+    public void serve() throws IOException {
+        try {
+            while (!serverSocket.isClosed()) {
+                Socket socket = serverSocket.accept();
+                connectionExecutor.execute(() -> handle(socket));
+            }
+        } catch (SocketException e) {
+            if (!serverSocket.isClosed()) {
+                throw e;
+            }
+        } finally {
+            stop();
+        }
+    }
+
+    /**
+     * Stops accepting connections, already queued jobs are canceled
+     */
+    public void stop() {
+        try {
+            serverSocket.close();
+        } catch (IOException e) {
+            //ignore
+        }
+        tokenFile.delete();
+        jobExecutor.shutdownNow();
+        connectionExecutor.shutdown();
+    }
+
+    private void handle(Socket socket) {
+        try (Socket s = socket;
+             BufferedReader in = new BufferedReader(new InputStreamReader(s.getInputStream(), StandardCharsets.UTF_8));
+             Writer out = new BufferedWriter(new OutputStreamWriter(s.getOutputStream(), StandardCharsets.UTF_8))) {
+            String requestToken = in.readLine();
+            if (requestToken == null) {
+                return;
+            }
+            if (!MessageDigest.isEqual(token, requestToken.getBytes(StandardCharsets.UTF_8))) {
+                Map<String, Object> event = createEvent(EVENT_ERROR);
+                event.put("message", "invalid daemon token");
+                send(out, event);
+                return;
+            }
+
+            String request = in.readLine();
+            if (request == null) {
+                return;
+            }
+
+            Arguments args;
+            try {
+                args = ArgumentsJson.fromJson(request);
+            } catch (InvalidArgumentException e) {
+                Map<String, Object> event = createEvent(EVENT_ERROR);
+                event.put("message", e.getMessage());
+                send(out, event);
+                return;
+            }
+
+            // the finish callback may be called after the blocking execute returned
+            CountDownLatch finished = new CountDownLatch(1);
+            Future<?> job = jobExecutor.submit(() -> {
+                try {
+                    execute(args, out, finished);
+                } catch (RuntimeException e) {
+                    Map<String, Object> event = createEvent(EVENT_ERROR);
+                    event.put("message", e.toString());
+                    send(out, event);
+                    finished.countDown();
+                }
+            });
+            job.get();
+            if (!finished.await(FINISH_TIMEOUT_SEC, TimeUnit.SECONDS)) {
+                Map<String, Object> event = createEvent(EVENT_ERROR);
+                event.put("message", "job did not finish in time");
+                send(out, event);
+            }
+        } catch (IOException | ExecutionException | CancellationException e) {
+            //client is gone or daemon stopped, nothing to report to
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    private static void execute(Arguments args, Writer out, CountDownLatch finished) {
+        new DConvert().execute(args, true, new DConvert.HandlerCallback() {
+            @Override
+            public void onProgress(float progress) {
+                Map<String, Object> event = createEvent(EVENT_PROGRESS);
+                event.put("progress", progress);
+                send(out, event);
+            }
+
+            @Override
+            public void onFinished(int finishedJobs, List<Exception> exceptions, long time, boolean haltedDuringProcess, String log) {
+                List<String> errors = new ArrayList<>();
+                for (Exception exception : exceptions) {
+                    errors.add(exception.toString());
+                }
+                Map<String, Object> event = createEvent(EVENT_FINISHED);
+                event.put("finishedJobs", finishedJobs);
+                event.put("errors", errors);
+                event.put("time", time);
+                event.put("halted", haltedDuringProcess);
+                event.put("log", log);
+                send(out, event);
+                finished.countDown();
+            }
+        });
+    }
+
+    private static byte[] createToken() {
+        byte[] random = new byte[32];
+        new SecureRandom().nextBytes(random);
+        StringBuilder sb = new StringBuilder(random.length * 2);
+        for (byte b : random) {
+            sb.append(String.format("%02x", b));
+        }
+        return sb.toString().getBytes(StandardCharsets.UTF_8);
+    }
+
+    /**
+     * Writes the file so that only the current user can read it; a stale file of a former daemon is replaced
+     */
+    private static void writeUserOnly(File file, byte[] content) throws IOException {
+        Path dir = file.getParentFile().toPath();
+        Path path = file.toPath();
+        boolean posix = FileSystems.getDefault().supportedFileAttributeViews().contains("posix");
+
+        if (posix) {
+            if (!Files.isDirectory(dir)) {
+                Files.createDirectories(dir, PosixFilePermissions.asFileAttribute(PosixFilePermissions.fromString("rwx------")));
+            }
+            Files.deleteIfExists(path);
+            Files.createFile(path, PosixFilePermissions.asFileAttribute(PosixFilePermissions.fromString("rw-------")));
+        } else {
+            Files.createDirectories(dir);
+            Files.deleteIfExists(path);
+            Files.createFile(path);
+            if (!(file.setReadable(false, false) && file.setReadable(true, true) && file.setWritable(false, false) && file.setWritable(true, true))) {
+                Files.delete(path);
+                throw new IOException("could not restrict access to " + file);
+            }
+        }
+        Files.write(path, content);
+    }
+
+    private static Map<String, Object> createEvent(String type) {
+        Map<String, Object> event = new LinkedHashMap<>();
+        event.put("event", type);
+        return event;
+    }
+
+    private static void send(Writer out, Map<String, Object> event) {
+        synchronized (out) {
+            try {
+                out.write(FlatJson.encode(event));
+                out.write('\n');
+                out.flush();
+            } catch (IOException e) {
+                //client disconnected, the job still finishes
+            }
+        }
+    }
+}
@@ -0,0 +1,123 @@
+/*
+ *  Copyright 2016 Patrick Favre-Bulle
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package at.favre.tools.dconvert;
+
+import at.favre.tools.dconvert.arg.Arguments;
+import at.favre.tools.dconvert.converters.Result;
+import at.favre.tools.dconvert.util.BuildManifest;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Index stage of an incremental build: hashes the sources before anything is decoded and drops the ones the
+ * {@link BuildManifest} marks as up to date. While converting, it collects the outputs of every source, so the
+ * manifest can be updated once the run is done. Sources with errors are not recorded and will be rebuilt next time.
+ */
+public final class IncrementalIndex {
+    private final BuildManifest manifest;
+    private final String argumentsHash;
+    private final Map<File, String> contentHashes = new ConcurrentHashMap<>();
+    private final Map<File, Set<File>> outputs = new ConcurrentHashMap<>();
+    private final Map<File, File> outputSources = new ConcurrentHashMap<>();
+    private final Set<File> failedSources = ConcurrentHashMap.newKeySet();
+
+    public IncrementalIndex(Arguments args) {
+        this.manifest = BuildManifest.load(args.dst);
+        this.argumentsHash = BuildManifest.hashArguments(args);
+    }
+
+    /**
+     * Hashes all sources and returns the ones that have to be converted
+     *
+     * @param sources all source files
+     * @param log     skipped sources will be logged here
+     * @return changed sources, in the given order
+     */
+    public List<File> filterChanged(List<File> sources, StringBuilder log) {
+        List<File> changed = new ArrayList<>(sources.size());
+        for (File source : sources) {
+            try {
+                String contentHash = BuildManifest.hashContent(source);
+                if (manifest.isUpToDate(source, contentHash, argumentsHash)) {
+                    log.append("skip unchanged ").append(source).append("\n");
+                    continue;
+                }
+                contentHashes.put(source, contentHash);
+            } catch (IOException e) {
+                log.append("could not hash ").append(source).append(": ").append(e.getMessage()).append("\n");
+            }
+            changed.add(source);
+        }
+        return changed;
+    }
+
+    /**
+     * Records the result of a converter job of the given source
+     */
+    public void onConverted(File source, Result result) {
+        if (result.exception != null) {
+            failedSources.add(source);
+        }
+        if (result.processedFiles != null) {
+            for (File output : result.processedFiles) {
+                outputs.computeIfAbsent(source, k -> ConcurrentHashMap.newKeySet()).add(output);
+                outputSources.put(output, source);
+            }
+        }
+    }
+
+    /**
+     * Records the result of a post processor job of a converted file
+     */
+    public void onPostProcessed(File convertedFile, Result result) {
+        File source = outputSources.get(convertedFile);
+        if (source == null || result == null) {
+            return;
+        }
+        if (result.exception != null) {
+            failedSources.add(source);
+        }
+        if (result.processedFiles != null) {
+            outputs.computeIfAbsent(source, k -> ConcurrentHashMap.newKeySet()).addAll(result.processedFiles);
+        }
+    }
+
+    /**
+     * Records all successfully converted sources with their existing outputs and writes the manifest
+     */
+    public void save() throws IOException {
+        for (Map.Entry<File, String> entry : contentHashes.entrySet()) {
+            File source = entry.getKey();
+            if (failedSources.contains(source)) {
+                manifest.remove(source);
+                continue;
+            }
+
+            List<File> existingOutputs = new ArrayList<>();
+            for (File output : outputs.getOrDefault(source, Collections.emptySet())) {
+                if (output.exists()) {
+                    existingOutputs.add(output);
+                }
+            }
+            manifest.update(source, entry.getValue(), argumentsHash, existingOutputs);
+        }
+        manifest.save();
+    }
+}
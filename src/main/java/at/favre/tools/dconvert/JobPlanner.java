@@ -0,0 +1,100 @@
+/*
+ *  Copyright 2016 Patrick Favre-Bulle
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package at.favre.tools.dconvert;
+
+import at.favre.tools.dconvert.arg.Arguments;
+import at.favre.tools.dconvert.converters.APlatformConverter;
+import at.favre.tools.dconvert.converters.IPlatformConverter;
+import at.favre.tools.dconvert.util.ImageUtil;
+
+import java.awt.*;
+import java.io.File;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+
+/**
+ * Planning pass before the conversion: reads only the image headers, estimates the cost of every source and
+ * orders the jobs longest first, so a big image does not end up running alone at the end of a batch while
+ * the other workers are idle.
+ */
+public final class JobPlanner {
+
+    private JobPlanner() {
+    }
+
+    /**
+     * Plans the given files; sources with unreadable headers are treated as most expensive, so they are started
+     * first. Files with the same cost keep their order.
+     *
+     * @param files      all source files
+     * @param converters used platform converters
+     * @param args       all tool args
+     * @return jobs ordered by descending cost
+     */
+    public static List<Job> plan(List<File> files, List<IPlatformConverter> converters, Arguments args) {
+        List<Job> jobs = new ArrayList<>(files.size());
+        for (File file : files) {
+            jobs.add(planJob(file, converters, args));
+        }
+        jobs.sort(Comparator.comparingLong((Job job) -> job.cost).reversed());
+        return Collections.unmodifiableList(jobs);
+    }
+
+    private static Job planJob(File file, List<IPlatformConverter> converters, Arguments args) {
+        try {
+            Dimension srcDimension = ImageUtil.getImageDimension(file);
+
+            //every pixel is decoded once and every target pixel is scaled and encoded once
+            long cost = (long) srcDimension.width * (long) srcDimension.height;
+            for (IPlatformConverter converter : converters) {
+                if (converter instanceof APlatformConverter) {
+                    for (Dimension dimension : ((APlatformConverter<?>) converter).getTargetDimensions(srcDimension, args)) {
+                        cost += (long) dimension.width * (long) dimension.height;
+                    }
+                }
+            }
+            return new Job(file, srcDimension, cost);
+        } catch (Exception e) {
+            return new Job(file, null, Long.MAX_VALUE);
+        }
+    }
+
+    public static final class Job {
+        public final File file;
+        /**
+         * dimension from the header or null if it could not be read
+         */
+        public final Dimension srcDimension;
+        /**
+         * estimated relative cost, roughly the count of pixels processed
+         */
+        public final long cost;
+
+        Job(File file, Dimension srcDimension, long cost) {
+            this.file = file;
+            this.srcDimension = srcDimension;
+            this.cost = cost;
+        }
+
+        @Override
+        public String toString() {
+            return file + " " + (srcDimension != null ? srcDimension.width + "x" + srcDimension.height + " (cost " + cost + ")" : "(unknown size)");
+        }
+    }
+}
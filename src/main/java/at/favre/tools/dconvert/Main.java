@@ -21,7 +21,9 @@ import at.favre.tools.dconvert.ui.CLIInterpreter;
 import at.favre.tools.dconvert.ui.GUI;
 import at.favre.tools.dconvert.util.MiscUtil;
 
+import java.io.File;
 import java.io.IOException;
+import java.net.ConnectException;
 import java.util.List;
 
 /**
@@ -46,11 +48,20 @@ public final class Main {
             System.out.println("start gui");
             new GUI().launchApp(rawArgs);
             return;
+        } else if (args.daemon) {
+            try {
+                DaemonServer server = new DaemonServer(args.daemonPort);
+                System.out.println("daemon listening on port " + server.getPort());
+                server.serve();
+            } catch (IOException e) {
+                System.err.println("could not start daemon: " + e.getMessage());
+            }
+            return;
         }
 
         System.out.println("start converting " + args.filesToProcess.size() + " files");
 
-        new DConvert().execute(args, true, new DConvert.HandlerCallback() {
+        SourceWatcher.Callback callback = new SourceWatcher.Callback() {
             @Override
             public void onProgress(float progress) {
                 try {
@@ -85,6 +96,37 @@ public final class Main {
                 }
                 System.out.println("execution finished (" + time + "ms) with " + finishedJobs + " finsihed jobs and " + exceptions.size() + " errors");
             }
-        });
+
+            @Override
+            public void onSourceRemoved(File source, List<File> deletedOutputs) {
+                System.out.println("removed " + source + ", deleted " + deletedOutputs.size() + " outputs");
+            }
+        };
+
+        boolean converted = false;
+        if (args.useDaemon) {
+            try {
+                DaemonClient.execute(args, callback);
+                converted = true;
+            } catch (ConnectException e) {
+                System.err.println("daemon not reachable (" + e.getMessage() + "), converting locally");
+            } catch (IOException e) {
+                // the daemon may still be converting into the same dst, so do not run the job a second time
+                System.err.println("daemon job failed: " + e.getMessage());
+                return;
+            }
+        }
+        if (!converted) {
+            new DConvert().execute(args, true, callback);
+        }
+
+        if (args.watch) {
+            System.out.println("watching " + args.src + " for changes");
+            try {
+                new SourceWatcher(args, callback).watch();
+            } catch (IOException e) {
+                System.err.println("could not watch " + args.src + ": " + e.getMessage());
+            }
+        }
     }
 }
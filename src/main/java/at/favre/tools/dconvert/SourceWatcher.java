@@ -0,0 +1,197 @@
+/*
+ *  Copyright 2016 Patrick Favre-Bulle
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package at.favre.tools.dconvert;
+
+import at.favre.tools.dconvert.arg.Arguments;
+import at.favre.tools.dconvert.util.BuildManifest;
+import at.favre.tools.dconvert.util.MiscUtil;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.*;
+import java.util.*;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Watch mode: keeps the process (with its warm JIT and caches) alive and converts sources again as soon as they
+ * change. Events are debounced, so a file that is still being written or a batch of files dropped at once is
+ * converted in one run. Outputs of removed sources are deleted using the {@link BuildManifest}.
+ */
+public final class SourceWatcher {
+    /**
+     * quiet time after the last event before converting
+     */
+    public static final long DEBOUNCE_MS = 500;
+
+    private final Arguments args;
+    private final Callback callback;
+    private final File watchedDir;
+    private final File singleSource;
+    private volatile WatchService watchService;
+
+    public SourceWatcher(Arguments args, Callback callback) {
+        this.args = args;
+        this.callback = callback;
+        File src = args.src.getAbsoluteFile().toPath().normalize().toFile();
+        this.watchedDir = src.isDirectory() ? src : src.getParentFile();
+        this.singleSource = src.isDirectory() ? null : src;
+    }
+
+    /**
+     * Blocks and handles changes until {@link #stop()} is called or the thread is interrupted
+     */
+    public void watch() throws IOException {
+        watchService = FileSystems.getDefault().newWatchService();
+        try {
+            watchedDir.toPath().register(watchService, StandardWatchEventKinds.ENTRY_CREATE, StandardWatchEventKinds.ENTRY_MODIFY, StandardWatchEventKinds.ENTRY_DELETE);
+
+            // sources removed while nobody was watching
+            removeOutputs(getRemovedSources());
+
+            while (!Thread.currentThread().isInterrupted()) {
+                Set<File> touched = new HashSet<>();
+                boolean overflow = collect(watchService.take(), touched);
+
+                // debounce: wait until there was no event for a while
+                WatchKey key;
+                while ((key = watchService.poll(DEBOUNCE_MS, TimeUnit.MILLISECONDS)) != null) {
+                    overflow |= collect(key, touched);
+                }
+
+                if (overflow) {
+                    // events were lost, the index stage of the run skips all unchanged sources anyway
+                    touched.addAll(getCurrentSources());
+                    touched.addAll(getRemovedSources());
+                }
+                handle(touched);
+            }
+        } catch (InterruptedException | ClosedWatchServiceException e) {
+            //stopped
+        } finally {
+            watchService.close();
+        }
+    }
+
+    /**
+     * Stops watching, a currently running conversion will still be finished
+     */
+    public void stop() {
+        try {
+            if (watchService != null) {
+                watchService.close();
+            }
+        } catch (IOException e) {
+            //ignore
+        }
+    }
+
+    private boolean collect(WatchKey key, Set<File> touched) {
+        boolean overflow = false;
+        for (WatchEvent<?> event : key.pollEvents()) {
+            if (event.kind() == StandardWatchEventKinds.OVERFLOW) {
+                overflow = true;
+            } else {
+                touched.add(new File(watchedDir, event.context().toString()));
+            }
+        }
+        key.reset();
+        return overflow;
+    }
+
+    private void handle(Set<File> touched) {
+        List<File> changed = new ArrayList<>();
+        List<File> removed = new ArrayList<>();
+        for (File file : touched) {
+            if (!isSource(file)) {
+                continue;
+            }
+            if (file.isFile()) {
+                changed.add(file);
+            } else if (!file.exists()) {
+                removed.add(file);
+            }
+        }
+        Collections.sort(changed);
+
+        removeOutputs(removed);
+        if (!changed.isEmpty()) {
+            new DConvert().execute(args, changed, true, callback);
+        }
+    }
+
+    private void removeOutputs(List<File> removedSources) {
+        if (removedSources.isEmpty() || args.dryRun) {
+            return;
+        }
+
+        BuildManifest manifest = BuildManifest.load(args.dst);
+        for (File source : removedSources) {
+            List<File> deletedOutputs = new ArrayList<>();
+            for (File output : manifest.getOutputs(source)) {
+                if (output.delete()) {
+                    deletedOutputs.add(output);
+                }
+            }
+            manifest.remove(source);
+            callback.onSourceRemoved(source, deletedOutputs);
+        }
+
+        try {
+            manifest.save();
+        } catch (IOException e) {
+            //ignore, next run will try again
+        }
+    }
+
+    private List<File> getCurrentSources() {
+        List<File> sources = new ArrayList<>();
+        File[] files = watchedDir.listFiles();
+        if (files != null) {
+            for (File file : files) {
+                if (file.isFile() && isSource(file)) {
+                    sources.add(file);
+                }
+            }
+        }
+        return sources;
+    }
+
+    private List<File> getRemovedSources() {
+        List<File> removed = new ArrayList<>();
+        for (File source : BuildManifest.load(args.dst).getSources()) {
+            if (watchedDir.equals(source.getParentFile()) && isSource(source) && !source.exists()) {
+                removed.add(source);
+            }
+        }
+        return removed;
+    }
+
+    private boolean isSource(File file) {
+        return (singleSource == null || singleSource.equals(file))
+                && Arguments.getSupportedFileTypes().contains(MiscUtil.getFileExtensionLowerCase(file));
+    }
+
+    public interface Callback extends DConvert.HandlerCallback {
+        /**
+         * Called after the outputs of a removed source were deleted
+         *
+         * @param source         the removed source
+         * @param deletedOutputs all deleted outputs
+         */
+        void onSourceRemoved(File source, List<File> deletedOutputs);
+    }
+}
@@ -19,84 +19,358 @@ package at.favre.tools.dconvert;
 import at.favre.tools.dconvert.arg.Arguments;
 import at.favre.tools.dconvert.converters.IPlatformConverter;
 import at.favre.tools.dconvert.converters.Result;
+import at.favre.tools.dconvert.converters.SourceDecoder;
 import at.favre.tools.dconvert.converters.postprocessing.IPostProcessor;
+import at.favre.tools.dconvert.util.ParallelismBudget;
+import at.favre.tools.dconvert.util.SourceImageCache;
 
 import java.io.File;
 import java.util.ArrayList;
 import java.util.Collections;
 import java.util.List;
-import java.util.concurrent.ArrayBlockingQueue;
-import java.util.concurrent.ExecutorService;
-import java.util.concurrent.ThreadPoolExecutor;
-import java.util.concurrent.TimeUnit;
+import java.util.Map;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
 
 /**
  * Handles post processing tasks
+ * <p>
+ * Every handler is one stage with its own worker threads and a bounded queue: if the queue is full
+ * {@link #submit(File)} blocks, so a fast producer (e.g. a previous stage) is slowed down instead of
+ * queueing an unbounded amount of work.
  */
 public class WorkerHandler<T> {
+    public static final int DEFAULT_QUEUE_CAPACITY = 1024;
 
     private final List<T> processors;
     private final ExecutorService threadPool;
     private final Arguments arguments;
     private final Callback callback;
-    private int jobCount;
+    private final Map<File, AtomicInteger> sharedSourceJobs = new ConcurrentHashMap<>();
+    private final InternalCallback internalCallback;
+    private final AtomicBoolean stopped = new AtomicBoolean();
+    private final Semaphore queueSlots;
+    private final int maxQueueSlots;
+    private volatile int jobCount;
+    private volatile boolean closed;
 
     public WorkerHandler(List<T> processors, Arguments arguments, Callback callback) {
+        this(processors, arguments.threadCount, DEFAULT_QUEUE_CAPACITY, arguments, callback);
+    }
+
+    /**
+     * @param threadCount   worker threads of this stage
+     * @param queueCapacity max jobs waiting for a worker, before {@link #submit(File)} blocks
+     */
+    public WorkerHandler(List<T> processors, int threadCount, int queueCapacity, Arguments arguments, Callback callback) {
         this.processors = processors;
-        this.threadPool = new ThreadPoolExecutor(arguments.threadCount, arguments.threadCount, 5, TimeUnit.SECONDS, new ArrayBlockingQueue<>(1024 * 10));
+        this.threadPool = new ThreadPoolExecutor(threadCount, threadCount, 5, TimeUnit.SECONDS, new LinkedBlockingQueue<>());
+        this.maxQueueSlots = Math.max(threadCount + queueCapacity, processors.size());
+        this.queueSlots = new Semaphore(maxQueueSlots);
         this.callback = callback;
         this.arguments = arguments;
+        this.internalCallback = new InternalCallback(callback);
     }
 
+    /**
+     * Processes all given files; no further files can be submitted
+     */
     public void start(List<File> allFiles) {
-        this.jobCount = allFiles.size() * processors.size();
+        for (File fileToProcess : allFiles) {
+            submit(fileToProcess);
+        }
+        close();
+    }
+
+    /**
+     * Queues a single file for all processors. Can be called while other jobs are already running, the handler
+     * will not finish until {@link #close()} is called. Blocks while the queue is full.
+     */
+    public void submit(File fileToProcess) {
+        submit(Collections.singletonList(fileToProcess));
+    }
 
-        InternalCallback internalCallback = new InternalCallback(callback);
+    /**
+     * Queues multiple files for all processors; like {@link #submit(File)}, but post processors that support it
+     * get the files in batches (see {@link IPostProcessor#getMaxBatchSize()}). Every file still counts as a job.
+     */
+    public void submit(List<File> filesToProcess) {
+        if (closed) {
+            throw new IllegalStateException("handler is already closed");
+        }
+
+        int slots = filesToProcess.size() * processors.size();
+        if (slots > maxQueueSlots && filesToProcess.size() > 1) {
+            // would never get enough slots at once
+            int half = filesToProcess.size() / 2;
+            submit(filesToProcess.subList(0, half));
+            submit(filesToProcess.subList(half, filesToProcess.size()));
+            return;
+        }
+
+        // wait outside of the lock, finishing workers need it to free their slot
+        try {
+            queueSlots.acquire(slots);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            return;
+        }
 
+        List<Runnable> workers = new ArrayList<>();
         for (T processor : processors) {
-            for (File fileToProcess : allFiles) {
-                threadPool.execute(new Worker(fileToProcess, processor, arguments, internalCallback));
+            if (IPlatformConverter.class.isInstance(processor)) {
+                for (File fileToProcess : filesToProcess) {
+                    // converters are split in smaller tasks, only the last one finished completes the job
+                    for (Callable<Result> task : ((IPlatformConverter) processor).createTasks(fileToProcess, arguments)) {
+                        workers.add(new Worker(fileToProcess, task, true, internalCallback));
+                    }
+                }
+            } else if (IPostProcessor.class.isInstance(processor) && ((IPostProcessor) processor).getMaxBatchSize() > 1 && filesToProcess.size() > 1) {
+                int batchSize = ((IPostProcessor) processor).getMaxBatchSize();
+                for (int i = 0; i < filesToProcess.size(); i += batchSize) {
+                    List<File> batch = new ArrayList<>(filesToProcess.subList(i, Math.min(i + batchSize, filesToProcess.size())));
+                    workers.add(new BatchWorker(batch, (IPostProcessor) processor));
+                }
+            } else {
+                for (File fileToProcess : filesToProcess) {
+                    workers.add(new Worker(fileToProcess, createJob(processor, fileToProcess), false, internalCallback));
+                }
+            }
+        }
+
+        synchronized (internalCallback) {
+            if (closed) {
+                queueSlots.release(slots);
+                throw new IllegalStateException("handler is already closed");
+            }
+            if (internalCallback.canceled) {
+                return;
+            }
+
+            if (!processors.isEmpty() && IPlatformConverter.class.isInstance(processors.get(0))) {
+                for (File fileToProcess : filesToProcess) {
+                    // keep the decoded source until all converters of this file are done
+                    if (sharedSourceJobs.putIfAbsent(fileToProcess, new AtomicInteger()) == null) {
+                        SourceImageCache.retain(fileToProcess);
+                    }
+                    sharedSourceJobs.get(fileToProcess).addAndGet(processors.size());
+                }
+            }
+
+            jobCount += slots;
+            try {
+                for (Runnable worker : workers) {
+                    threadPool.execute(worker);
+                }
+            } catch (RejectedExecutionException e) {
+                if (!internalCallback.canceled) {
+                    throw e;
+                }
+                releaseAllSharedSources();
             }
         }
+    }
 
-        threadPool.shutdown();
+    /**
+     * Marks that no more files will be submitted; the finish callback will be called after all queued jobs are done
+     */
+    public void close() {
+        synchronized (internalCallback) {
+            if (!closed) {
+                closed = true;
+                threadPool.shutdown();
+                internalCallback.checkFinished();
+            }
+        }
+    }
 
-        if (jobCount == 0) {
-            callback.onFinished(0, Collections.emptyList(), new StringBuilder(), Collections.emptyList(), false);
+    /**
+     * Stops all running and queued jobs without calling the finish callback. Does not lock, so it is safe
+     * to call from callbacks of other handlers.
+     */
+    public void cancel() {
+        stop();
+    }
+
+    /**
+     * @return count of jobs submitted so far
+     */
+    public int getJobCount() {
+        return jobCount;
+    }
+
+    /**
+     * Cancels all jobs; shared by {@link #cancel()} and the halt on error, only the first call of both does anything
+     *
+     * @return false if the handler was already stopped
+     */
+    private boolean stop() {
+        if (!stopped.compareAndSet(false, true)) {
+            return false;
+        }
+        internalCallback.canceled = true;
+        stopAll();
+        releaseAllSharedSources();
+        unblockSubmitters();
+        return true;
+    }
+
+    /**
+     * Interrupts running jobs and drops queued ones; dropped converter tasks are still counted as finished by their
+     * conversion, otherwise the source acquired by an already running task of the same file would never be released
+     */
+    private void stopAll() {
+        for (Runnable queued : threadPool.shutdownNow()) {
+            if (queued instanceof WorkerHandler<?>.Worker) {
+                ((WorkerHandler<?>.Worker) queued).drop();
+            }
         }
     }
 
+    /**
+     * Must only be called once, the permits of finishing workers are added on top
+     */
+    private void unblockSubmitters() {
+        queueSlots.release(Integer.MAX_VALUE / 2);
+    }
+
+    /**
+     * @return count of jobs finished so far
+     */
+    public int getFinishedJobCount() {
+        return internalCallback.currentJobCount;
+    }
+
+    private Callable<Result> createJob(T processor, File file) {
+        if (IPostProcessor.class.isInstance(processor)) {
+            return () -> ((IPostProcessor) processor).process(file, arguments.keepUnoptimizedFilesPostProcessor);
+        } else if (SourceDecoder.class.isInstance(processor)) {
+            return () -> ((SourceDecoder) processor).decode(file);
+        }
+        return () -> null;
+    }
+
     private class Worker implements Runnable {
-        private File unprocessedFile;
-        private T processor;
-        private InternalCallback callback;
-        private final Arguments arguments;
+        private final File unprocessedFile;
+        private final Callable<Result> job;
+        private final boolean convertTask;
+        private final InternalCallback callback;
 
-        public Worker(File unprocessedFile, T processors, Arguments arguments, InternalCallback callback) {
+        /**
+         * @param convertTask if true, the job is a converter task that returns null while other tasks of the same
+         *                    conversion are still running
+         */
+        public Worker(File unprocessedFile, Callable<Result> job, boolean convertTask, InternalCallback callback) {
             this.unprocessedFile = unprocessedFile;
-            this.arguments = arguments;
-            this.processor = processors;
+            this.job = job;
+            this.convertTask = convertTask;
             this.callback = callback;
         }
 
+        void drop() {
+            if (job instanceof IPlatformConverter.DroppableTask) {
+                ((IPlatformConverter.DroppableTask) job).drop();
+            }
+        }
+
         @Override
         public void run() {
-            Result result = null;
-            if (IPostProcessor.class.isInstance(processor)) {
-                result = ((IPostProcessor) processor).process(unprocessedFile, arguments.keepUnoptimizedFilesPostProcessor);
-            } else if (IPlatformConverter.class.isInstance(processor)) {
-                result = ((IPlatformConverter) processor).convert(unprocessedFile, arguments);
+            Result result;
+            ParallelismBudget.register();
+            try {
+                result = job.call();
+            } catch (Exception e) {
+                result = new Result(null, e, Collections.emptyList());
+            } finally {
+                ParallelismBudget.release(1);
+            }
+
+            if (convertTask) {
+                if (result == null) {
+                    return;
+                }
+                onSharedSourceJobFinished(unprocessedFile);
+            }
+
+            try {
+                // delivered outside of the lock, so listeners may safely feed other handlers
+                if (result != null && !internalCallback.canceled) {
+                    internalCallback.callback.onJobFinished(unprocessedFile, result);
+                }
+                callback.onJobFinished(result);
+            } finally {
+                queueSlots.release();
+            }
+        }
+    }
+
+    /**
+     * Runs one batch of a post processor, every file of the batch is reported as its own job
+     */
+    private class BatchWorker implements Runnable {
+        private final List<File> files;
+        private final IPostProcessor processor;
+
+        BatchWorker(List<File> files, IPostProcessor processor) {
+            this.files = files;
+            this.processor = processor;
+        }
+
+        @Override
+        public void run() {
+            List<Result> results;
+            ParallelismBudget.register();
+            try {
+                results = processor.processBatch(files, arguments.keepUnoptimizedFilesPostProcessor);
+                if (results == null || results.size() != files.size()) {
+                    throw new IllegalStateException("expected " + files.size() + " results from " + processor.getClass().getSimpleName() + " batch");
+                }
+            } catch (Exception e) {
+                results = new ArrayList<>(files.size());
+                for (int i = 0; i < files.size(); i++) {
+                    results.add(new Result(null, e, Collections.emptyList()));
+                }
+            } finally {
+                ParallelismBudget.release(1);
+            }
+
+            for (int i = 0; i < files.size(); i++) {
+                Result result = results.get(i);
+                try {
+                    if (result != null && !internalCallback.canceled) {
+                        internalCallback.callback.onJobFinished(files.get(i), result);
+                    }
+                    internalCallback.onJobFinished(result);
+                } finally {
+                    queueSlots.release();
+                }
+            }
+        }
+    }
+
+    private void onSharedSourceJobFinished(File file) {
+        AtomicInteger remainingJobs = sharedSourceJobs.get(file);
+        if (remainingJobs != null && remainingJobs.decrementAndGet() == 0 && sharedSourceJobs.remove(file) != null) {
+            SourceImageCache.release(file);
+        }
+    }
+
+    private void releaseAllSharedSources() {
+        for (File file : new ArrayList<>(sharedSourceJobs.keySet())) {
+            if (sharedSourceJobs.remove(file) != null) {
+                SourceImageCache.release(file);
             }
-            callback.onJobFinished(result);
         }
     }
 
     private class InternalCallback {
-        private int currentJobCount = 0;
+        private volatile int currentJobCount = 0;
         private List<Exception> exceptionList = new ArrayList<>();
         private Callback callback;
         private StringBuilder logBuilder = new StringBuilder();
-        private boolean canceled = false;
+        private volatile boolean canceled = false;
+        private boolean finished = false;
         private List<File> files = new ArrayList<>();
 
         public InternalCallback(Callback callback) {
@@ -117,28 +391,39 @@ public class WorkerHandler<T> {
                     if (result.exception != null) {
                         exceptionList.add(result.exception);
 
-                        if (arguments.haltOnError) {
-                            canceled = true;
-                            threadPool.shutdownNow();
+                        if (arguments.haltOnError && stop()) {
                             callback.onFinished(currentJobCount, files, logBuilder, exceptionList, true);
                         }
                     }
                 }
 
-                if (!canceled) {
-                    if (currentJobCount == jobCount) {
-                        callback.onFinished(currentJobCount, files, logBuilder, exceptionList, false);
-                    } else {
-                        callback.onProgress((float) currentJobCount / (float) jobCount);
-                    }
+                if (!canceled && !checkFinished()) {
+                    callback.onProgress((float) currentJobCount / (float) jobCount);
                 }
             }
         }
+
+        boolean checkFinished() {
+            if (closed && !canceled && !finished && currentJobCount == jobCount) {
+                finished = true;
+                callback.onFinished(currentJobCount, files, logBuilder, exceptionList, false);
+            }
+            return finished;
+        }
     }
 
     public interface Callback {
         void onProgress(float percent);
 
         void onFinished(int finishedJobs, List<File> outFiles, StringBuilder log, List<Exception> exceptions, boolean haltedDuringProcess);
+
+        /**
+         * Called for every single job as soon as it is finished, before progress is reported
+         *
+         * @param file   the processed input file of the job
+         * @param result of the job
+         */
+        default void onJobFinished(File file, Result result) {
+        }
     }
 }
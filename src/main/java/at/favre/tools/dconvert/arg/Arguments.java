@@ -18,6 +18,7 @@ package at.favre.tools.dconvert.arg;
 
 import at.favre.tools.dconvert.exceptions.InvalidArgumentException;
 import at.favre.tools.dconvert.util.MiscUtil;
+import at.favre.tools.dconvert.util.OutputCache;
 
 import java.io.File;
 import java.io.Serializable;
@@ -40,9 +41,13 @@ public class Arguments implements Serializable {
     public static final EScaleMode DEFAULT_SCALE_TYPE = EScaleMode.FACTOR;
     public static final EScalingAlgorithm DEFAULT_UPSCALING_QUALITY = EScalingAlgorithm.LANCZOS3;
     public static final EScalingAlgorithm DEFAULT_DOWNSCALING_QUALITY = EScalingAlgorithm.LANCZOS3;
+    public static final int DEFAULT_DAEMON_PORT = 7354;
+    public static final int DEFAULT_PNG_COMPRESSION_LEVEL = 9;
+    public static final int FAST_PNG_COMPRESSION_LEVEL = 1;
+    public static final EPngFilter DEFAULT_PNG_FILTER = EPngFilter.ADAPTIVE;
 
     public static final Arguments START_GUI = new Arguments(null, null, 0.27346f, null, null, null, null, null, 0.9362f, 996254, false,
-            false, false, false, false, false, false, false, false, false, false, false, false, null, false, false);
+            false, false, false, false, false, false, false, false, false, false, false, false, null, false, false, false, 0, false, null, 0, false, false, false, 0, false, 0, null);
 
     public final File src;
     public final File dst;
@@ -70,6 +75,18 @@ public class Arguments implements Serializable {
     public final boolean iosCreateImagesetFolders;
     public final boolean guiAdvancedOptions;
     public final boolean clearDirBeforeConvert;
+    public final boolean enablePyramidScaling;
+    public final int heapBudgetMb;
+    public final boolean incremental;
+    public final File cacheDir;
+    public final int cacheMaxMb;
+    public final boolean watch;
+    public final boolean daemon;
+    public final boolean useDaemon;
+    public final int daemonPort;
+    public final boolean enablePngOptimizer;
+    public final int pngCompressionLevel;
+    public final EPngFilter pngFilter;
     public final transient List<File> filesToProcess;
 
     public Arguments(File src, File dst, float scale, Set<EPlatform> platform, EOutputCompressionMode outputCompressionMode,
@@ -79,7 +96,9 @@ public class Arguments implements Serializable {
                      boolean createMipMapInsteadOfDrawableDir,
                      boolean iosCreateImagesetFolders, boolean enablePngCrush, boolean enableMozJpeg, boolean postConvertWebp, boolean enableAntiAliasing, boolean dryRun,
                      boolean keepUnoptimizedFilesPostProcessor, RoundingHandler.Strategy roundingHandler,
-                     boolean guiAdvancedOptions, boolean clearDirBeforeConvert) {
+                     boolean guiAdvancedOptions, boolean clearDirBeforeConvert, boolean enablePyramidScaling, int heapBudgetMb, boolean incremental,
+                     File cacheDir, int cacheMaxMb, boolean watch, boolean daemon, boolean useDaemon, int daemonPort,
+                     boolean enablePngOptimizer, int pngCompressionLevel, EPngFilter pngFilter) {
         this.dst = dst;
         this.src = src;
         this.scale = scale;
@@ -106,6 +125,18 @@ public class Arguments implements Serializable {
         this.roundingHandler = roundingHandler;
         this.guiAdvancedOptions = guiAdvancedOptions;
         this.clearDirBeforeConvert = clearDirBeforeConvert;
+        this.enablePyramidScaling = enablePyramidScaling;
+        this.heapBudgetMb = heapBudgetMb;
+        this.incremental = incremental;
+        this.cacheDir = cacheDir;
+        this.cacheMaxMb = cacheMaxMb;
+        this.watch = watch;
+        this.daemon = daemon;
+        this.useDaemon = useDaemon;
+        this.daemonPort = daemonPort;
+        this.enablePngOptimizer = enablePngOptimizer;
+        this.pngCompressionLevel = pngCompressionLevel;
+        this.pngFilter = pngFilter;
 
         this.filesToProcess = new ArrayList<>();
 
@@ -127,7 +158,8 @@ public class Arguments implements Serializable {
 
     public Arguments() {
         this(null, null, DEFAULT_SCALE, DEFAULT_PLATFORM, DEFAULT_OUT_COMPRESSION, DEFAULT_SCALE_TYPE, DEFAULT_DOWNSCALING_QUALITY, DEFAULT_UPSCALING_QUALITY, DEFAULT_COMPRESSION_QUALITY, DEFAULT_THREAD_COUNT,
-                false, false, true, false, false, false, false, false, false, false, false, false, false, DEFAULT_ROUNDING_STRATEGY, false, false);
+                false, false, true, false, false, false, false, false, false, false, false, false, false, DEFAULT_ROUNDING_STRATEGY, false, false, false, 0, false, null, OutputCache.DEFAULT_MAX_SIZE_MB, false, false, false, DEFAULT_DAEMON_PORT, false,
+                DEFAULT_PNG_COMPRESSION_LEVEL, DEFAULT_PNG_FILTER);
     }
 
     public double round(double raw) {
@@ -163,6 +195,18 @@ public class Arguments implements Serializable {
                 ", iosCreateImagesetFolders=" + iosCreateImagesetFolders +
                 ", guiAdvancedOptions=" + guiAdvancedOptions +
                 ", clearDirBeforeConvert=" + clearDirBeforeConvert +
+                ", enablePyramidScaling=" + enablePyramidScaling +
+                ", heapBudgetMb=" + heapBudgetMb +
+                ", incremental=" + incremental +
+                ", cacheDir=" + cacheDir +
+                ", cacheMaxMb=" + cacheMaxMb +
+                ", watch=" + watch +
+                ", daemon=" + daemon +
+                ", useDaemon=" + useDaemon +
+                ", daemonPort=" + daemonPort +
+                ", enablePngOptimizer=" + enablePngOptimizer +
+                ", pngCompressionLevel=" + pngCompressionLevel +
+                ", pngFilter=" + pngFilter +
                 ", filesToProcess=" + filesToProcess +
                 '}';
     }
@@ -192,6 +236,18 @@ public class Arguments implements Serializable {
         if (iosCreateImagesetFolders != arguments.iosCreateImagesetFolders) return false;
         if (guiAdvancedOptions != arguments.guiAdvancedOptions) return false;
         if (clearDirBeforeConvert != arguments.clearDirBeforeConvert) return false;
+        if (enablePyramidScaling != arguments.enablePyramidScaling) return false;
+        if (heapBudgetMb != arguments.heapBudgetMb) return false;
+        if (incremental != arguments.incremental) return false;
+        if (cacheMaxMb != arguments.cacheMaxMb) return false;
+        if (watch != arguments.watch) return false;
+        if (daemon != arguments.daemon) return false;
+        if (useDaemon != arguments.useDaemon) return false;
+        if (daemonPort != arguments.daemonPort) return false;
+        if (enablePngOptimizer != arguments.enablePngOptimizer) return false;
+        if (pngCompressionLevel != arguments.pngCompressionLevel) return false;
+        if (pngFilter != arguments.pngFilter) return false;
+        if (cacheDir != null ? !cacheDir.equals(arguments.cacheDir) : arguments.cacheDir != null) return false;
         if (src != null ? !src.equals(arguments.src) : arguments.src != null) return false;
         if (dst != null ? !dst.equals(arguments.dst) : arguments.dst != null) return false;
         if (platform != null ? !platform.equals(arguments.platform) : arguments.platform != null) return false;
@@ -232,6 +288,18 @@ public class Arguments implements Serializable {
         result = 31 * result + (iosCreateImagesetFolders ? 1 : 0);
         result = 31 * result + (guiAdvancedOptions ? 1 : 0);
         result = 31 * result + (clearDirBeforeConvert ? 1 : 0);
+        result = 31 * result + (enablePyramidScaling ? 1 : 0);
+        result = 31 * result + heapBudgetMb;
+        result = 31 * result + (incremental ? 1 : 0);
+        result = 31 * result + (cacheDir != null ? cacheDir.hashCode() : 0);
+        result = 31 * result + cacheMaxMb;
+        result = 31 * result + (watch ? 1 : 0);
+        result = 31 * result + (daemon ? 1 : 0);
+        result = 31 * result + (useDaemon ? 1 : 0);
+        result = 31 * result + daemonPort;
+        result = 31 * result + (enablePngOptimizer ? 1 : 0);
+        result = 31 * result + pngCompressionLevel;
+        result = 31 * result + (pngFilter != null ? pngFilter.hashCode() : 0);
         result = 31 * result + (filesToProcess != null ? filesToProcess.hashCode() : 0);
         return result;
     }
@@ -275,6 +343,18 @@ public class Arguments implements Serializable {
         private boolean iosCreateImagesetFolders = false;
         private boolean guiAdvancedOptions;
         private boolean clearDirBeforeConvert;
+        private boolean enablePyramidScaling;
+        private int heapBudgetMb = 0;
+        private boolean incremental = false;
+        private File cacheDir;
+        private int cacheMaxMb = OutputCache.DEFAULT_MAX_SIZE_MB;
+        private boolean watch = false;
+        private boolean daemon = false;
+        private boolean useDaemon = false;
+        private int daemonPort = DEFAULT_DAEMON_PORT;
+        private boolean enablePngOptimizer = false;
+        private int pngCompressionLevel = DEFAULT_PNG_COMPRESSION_LEVEL;
+        private EPngFilter pngFilter = DEFAULT_PNG_FILTER;
 
         public Builder(File src, float srcScale) {
             this.src = src;
@@ -407,6 +487,62 @@ public class Arguments implements Serializable {
             return this;
         }
 
+        public Builder enablePyramidScaling(boolean b) {
+            this.enablePyramidScaling = b;
+            return this;
+        }
+
+        public Builder heapBudgetMb(int heapBudgetMb) {
+            this.heapBudgetMb = heapBudgetMb;
+            return this;
+        }
+
+        public Builder incremental(boolean b) {
+            this.incremental = b;
+            return this;
+        }
+
+        public Builder cacheDir(File cacheDir) {
+            this.cacheDir = cacheDir;
+            return this;
+        }
+
+        public Builder cacheMaxMb(int cacheMaxMb) {
+            this.cacheMaxMb = cacheMaxMb;
+            return this;
+        }
+
+        public Builder watch(boolean b) {
+            this.watch = b;
+            return this;
+        }
+
+        public Builder daemon(boolean b) {
+            this.daemon = b;
+            return this;
+        }
+
+        public Builder useDaemon(boolean b) {
+            this.useDaemon = b;
+            return this;
+        }
+
+        public Builder daemonPort(int daemonPort) {
+            this.daemonPort = daemonPort;
+            return this;
+        }
+
+        public Builder enablePngOptimizer(boolean b) {
+            this.enablePngOptimizer = b;
+            return this;
+        }
+
+        public Builder pngCompression(int compressionLevel, EPngFilter filter) {
+            this.pngCompressionLevel = compressionLevel;
+            this.pngFilter = filter;
+            return this;
+        }
+
         public Arguments build() throws InvalidArgumentException {
             if (!internalSkipParamValidation) {
                 ResourceBundle bundle = ResourceBundle.getBundle("bundles.strings", Locale.getDefault());
@@ -415,15 +551,18 @@ public class Arguments implements Serializable {
                     throw new InvalidArgumentException(bundle.getString("error.missing.platforms"));
                 }
 
-                if (src == null || !src.exists()) {
-                    throw new InvalidArgumentException(MessageFormat.format(bundle.getString("error.missing.src"), src));
-                }
+                // the daemon itself has no sources, they are sent with every request
+                if (!daemon) {
+                    if (src == null || !src.exists()) {
+                        throw new InvalidArgumentException(MessageFormat.format(bundle.getString("error.missing.src"), src));
+                    }
 
-                if (dst == null) {
-                    if (src.isDirectory()) {
-                        dst = src;
-                    } else {
-                        dst = src.getParentFile();
+                    if (dst == null) {
+                        if (src.isDirectory()) {
+                            dst = src;
+                        } else {
+                            dst = src.getParentFile();
+                        }
                     }
                 }
 
@@ -435,6 +574,26 @@ public class Arguments implements Serializable {
                     throw new InvalidArgumentException(MessageFormat.format(bundle.getString("error.invalid.thread"), threadCount, MAX_THREAD_COUNT));
                 }
 
+                if (cacheMaxMb < 1) {
+                    throw new InvalidArgumentException(MessageFormat.format(bundle.getString("error.invalid.cachesize"), cacheMaxMb));
+                }
+
+                if (daemonPort < 1 || daemonPort > 65535) {
+                    throw new InvalidArgumentException(MessageFormat.format(bundle.getString("error.invalid.daemonport"), String.valueOf(daemonPort)));
+                }
+
+                if (pngCompressionLevel < 0 || pngCompressionLevel > 9) {
+                    throw new InvalidArgumentException(MessageFormat.format(bundle.getString("error.invalid.pngcompressionlevel"), pngCompressionLevel));
+                }
+
+                if (pngFilter == null) {
+                    throw new InvalidArgumentException(bundle.getString("error.missing.pngfilter"));
+                }
+
+                if (heapBudgetMb < 0) {
+                    throw new InvalidArgumentException(MessageFormat.format(bundle.getString("error.invalid.heapbudget"), heapBudgetMb));
+                }
+
                 switch (scaleType) {
                     case FACTOR:
                         if (srcScale <= 0 || srcScale >= 100) {
@@ -455,7 +614,8 @@ public class Arguments implements Serializable {
             }
             return new Arguments(src, dst, srcScale, platform, outputCompressionMode, scaleType, downScalingAlgorithm, upScalingAlgorithm, compressionQuality, threadCount,
                     skipExistingFiles, skipUpscaling, verboseLog, includeAndroidLdpiTvdpi, haltOnError, createMipMapInsteadOfDrawableDir,
-                    iosCreateImagesetFolders, enablePngCrush, enableMozJpeg, postConvertWebp, enableAntiAliasing, dryRun, keepUnoptimizedFilesPostProcessor, roundingStrategy, guiAdvancedOptions, clearDirBeforeConvert);
+                    iosCreateImagesetFolders, enablePngCrush, enableMozJpeg, postConvertWebp, enableAntiAliasing, dryRun, keepUnoptimizedFilesPostProcessor, roundingStrategy, guiAdvancedOptions, clearDirBeforeConvert, enablePyramidScaling, heapBudgetMb, incremental, cacheDir, cacheMaxMb, watch, daemon, useDaemon, daemonPort, enablePngOptimizer,
+                    pngCompressionLevel, pngFilter);
         }
     }
 
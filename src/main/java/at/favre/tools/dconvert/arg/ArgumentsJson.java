@@ -0,0 +1,148 @@
+/*
+ *  Copyright 2016 Patrick Favre-Bulle
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package at.favre.tools.dconvert.arg;
+
+import at.favre.tools.dconvert.exceptions.InvalidArgumentException;
+import at.favre.tools.dconvert.util.FlatJson;
+
+import java.io.File;
+import java.util.*;
+
+/**
+ * Converts {@link Arguments} to and from flat JSON, used to send jobs to the daemon. All paths are made absolute, since
+ * client and daemon may have different working directories. Only options that influence a single run are included,
+ * not the ones of the process itself (gui, watch, daemon).
+ */
+public final class ArgumentsJson {
+    private ArgumentsJson() {
+    }
+
+    public static String toJson(Arguments args) {
+        Map<String, Object> map = new LinkedHashMap<>();
+        map.put("src", toPath(args.src));
+        map.put("dst", toPath(args.dst));
+        map.put("scale", args.scale);
+        List<String> platforms = new ArrayList<>();
+        for (EPlatform platform : args.platform) {
+            platforms.add(platform.name());
+        }
+        map.put("platform", platforms);
+        map.put("outputCompressionMode", args.outputCompressionMode.name());
+        map.put("scaleMode", args.scaleMode.name());
+        map.put("downScalingAlgorithm", args.downScalingAlgorithm.name());
+        map.put("upScalingAlgorithm", args.upScalingAlgorithm.name());
+        map.put("compressionQuality", args.compressionQuality);
+        map.put("threadCount", args.threadCount);
+        map.put("skipExistingFiles", args.skipExistingFiles);
+        map.put("skipUpscaling", args.skipUpscaling);
+        map.put("verboseLog", args.verboseLog);
+        map.put("includeAndroidLdpiTvdpi", args.includeAndroidLdpiTvdpi);
+        map.put("haltOnError", args.haltOnError);
+        map.put("createMipMapInsteadOfDrawableDir", args.createMipMapInsteadOfDrawableDir);
+        map.put("iosCreateImagesetFolders", args.iosCreateImagesetFolders);
+        map.put("enablePngCrush", args.enablePngCrush);
+        map.put("enablePngOptimizer", args.enablePngOptimizer);
+        map.put("pngCompressionLevel", args.pngCompressionLevel);
+        map.put("pngFilter", args.pngFilter.name());
+        map.put("enableMozJpeg", args.enableMozJpeg);
+        map.put("postConvertWebp", args.postConvertWebp);
+        map.put("enableAntiAliasing", args.enableAntiAliasing);
+        map.put("dryRun", args.dryRun);
+        map.put("keepUnoptimizedFilesPostProcessor", args.keepUnoptimizedFilesPostProcessor);
+        map.put("roundingHandler", args.roundingHandler.name());
+        map.put("clearDirBeforeConvert", args.clearDirBeforeConvert);
+        map.put("enablePyramidScaling", args.enablePyramidScaling);
+        map.put("heapBudgetMb", args.heapBudgetMb);
+        map.put("incremental", args.incremental);
+        map.put("cacheDir", toPath(args.cacheDir));
+        map.put("cacheMaxMb", args.cacheMaxMb);
+        return FlatJson.encode(map);
+    }
+
+    /**
+     * @throws InvalidArgumentException if the json is malformed or contains invalid arguments
+     */
+    public static Arguments fromJson(String json) throws InvalidArgumentException {
+        try {
+            Map<String, Object> map = FlatJson.decode(json);
+
+            Set<EPlatform> platforms = new HashSet<>();
+            for (String platform : getStrings(map, "platform")) {
+                platforms.add(EPlatform.valueOf(platform));
+            }
+
+            return new Arguments.Builder(toFile(map.get("src")), getNumber(map, "scale").floatValue())
+                    .dstFolder(toFile(map.get("dst")))
+                    .platform(platforms)
+                    .compression(EOutputCompressionMode.valueOf(getString(map, "outputCompressionMode")), getNumber(map, "compressionQuality").floatValue())
+                    .scaleMode(EScaleMode.valueOf(getString(map, "scaleMode")))
+                    .downScaleAlgorithm(EScalingAlgorithm.valueOf(getString(map, "downScalingAlgorithm")))
+                    .upScaleAlgorithm(EScalingAlgorithm.valueOf(getString(map, "upScalingAlgorithm")))
+                    .threadCount(getNumber(map, "threadCount").intValue())
+                    .skipExistingFiles(getBoolean(map, "skipExistingFiles"))
+                    .skipUpscaling(getBoolean(map, "skipUpscaling"))
+                    .verboseLog(getBoolean(map, "verboseLog"))
+                    .includeAndroidLdpiTvdpi(getBoolean(map, "includeAndroidLdpiTvdpi"))
+                    .haltOnError(getBoolean(map, "haltOnError"))
+                    .createMipMapInsteadOfDrawableDir(getBoolean(map, "createMipMapInsteadOfDrawableDir"))
+                    .iosCreateImagesetFolders(getBoolean(map, "iosCreateImagesetFolders"))
+                    .enablePngCrush(getBoolean(map, "enablePngCrush"))
+                    .enablePngOptimizer(getBoolean(map, "enablePngOptimizer"))
+                    .pngCompression(getNumber(map, "pngCompressionLevel").intValue(), EPngFilter.valueOf(getString(map, "pngFilter")))
+                    .enableMozJpeg(getBoolean(map, "enableMozJpeg"))
+                    .postConvertWebp(getBoolean(map, "postConvertWebp"))
+                    .antiAliasing(getBoolean(map, "enableAntiAliasing"))
+                    .dryRun(getBoolean(map, "dryRun"))
+                    .keepUnoptimizedFilesPostProcessor(getBoolean(map, "keepUnoptimizedFilesPostProcessor"))
+                    .scaleRoundingStragy(RoundingHandler.Strategy.valueOf(getString(map, "roundingHandler")))
+                    .clearDirBeforeConvert(getBoolean(map, "clearDirBeforeConvert"))
+                    .enablePyramidScaling(getBoolean(map, "enablePyramidScaling"))
+                    .heapBudgetMb(getNumber(map, "heapBudgetMb").intValue())
+                    .incremental(getBoolean(map, "incremental"))
+                    .cacheDir(toFile(map.get("cacheDir")))
+                    .cacheMaxMb(getNumber(map, "cacheMaxMb").intValue())
+                    .build();
+        } catch (IllegalArgumentException | ClassCastException | NullPointerException e) {
+            throw new InvalidArgumentException("invalid arguments json: " + e.getMessage(), e);
+        }
+    }
+
+    private static String toPath(File file) {
+        return file != null ? file.getAbsolutePath() : null;
+    }
+
+    private static File toFile(Object path) {
+        return path != null ? new File((String) path) : null;
+    }
+
+    private static String getString(Map<String, Object> map, String key) {
+        return (String) Objects.requireNonNull(map.get(key), key);
+    }
+
+    private static Number getNumber(Map<String, Object> map, String key) {
+        return (Number) Objects.requireNonNull(map.get(key), key);
+    }
+
+    private static boolean getBoolean(Map<String, Object> map, String key) {
+        return Boolean.TRUE.equals(map.get(key));
+    }
+
+    @SuppressWarnings("unchecked")
+    private static List<String> getStrings(Map<String, Object> map, String key) {
+        return (List<String>) Objects.requireNonNull(map.get(key), key);
+    }
+}
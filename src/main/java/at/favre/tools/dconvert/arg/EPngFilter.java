@@ -0,0 +1,62 @@
+/*
+ *  Copyright 2016 Patrick Favre-Bulle
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package at.favre.tools.dconvert.arg;
+
+/**
+ * Row filter used when writing png files
+ */
+public enum EPngFilter {
+    /**
+     * per row the filter with the smallest sum of absolute differences, as recommended by the png spec
+     */
+    ADAPTIVE(-1),
+    NONE(0),
+    SUB(1),
+    UP(2),
+    AVERAGE(3),
+    PAETH(4);
+
+    /**
+     * png filter type byte or -1 if chosen per row
+     */
+    public final int filterType;
+
+    EPngFilter(int filterType) {
+        this.filterType = filterType;
+    }
+
+    public static EPngFilter getByName(String name) {
+        for (EPngFilter filter : values()) {
+            if (filter.name().equalsIgnoreCase(name)) {
+                return filter;
+            }
+        }
+        return null;
+    }
+
+    public static String getCliArgString() {
+        StringBuilder sb = new StringBuilder();
+        for (EPngFilter filter : values()) {
+            if (sb.length() > 0) {
+                sb.append("|");
+            }
+            sb.append(filter.name().toLowerCase());
+        }
+        return sb.toString();
+    }
+}
@@ -16,10 +16,13 @@
 
 package at.favre.tools.dconvert.arg;
 
+import at.favre.tools.dconvert.converters.scaling.AreaAverageAlgorithm;
+import at.favre.tools.dconvert.converters.scaling.AutoScaleAlgorithm;
 import at.favre.tools.dconvert.converters.scaling.NaiveGraphics2dAlgorithm;
 import at.favre.tools.dconvert.converters.scaling.ProgressiveAlgorithm;
 import at.favre.tools.dconvert.converters.scaling.ResampleAlgorithm;
 import at.favre.tools.dconvert.converters.scaling.ScaleAlgorithm;
+import at.favre.tools.dconvert.converters.scaling.SeparableResampleAlgorithm;
 import com.mortennobel.imagescaling.ResampleFilters;
 
 import java.awt.*;
@@ -38,6 +41,10 @@ public enum EScalingAlgorithm {
     LANCZOS4(new ResampleAlgorithm(new ResampleAlgorithm.LanczosFilter(4)), "lanczos4", new Type[]{Type.DOWNSCALING, Type.UPSCALING}, false),
     LANCZOS5(new ResampleAlgorithm(new ResampleAlgorithm.LanczosFilter(5)), "lanczos5", new Type[]{Type.DOWNSCALING, Type.UPSCALING}, false),
     MITCHELL(new ResampleAlgorithm(ResampleFilters.getMitchellFilter()), "mitchell", new Type[]{Type.DOWNSCALING, Type.UPSCALING}, true),
+    LANCZOS3_FAST(new SeparableResampleAlgorithm(new ResampleAlgorithm.LanczosFilter(3)), "lanczos3Fast", new Type[]{Type.DOWNSCALING, Type.UPSCALING}, true),
+    MITCHELL_FAST(new SeparableResampleAlgorithm(ResampleFilters.getMitchellFilter()), "mitchellFast", new Type[]{Type.DOWNSCALING, Type.UPSCALING}, true),
+    AREA_AVERAGE(new AreaAverageAlgorithm(), "areaAverage", new Type[]{Type.DOWNSCALING}, true),
+    AUTO(new AutoScaleAlgorithm(AREA_AVERAGE.getImplementation(), LANCZOS3_FAST.getImplementation()), "auto", new Type[]{Type.DOWNSCALING, Type.UPSCALING}, true),
     BSPLINE(new ResampleAlgorithm(ResampleFilters.getBSplineFilter()), "bspline", new Type[]{Type.DOWNSCALING, Type.UPSCALING}, false),
     HERMITE(new ResampleAlgorithm(ResampleFilters.getHermiteFilter()), "hermite", new Type[]{Type.DOWNSCALING, Type.UPSCALING}, false),
     NEAREST_NEIGHBOR(new NaiveGraphics2dAlgorithm(RenderingHints.VALUE_INTERPOLATION_NEAREST_NEIGHBOR), "nearestNeighbor", new Type[]{Type.DOWNSCALING, Type.UPSCALING}, true),
@@ -41,6 +41,13 @@ public enum ImageType {
         this.supportRead = supportRead;
     }
 
+    /**
+     * @return true if files of this type are already stored with the given compression (e.g. a png with png)
+     */
+    public boolean isStoredAs(ECompression compression) {
+        return this != SVG && this != PSD && outCompressionStrict == compression;
+    }
+
     /**
      * Supported image compression types
      */
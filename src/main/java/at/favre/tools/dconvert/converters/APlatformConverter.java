@@ -22,14 +22,16 @@ import at.favre.tools.dconvert.arg.ImageType;
 import at.favre.tools.dconvert.converters.descriptors.DensityDescriptor;
 import at.favre.tools.dconvert.converters.scaling.ImageHandler;
 import at.favre.tools.dconvert.util.DensityBucketUtil;
-import at.favre.tools.dconvert.util.ImageUtil;
 import at.favre.tools.dconvert.util.LoadedImage;
 import at.favre.tools.dconvert.util.MiscUtil;
+import at.favre.tools.dconvert.util.SourceImageCache;
 
 import java.awt.*;
 import java.io.File;
 import java.util.*;
 import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CancellationException;
 
 /**
  * The main logic of all platform converters
@@ -39,60 +41,270 @@ public abstract class APlatformConverter<T extends DensityDescriptor> implements
     @Override
     public Result convert(File srcImage, Arguments args) {
         try {
-            File destinationFolder = args.dst;
-            LoadedImage imageData = ImageUtil.loadImage(srcImage);
-            String targetImageFileName = MiscUtil.getFileNameWithoutExtension(srcImage);
-            ImageType imageType = Arguments.getImageType(srcImage);
-            boolean isNinePatch = AndroidConverter.isNinePatch(srcImage) && getClass() == AndroidConverter.class;
+            return createTasks(srcImage, args, false).get(0).call();
+        } catch (Exception e) {
+            return new Result(null, e, Collections.emptyList());
+        }
+    }
 
-            StringBuilder log = new StringBuilder();
-            log.append(getConverterName()).append(": ").append(targetImageFileName).append(" ")
-                    .append(imageData.getImage().getWidth()).append("x").append(imageData.getImage().getHeight()).append(" (").append(args.scale).append(args.scaleMode == EScaleMode.FACTOR ? "x" : "dp").append(")\n");
+    /**
+     * Creates one task per density, sharing the decoded source. In pyramid mode all densities are one task, since
+     * smaller densities are scaled from the larger ones.
+     */
+    @Override
+    public List<Callable<Result>> createTasks(File srcImage, Arguments args) {
+        return createTasks(srcImage, args, !args.enablePyramidScaling);
+    }
 
-            Map<T, Dimension> densityMap = DensityBucketUtil.getDensityBuckets(usedOutputDensities(args), new Dimension(imageData.getImage().getWidth(), imageData.getImage().getHeight()), args, args.scale, isNinePatch);
+    private List<Callable<Result>> createTasks(File srcImage, Arguments args, boolean perDensity) {
+        Conversion conversion = new Conversion(srcImage, args);
+        List<Callable<Result>> tasks = new ArrayList<>();
+        if (perDensity) {
+            for (T density : usedOutputDensities(args)) {
+                tasks.add(conversion.createTask(Collections.singletonList(density)));
+            }
+        }
+        if (tasks.isEmpty()) {
+            tasks.add(conversion.createTask(null));
+        }
+        conversion.remainingTasks = tasks.size();
+        return tasks;
+    }
+
+    /**
+     * State of converting one source file, shared by all of its tasks. The first task prepares the conversion
+     * (incl. {@link #onPreExecute}), the last one finishes it (incl. {@link #onPostExecute}) and returns the result.
+     */
+    private class Conversion {
+        private final File srcImage;
+        private final Arguments args;
+        private final StringBuilder log = new StringBuilder();
+        private final List<File> allResultingFiles = new ArrayList<>();
+        private int remainingTasks;
+        private boolean prepared;
+        private Exception exception;
+        private LoadedImage imageData;
+        private String targetImageFileName;
+        private boolean isNinePatch;
+        private Map<T, Dimension> densityMap;
+        private File mainSubFolder;
+
+        Conversion(File srcImage, Arguments args) {
+            this.srcImage = srcImage;
+            this.args = args;
+        }
+
+        /**
+         * @param densities to convert in this task or null for all
+         */
+        Callable<Result> createTask(List<T> densities) {
+            return new DroppableTask() {
+                @Override
+                public Result call() {
+                    return runTask(densities);
+                }
 
-            File mainSubFolder = createMainSubFolder(destinationFolder, targetImageFileName, args);
+                @Override
+                public void drop() {
+                    onTaskFailed(new CancellationException("task dropped before it was run"));
+                    onTaskFinished();
+                }
+            };
+        }
+
+        /**
+         * @return the result of the whole conversion if this was the last task, null otherwise
+         */
+        private Result runTask(List<T> densities) {
+            ImageHandler imageHandler = new ImageHandler(args);
+            try {
+                if (prepare(imageHandler)) {
+                    StringBuilder taskLog = new StringBuilder();
+                    List<File> taskFiles = new ArrayList<>();
+                    for (Map.Entry<T, Dimension> entry : getDensities(densities)) {
+                        convertDensity(entry.getKey(), entry.getValue(), imageHandler, taskLog, taskFiles);
+                    }
+
+                    if (imageHandler.getPyramidReport() != null && !args.dryRun) {
+                        taskLog.append(imageHandler.getPyramidReport()).append("\n");
+                    }
+                    if (imageHandler.getPngReport() != null) {
+                        taskLog.append(imageHandler.getPngReport()).append("\n");
+                    }
+                    onTaskSucceeded(taskLog, taskFiles);
+                }
+            } catch (Exception e) {
+                e.printStackTrace();
+                onTaskFailed(e);
+            } finally {
+                imageHandler.clear();
+            }
+            return onTaskFinished();
+        }
+
+        /**
+         * @return false if the conversion already failed in another task
+         */
+        private synchronized boolean prepare(ImageHandler imageHandler) throws Exception {
+            if (prepared) {
+                return exception == null;
+            }
+            prepared = true;
+            try {
+                imageData = SourceImageCache.acquire(srcImage, srcDimension -> getMaxTargetDimension(srcImage, srcDimension, args));
+                targetImageFileName = MiscUtil.getFileNameWithoutExtension(srcImage);
+                ImageType imageType = Arguments.getImageType(srcImage);
+                isNinePatch = AndroidConverter.isNinePatch(srcImage) && APlatformConverter.this.getClass() == AndroidConverter.class;
+                Dimension srcDimension = imageData.getSourceDimension();
+
+                log.append(getConverterName()).append(": ").append(targetImageFileName).append(" ")
+                        .append(srcDimension.width).append("x").append(srcDimension.height).append(" (").append(args.scale).append(args.scaleMode == EScaleMode.FACTOR ? "x" : "dp").append(")\n");
+                if (imageData.getStreamingSource() != null) {
+                    log.append("too big to decode, scaled in strips").append(imageData.getSubsampling() > 1 ? " subsampled 1/" + imageData.getSubsampling() : "").append("\n");
+                } else if (imageData.getSubsampling() > 1) {
+                    log.append("decoded subsampled 1/").append(imageData.getSubsampling()).append(" to ")
+                            .append(imageData.getImage().getWidth()).append("x").append(imageData.getImage().getHeight()).append("\n");
+                } else if (imageData.getVectorSource() != null) {
+                    log.append("rendered from vector source per density\n");
+                }
 
-            onPreExecute(mainSubFolder, targetImageFileName, usedOutputDensities(args), imageType, args);
+                densityMap = DensityBucketUtil.getDensityBuckets(usedOutputDensities(args), srcDimension, args, args.scale, isNinePatch);
+                imageHandler.planStreamingTargets(imageData, densityMap.values(), isNinePatch);
+                mainSubFolder = createMainSubFolder(args.dst, targetImageFileName, args);
 
-            List<File> allResultingFiles = new ArrayList<>();
+                onPreExecute(mainSubFolder, targetImageFileName, usedOutputDensities(args), imageType, args);
+                return true;
+            } catch (Exception e) {
+                exception = e;
+                throw e;
+            }
+        }
 
+        private synchronized List<Map.Entry<T, Dimension>> getDensities(List<T> densities) {
+            List<Map.Entry<T, Dimension>> entries = new ArrayList<>();
             for (Map.Entry<T, Dimension> entry : densityMap.entrySet()) {
-                File dstFolder = createFolderForOutputFile(mainSubFolder, entry.getKey(), entry.getValue(), targetImageFileName, args);
+                if (densities == null || densities.contains(entry.getKey())) {
+                    entries.add(entry);
+                }
+            }
+            if (args.enablePyramidScaling) {
+                //largest first, so smaller densities can be scaled from the already scaled larger ones
+                entries.sort((o1, o2) -> Long.compare((long) o2.getValue().width * o2.getValue().height, (long) o1.getValue().width * o1.getValue().height));
+            }
+            return entries;
+        }
 
-                if ((dstFolder.isDirectory() && dstFolder.exists()) || args.dryRun) {
-                    File imageFile = new File(dstFolder, createDestinationFileNameWithoutExtension(entry.getKey(), entry.getValue(), targetImageFileName, args));
+        private void convertDensity(T density, Dimension dimension, ImageHandler imageHandler, StringBuilder taskLog, List<File> taskFiles) throws Exception {
+            File dstFolder = createFolderForOutputFile(mainSubFolder, density, dimension, targetImageFileName, args);
 
-                    log.append("process ").append(imageFile).append(" with ").append(entry.getValue().width).append("x").append(entry.getValue().height).append(" (x")
-                            .append(entry.getKey().scale).append(") ").append(isNinePatch ? "(9-patch)" : "").append("\n");
+            if ((dstFolder.isDirectory() && dstFolder.exists()) || args.dryRun) {
+                File imageFile = new File(dstFolder, createDestinationFileNameWithoutExtension(density, dimension, targetImageFileName, args));
 
-                    if (!args.dryRun) {
-                        List<File> files = new ImageHandler(args).saveToFile(imageFile, imageData, entry.getValue(), isNinePatch);
+                taskLog.append("process ").append(imageFile).append(" with ").append(dimension.width).append("x").append(dimension.height).append(" (x")
+                        .append(density.scale).append(") ").append(isNinePatch ? "(9-patch)" : "").append("\n");
 
-                        allResultingFiles.addAll(files);
+                if (!args.dryRun) {
+                    List<File> files = imageHandler.saveToFile(imageFile, imageData, dimension, isNinePatch);
 
-                        for (File file : files) {
-                            log.append("compressed to disk: ").append(file).append(" (").append(String.format(Locale.US, "%.2f", (float) file.length() / 1024f)).append("kB)\n");
-                        }
+                    taskFiles.addAll(files);
+
+                    for (File file : files) {
+                        taskLog.append("compressed to disk: ").append(file).append(" (").append(String.format(Locale.US, "%.2f", (float) file.length() / 1024f)).append("kB)\n");
+                    }
 
-                        if (files.isEmpty()) {
-                            log.append("files skipped\n");
-                        }
+                    if (files.isEmpty()) {
+                        taskLog.append("files skipped\n");
                     }
-                } else {
-                    throw new IllegalStateException("could not create " + dstFolder);
                 }
+            } else {
+                throw new IllegalStateException("could not create " + dstFolder);
             }
+        }
 
-            onPostExecute(args);
+        private synchronized void onTaskSucceeded(StringBuilder taskLog, List<File> taskFiles) {
+            log.append(taskLog);
+            allResultingFiles.addAll(taskFiles);
+        }
 
-            imageData.getImage().flush();
+        private synchronized void onTaskFailed(Exception e) {
+            if (exception == null) {
+                exception = e;
+            }
+        }
 
-            return new Result(log.toString(), allResultingFiles);
-        } catch (Exception e) {
-            e.printStackTrace();
-            return new Result(null, e, Collections.emptyList());
+        /**
+         * @return the result of the whole conversion if this was the last task, null otherwise
+         */
+        private Result onTaskFinished() {
+            synchronized (this) {
+                if (--remainingTasks > 0) {
+                    return null;
+                }
+            }
+
+            try {
+                if (exception == null) {
+                    onPostExecute(args);
+                    return new Result(log.toString(), allResultingFiles);
+                }
+            } catch (Exception e) {
+                e.printStackTrace();
+                exception = e;
+            } finally {
+                if (imageData != null) {
+                    SourceImageCache.release(srcImage);
+                }
+            }
+            return new Result(null, exception, Collections.emptyList());
+        }
+    }
+
+    /**
+     * Gets the dimensions of all images this converter would create for the given source dimension
+     *
+     * @param srcDimension dimension of the source image
+     * @param args         all tool args
+     * @return dimension of every density
+     */
+    public Collection<Dimension> getTargetDimensions(Dimension srcDimension, Arguments args) throws Exception {
+        return DensityBucketUtil.getDensityBuckets(usedOutputDensities(args), srcDimension, args, args.scale, false).values();
+    }
+
+    /**
+     * Gets the bounds of all images this converter would create for the given source, used to decode big sources
+     * subsampled
+     *
+     * @param srcImage     source file
+     * @param srcDimension dimension of the source image
+     * @param args         all tool args
+     * @return max width and height of all densities or null if the source must be decoded in full resolution
+     */
+    public Dimension getMaxTargetDimension(File srcImage, Dimension srcDimension, Arguments args) throws Exception {
+        if (AndroidConverter.isNinePatch(srcImage) && getClass() == AndroidConverter.class) {
+            // the 1px border markers must not be subsampled away
+            return null;
+        }
+        Dimension max = new Dimension(0, 0);
+        for (Dimension dimension : getTargetDimensions(srcDimension, args)) {
+            max.width = Math.max(max.width, dimension.width);
+            max.height = Math.max(max.height, dimension.height);
+        }
+        return max;
+    }
+
+    /**
+     * Gets the pixel count of the biggest image this converter would create for the given source dimension
+     *
+     * @param srcDimension dimension of the source image
+     * @param args         all tool args
+     * @return max pixel count of all densities
+     */
+    public long getMaxTargetPixels(Dimension srcDimension, Arguments args) throws Exception {
+        long maxPixels = 0;
+        for (Dimension dimension : getTargetDimensions(srcDimension, args)) {
+            maxPixels = Math.max(maxPixels, (long) dimension.width * (long) dimension.height);
         }
+        return maxPixels;
     }
 
     public abstract List<T> usedOutputDensities(Arguments arguments);
@@ -19,6 +19,9 @@ package at.favre.tools.dconvert.converters;
 import at.favre.tools.dconvert.arg.Arguments;
 
 import java.io.File;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.Callable;
 
 /**
  * Defines how an image will be converted for a specific platform and densities
@@ -34,6 +37,29 @@ public interface IPlatformConverter {
      */
     Result convert(File srcImageFile, Arguments arguments);
 
+    /**
+     * Splits the conversion of the given file into tasks that can run in parallel. Every task returns null except
+     * the one finishing last, which returns the result of the whole conversion (same as {@link #convert(File, Arguments)}).
+     *
+     * @param srcImageFile source image file to be used as base to scale
+     * @param arguments    all tool args
+     * @return at least one task
+     */
+    default List<Callable<Result>> createTasks(File srcImageFile, Arguments arguments) {
+        return Collections.singletonList(() -> convert(srcImageFile, arguments));
+    }
+
+    /**
+     * A task of {@link #createTasks(File, Arguments)} that holds shared state of its conversion (e.g. the decoded
+     * source) and must be dropped if it will never run, so that state is released once the other tasks are done
+     */
+    interface DroppableTask extends Callable<Result> {
+        /**
+         * Counts this task as finished without running it; the conversion fails
+         */
+        void drop();
+    }
+
     /**
      * Cleans (ie. deletes) all dirs that would be generated with this converter and arguments
      *
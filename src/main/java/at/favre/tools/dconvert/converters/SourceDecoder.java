@@ -0,0 +1,142 @@
+/*
+ *  Copyright 2016 Patrick Favre-Bulle
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package at.favre.tools.dconvert.converters;
+
+import at.favre.tools.dconvert.arg.Arguments;
+import at.favre.tools.dconvert.converters.scaling.StreamingScaler;
+import at.favre.tools.dconvert.util.HeapBudget;
+import at.favre.tools.dconvert.util.ImageUtil;
+import at.favre.tools.dconvert.util.SourceImageCache;
+
+import java.awt.*;
+import java.io.File;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Decode stage: decodes a source image into the {@link SourceImageCache} ahead of the converters, so decoding
+ * (mostly I/O and inflating) can run in parallel to scaling.
+ * <p>
+ * Before decoding, the memory the whole conversion of the image will need is estimated from the dimensions in
+ * the file header and reserved in the {@link HeapBudget}; if it does not fit, decoding waits until enough
+ * other images are done. The reservation is freed as soon as the decoded image is evicted from the cache.
+ * <p>
+ * The decoded image is retained after this call; the caller must {@link SourceImageCache#release(File)} it
+ * once it was handed to the next stage. Decoding errors are not reported here, the converters will
+ * try again and report them.
+ */
+public class SourceDecoder {
+    private static final int BYTES_PER_PIXEL = 4;
+
+    private final List<IPlatformConverter> converters;
+    private final Arguments arguments;
+    private final HeapBudget heapBudget;
+    private final Map<File, Dimension> srcDimensions;
+
+    /**
+     * @param srcDimensions already known dimensions of sources (e.g. from planning), others are read from the header
+     */
+    public SourceDecoder(List<IPlatformConverter> converters, Arguments arguments, HeapBudget heapBudget, Map<File, Dimension> srcDimensions) {
+        this.converters = converters;
+        this.arguments = arguments;
+        this.heapBudget = heapBudget;
+        this.srcDimensions = srcDimensions;
+    }
+
+    public Result decode(File srcImage) {
+        StringBuilder log = new StringBuilder();
+        long reservedBytes = estimateMemoryBytes(srcImage);
+
+        if (reservedBytes > heapBudget.getBudgetBytes()) {
+            log.append(srcImage).append(" needs about ").append(reservedBytes / (1024 * 1024)).append("MB, more than the heap budget, will be processed exclusively\n");
+        }
+
+        try {
+            heapBudget.acquire(reservedBytes);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            return new Result(null, Collections.emptyList());
+        }
+
+        SourceImageCache.retain(srcImage, () -> heapBudget.release(reservedBytes));
+        try {
+            SourceImageCache.acquire(srcImage, srcDimension -> getMaxTargetDimension(srcImage, srcDimension));
+            SourceImageCache.release(srcImage);
+        } catch (Exception e) {
+            log.append("could not decode ").append(srcImage).append(": ").append(e.getMessage()).append("\n");
+        }
+        return new Result(log.toString(), Collections.singletonList(srcImage));
+    }
+
+    /**
+     * Rough upper estimate of the heap needed to convert the image: the decoded source plus a working copy, and for every
+     * converter its biggest target with intermediates (all kept in pyramid mode). A source too big to decode only needs
+     * a strip per converter. Returns 0 if the header can't be read.
+     */
+    long estimateMemoryBytes(File srcImage) {
+        try {
+            Dimension srcDimension = srcDimensions.get(srcImage);
+            if (srcDimension == null) {
+                srcDimension = ImageUtil.getImageDimension(srcImage);
+            }
+            long srcPixels = (long) srcDimension.width * (long) srcDimension.height;
+            int subsampling = ImageUtil.getSubsampling(srcDimension, getMaxTargetDimension(srcImage, srcDimension));
+            long decodedPixels = srcPixels / ((long) subsampling * subsampling);
+
+            long sourceBytes = BYTES_PER_PIXEL * 2 * decodedPixels;
+            if (ImageUtil.isTooBigToDecode(decodedPixels)) {
+                int stripWidth = (srcDimension.width + subsampling - 1) / subsampling;
+                int stripHeight = (srcDimension.height + subsampling - 1) / subsampling;
+                long stripBytes = (long) StreamingScaler.getStripRows(srcImage, stripWidth, stripHeight, StreamingScaler.DEFAULT_STRIP_BYTES) * stripWidth * 4;
+                sourceBytes = stripBytes * 2 * converters.size();
+                decodedPixels = 0;
+            }
+
+            long maxTargetPixels = decodedPixels;
+            for (IPlatformConverter converter : converters) {
+                if (converter instanceof APlatformConverter) {
+                    maxTargetPixels = Math.max(maxTargetPixels, ((APlatformConverter<?>) converter).getMaxTargetPixels(srcDimension, arguments));
+                }
+            }
+
+            int buffersPerTarget = arguments.enablePyramidScaling ? 3 : 2;
+            return sourceBytes + BYTES_PER_PIXEL * converters.size() * buffersPerTarget * maxTargetPixels;
+        } catch (Exception e) {
+            return 0;
+        }
+    }
+
+    /**
+     * @return bounds of the targets of all converters, so the image is decoded once for all of them
+     */
+    private Dimension getMaxTargetDimension(File srcImage, Dimension srcDimension) throws Exception {
+        Dimension max = new Dimension(0, 0);
+        for (IPlatformConverter converter : converters) {
+            if (!(converter instanceof APlatformConverter)) {
+                return null;
+            }
+            Dimension dimension = ((APlatformConverter<?>) converter).getMaxTargetDimension(srcImage, srcDimension, arguments);
+            if (dimension == null) {
+                return null;
+            }
+            max.width = Math.max(max.width, dimension.width);
+            max.height = Math.max(max.height, dimension.height);
+        }
+        return max;
+    }
+}
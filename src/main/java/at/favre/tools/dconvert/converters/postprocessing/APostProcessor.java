@@ -19,7 +19,10 @@ package at.favre.tools.dconvert.converters.postprocessing;
 import at.favre.tools.dconvert.converters.Result;
 
 import java.io.File;
+import java.util.ArrayList;
+import java.util.List;
 import java.util.Map;
+import java.util.TreeSet;
 import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.locks.ReentrantLock;
 
@@ -35,20 +38,39 @@ public abstract class APostProcessor implements IPostProcessor {
 
     @Override
     public Result process(File rawFile, boolean keepOriginal) {
+        ReentrantLock lock = getLock(rawFile);
+        lock.lock();
         try {
+            return synchronizedProcess(rawFile, keepOriginal);
+        } finally {
+            lock.unlock();
+        }
+    }
 
-            administrationLock.lock();
-            if (!lockMap.containsKey(rawFile)) {
-                lockMap.put(rawFile, new ReentrantLock(true));
+    @Override
+    public List<Result> processBatch(List<File> rawFiles, boolean keepOriginal) {
+        // always locked in the same order, so two batches with common files can't deadlock
+        List<ReentrantLock> locks = new ArrayList<>();
+        for (File rawFile : new TreeSet<>(rawFiles)) {
+            ReentrantLock lock = getLock(rawFile);
+            lock.lock();
+            locks.add(lock);
+        }
+        try {
+            return synchronizedProcessBatch(rawFiles, keepOriginal);
+        } finally {
+            for (ReentrantLock lock : locks) {
+                lock.unlock();
             }
+        }
+    }
 
-            administrationLock.unlock();
-
-            lockMap.get(rawFile).lock();
-
-            return synchronizedProcess(rawFile, keepOriginal);
+    private static ReentrantLock getLock(File rawFile) {
+        administrationLock.lock();
+        try {
+            return lockMap.computeIfAbsent(rawFile, f -> new ReentrantLock(true));
         } finally {
-            lockMap.get(rawFile).unlock();
+            administrationLock.unlock();
         }
     }
 
@@ -60,4 +82,16 @@ public abstract class APostProcessor implements IPostProcessor {
      * @return
      */
     protected abstract Result synchronizedProcess(File rawFile, boolean keepOriginal);
+
+    /**
+     * This is the thread safe version of {@link #processBatch(List, boolean)}; processes one file after another
+     * if not overridden
+     */
+    protected List<Result> synchronizedProcessBatch(List<File> rawFiles, boolean keepOriginal) {
+        List<Result> results = new ArrayList<>(rawFiles.size());
+        for (File rawFile : rawFiles) {
+            results.add(synchronizedProcess(rawFile, keepOriginal));
+        }
+        return results;
+    }
 }
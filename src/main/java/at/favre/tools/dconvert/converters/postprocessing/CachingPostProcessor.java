@@ -0,0 +1,186 @@
+/*
+ *  Copyright 2016 Patrick Favre-Bulle
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package at.favre.tools.dconvert.converters.postprocessing;
+
+import at.favre.tools.dconvert.converters.Result;
+import at.favre.tools.dconvert.util.BuildManifest;
+import at.favre.tools.dconvert.util.MiscUtil;
+import at.favre.tools.dconvert.util.OutputCache;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * Wraps a post processor and caches its results in the {@link OutputCache}, keyed by the content of the input file.
+ * <p>
+ * A post processor may replace the input and create additional files (e.g. the kept original), so the names of all
+ * resulting files are cached as an index entry, relative to the input's name.
+ */
+public class CachingPostProcessor extends APostProcessor {
+    private static final String DELETED_INPUT = "-";
+
+    private final APostProcessor delegate;
+    private final OutputCache cache;
+
+    public CachingPostProcessor(APostProcessor delegate, OutputCache cache) {
+        this.delegate = delegate;
+        this.cache = cache;
+    }
+
+    @Override
+    protected Result synchronizedProcess(File rawFile, boolean keepOriginal) {
+        return synchronizedProcessBatch(Collections.singletonList(rawFile), keepOriginal).get(0);
+    }
+
+    /**
+     * Restores all cached files and only passes the misses to the delegate, as one batch
+     */
+    @Override
+    protected List<Result> synchronizedProcessBatch(List<File> rawFiles, boolean keepOriginal) {
+        Result[] results = new Result[rawFiles.size()];
+        List<File> misses = new ArrayList<>();
+        List<Integer> missIndices = new ArrayList<>();
+        List<String> missKeys = new ArrayList<>();
+
+        for (int i = 0; i < rawFiles.size(); i++) {
+            File rawFile = rawFiles.get(i);
+            String key;
+            try {
+                key = OutputCache.createKey("post-v1", BuildManifest.hashContent(rawFile), delegate.getClass().getName(), keepOriginal, MiscUtil.getFileExtensionLowerCase(rawFile));
+                results[i] = restore(key, rawFile);
+            } catch (IOException e) {
+                key = null;
+            }
+            if (results[i] == null) {
+                misses.add(rawFile);
+                missIndices.add(i);
+                missKeys.add(key);
+            }
+        }
+
+        if (!misses.isEmpty()) {
+            List<Result> processed = misses.size() == 1 ? Collections.singletonList(delegate.synchronizedProcess(misses.get(0), keepOriginal))
+                    : delegate.synchronizedProcessBatch(misses, keepOriginal);
+            for (int i = 0; i < misses.size(); i++) {
+                Result result = processed.get(i);
+                results[missIndices.get(i)] = result;
+                if (missKeys.get(i) != null && result != null && result.exception == null && result.processedFiles != null) {
+                    store(missKeys.get(i), misses.get(i), result.processedFiles);
+                }
+            }
+        }
+        return Arrays.asList(results);
+    }
+
+    @Override
+    public int getMaxBatchSize() {
+        return delegate.getMaxBatchSize();
+    }
+
+    private Result restore(String key, File rawFile) {
+        List<File> tempFiles = new ArrayList<>();
+        try {
+            File index = createTempFile(tempFiles);
+            if (!cache.restore(key, index)) {
+                return null;
+            }
+
+            // everything is restored to temp files first, so a partly evicted entry does not touch the input
+            List<File> files = new ArrayList<>();
+            List<File> restoredFiles = new ArrayList<>();
+            boolean deleteInput = false;
+            List<String> suffixes = Files.readAllLines(index.toPath(), StandardCharsets.UTF_8);
+            for (int i = 0; i < suffixes.size(); i++) {
+                if (suffixes.get(i).equals(DELETED_INPUT)) {
+                    deleteInput = true;
+                    continue;
+                }
+                File restored = createTempFile(tempFiles);
+                if (!cache.restore(key + "." + i, restored)) {
+                    return null;
+                }
+                files.add(new File(rawFile.getParentFile(), MiscUtil.getFileNameWithoutExtension(rawFile) + suffixes.get(i)));
+                restoredFiles.add(restored);
+            }
+
+            for (int i = 0; i < files.size(); i++) {
+                Files.copy(restoredFiles.get(i).toPath(), files.get(i).toPath(), StandardCopyOption.REPLACE_EXISTING);
+            }
+            if (deleteInput && !files.contains(rawFile)) {
+                rawFile.delete();
+            }
+            return new Result("restored " + rawFile + " from cache (" + delegate.getClass().getSimpleName() + ")\n", files);
+        } catch (IOException e) {
+            return null;
+        } finally {
+            for (File tempFile : tempFiles) {
+                tempFile.delete();
+            }
+        }
+    }
+
+    private void store(String key, File rawFile, List<File> resultingFiles) {
+        String baseName = MiscUtil.getFileNameWithoutExtension(rawFile);
+        List<String> suffixes = new ArrayList<>();
+        for (File file : resultingFiles) {
+            if (!file.getName().startsWith(baseName) || !file.getParentFile().equals(rawFile.getParentFile()) || !file.exists()) {
+                // unexpected output, can't be restored reliably
+                return;
+            }
+            suffixes.add(file.getName().substring(baseName.length()));
+        }
+
+        for (int i = 0; i < resultingFiles.size(); i++) {
+            cache.store(key + "." + i, resultingFiles.get(i));
+        }
+        if (!rawFile.exists()) {
+            suffixes.add(DELETED_INPUT);
+        }
+
+        List<File> tempFiles = new ArrayList<>();
+        try {
+            File index = createTempFile(tempFiles);
+            Files.write(index.toPath(), suffixes, StandardCharsets.UTF_8);
+            // the index is stored last, so a found index means all of its files were stored before
+            cache.store(key, index);
+        } catch (IOException e) {
+            //ignore
+        } finally {
+            for (File tempFile : tempFiles) {
+                tempFile.delete();
+            }
+        }
+    }
+
+    private static File createTempFile(List<File> tempFiles) throws IOException {
+        File tempFile = File.createTempFile("dconvert-cache", null);
+        tempFiles.add(tempFile);
+        return tempFile;
+    }
+
+    @Override
+    public boolean isSupported() {
+        return delegate.isSupported();
+    }
+}
@@ -19,6 +19,8 @@ package at.favre.tools.dconvert.converters.postprocessing;
 import at.favre.tools.dconvert.converters.Result;
 
 import java.io.File;
+import java.util.ArrayList;
+import java.util.List;
 
 /**
  * PostProcessor run after the main conversation on all files
@@ -35,6 +37,29 @@ public interface IPostProcessor {
      */
     Result process(File rawFile, boolean keepOriginal);
 
+    /**
+     * Processes multiple files, ideally with a single tool invocation
+     *
+     * @param rawFiles     to process, at most {@link #getMaxBatchSize()}
+     * @param keepOriginal see {@link #process(File, boolean)}
+     * @return a result (or null) for every file, in the same order
+     */
+    default List<Result> processBatch(List<File> rawFiles, boolean keepOriginal) {
+        List<Result> results = new ArrayList<>(rawFiles.size());
+        for (File rawFile : rawFiles) {
+            results.add(process(rawFile, keepOriginal));
+        }
+        return results;
+    }
+
+    /**
+     * @return max count of files per {@link #processBatch(List, boolean)} call; 1 if the tool can only process one file
+     * per invocation, so batching would only remove parallelism
+     */
+    default int getMaxBatchSize() {
+        return 1;
+    }
+
     /**
      * @return true if this processor is supported with the current setup (e.g. tool is set in PATH)
      */
@@ -22,12 +22,19 @@ import at.favre.tools.dconvert.util.MiscUtil;
 import at.favre.tools.dconvert.util.PostProcessorUtil;
 
 import java.io.File;
+import java.util.ArrayList;
 import java.util.Collections;
+import java.util.List;
 
 /**
  * Calls pngcrush on a file
  */
 public class PngCrushProcessor extends APostProcessor {
+    /**
+     * keeps the command line short enough for every OS
+     */
+    public static final int MAX_BATCH_SIZE = 32;
+
     private static final String[] DEFAULT_ARGS = new String[]{"-rem", "alla", "-rem", "text", "-rem", "gAMA", "-rem", "cHRM", "-rem", "iCCP", "-rem", "sRGB"};
     private String[] additionalArgs;
 
@@ -41,14 +48,32 @@ public class PngCrushProcessor extends APostProcessor {
 
     @Override
     public Result synchronizedProcess(File rawFile, boolean keepOriginal) {
+        return synchronizedProcessBatch(Collections.singletonList(rawFile), keepOriginal).get(0);
+    }
+
+    /**
+     * Crushes all files with one pngcrush call: with '-e' every output is written next to its input with the given
+     * postfix, so files with the same name in different density folders can be in the same batch.
+     */
+    @Override
+    protected List<Result> synchronizedProcessBatch(List<File> rawFiles, boolean keepOriginal) {
         try {
-            String[] args = MiscUtil.concat(MiscUtil.concat(new String[]{"pngcrush"}, additionalArgs), new String[]{"%%sourceFilePath%%", "%%outFilePath%%"});
-            return PostProcessorUtil.runImageOptimizer(rawFile, ImageType.PNG, args, keepOriginal);
+            String[] args = MiscUtil.concat(MiscUtil.concat(new String[]{"pngcrush"}, additionalArgs), new String[]{"-e", PostProcessorUtil.OUT_POSTFIX_PLACEHOLDER});
+            return PostProcessorUtil.runBatchImageOptimizer(rawFiles, ImageType.PNG, args, keepOriginal);
         } catch (Exception e) {
-            return new Result("could not execute post processor " + getClass().getSimpleName(), e, Collections.singletonList(rawFile));
+            List<Result> results = new ArrayList<>(rawFiles.size());
+            for (File rawFile : rawFiles) {
+                results.add(new Result("could not execute post processor " + getClass().getSimpleName(), e, Collections.singletonList(rawFile)));
+            }
+            return results;
         }
     }
 
+    @Override
+    public int getMaxBatchSize() {
+        return MAX_BATCH_SIZE;
+    }
+
     @Override
     public boolean isSupported() {
         return PostProcessorUtil.canRunCmd(new String[]{"pngcrush", "-h"});
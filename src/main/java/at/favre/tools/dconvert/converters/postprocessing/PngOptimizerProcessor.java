@@ -0,0 +1,85 @@
+/*
+ *  Copyright 2016 Patrick Favre-Bulle
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package at.favre.tools.dconvert.converters.postprocessing;
+
+import at.favre.tools.dconvert.arg.Arguments;
+import at.favre.tools.dconvert.arg.ImageType;
+import at.favre.tools.dconvert.converters.Result;
+import at.favre.tools.dconvert.util.MiscUtil;
+import at.favre.tools.dconvert.util.PngEncoder;
+
+import javax.imageio.ImageIO;
+import java.awt.image.BufferedImage;
+import java.io.File;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.Arrays;
+import java.util.Collections;
+
+/**
+ * Optimizes pngs in process with the {@link PngEncoder}, so no external tool (like pngcrush) is needed.
+ * The file is only replaced if the optimized version is smaller.
+ */
+public class PngOptimizerProcessor extends APostProcessor {
+
+    @Override
+    protected Result synchronizedProcess(File rawFile, boolean keepOriginal) {
+        try {
+            if (Arguments.getImageType(rawFile) != ImageType.PNG || !rawFile.isFile()) {
+                return null;
+            }
+
+            BufferedImage image = ImageIO.read(rawFile);
+            if (image == null || !PngEncoder.isSupported(image)) {
+                return new Result("skip " + rawFile + ", not supported by png optimizer\n", Collections.singletonList(rawFile));
+            }
+
+            byte[] optimized = PngEncoder.encode(image);
+            image.flush();
+            long rawSize = rawFile.length();
+            if (optimized.length >= rawSize) {
+                return new Result("png optimizer: " + rawFile + " already optimal\n", Collections.singletonList(rawFile));
+            }
+
+            String log = "png optimizer: " + rawFile + " " + rawSize + " -> " + optimized.length + " bytes\n";
+
+            // written next to the file and moved in place, so the file is never left half written
+            Path tempFile = Files.createTempFile(rawFile.getParentFile().toPath(), MiscUtil.getFileNameWithoutExtension(rawFile), ".tmp");
+            try {
+                Files.write(tempFile, optimized);
+                if (keepOriginal) {
+                    File origFile = new File(rawFile.getParentFile(), MiscUtil.getFileNameWithoutExtension(rawFile) + ORIG_POSTFIX + "." + MiscUtil.getFileExtension(rawFile));
+                    Files.move(rawFile.toPath(), origFile.toPath(), StandardCopyOption.REPLACE_EXISTING);
+                    Files.move(tempFile, rawFile.toPath());
+                    return new Result(log, Arrays.asList(origFile, rawFile));
+                }
+                Files.move(tempFile, rawFile.toPath(), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+                return new Result(log, Collections.singletonList(rawFile));
+            } finally {
+                Files.deleteIfExists(tempFile);
+            }
+        } catch (Exception e) {
+            return new Result("could not execute post processor " + getClass().getSimpleName(), e, Collections.singletonList(rawFile));
+        }
+    }
+
+    @Override
+    public boolean isSupported() {
+        return true;
+    }
+}
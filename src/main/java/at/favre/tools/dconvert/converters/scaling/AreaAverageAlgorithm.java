@@ -0,0 +1,149 @@
+/*
+ *  Copyright 2016 Patrick Favre-Bulle
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package at.favre.tools.dconvert.converters.scaling;
+
+import com.mortennobel.imagescaling.ResampleFilter;
+import com.mortennobel.imagescaling.ResampleFilters;
+
+import java.awt.image.BufferedImage;
+import java.awt.image.DataBufferInt;
+import java.util.Arrays;
+
+/**
+ * Downscaling by averaging all source pixels a target pixel covers (box filter), with premultiplied alpha.
+ * <p>
+ * Common density pairs are exact integer ratios (xxxhdpi to xhdpi 2:1, xxxhdpi to mdpi 4:1, iOS 3x to 1x 3:1), where
+ * every target pixel covers a whole block of source pixels. These blocks are summed directly on the packed int
+ * pixels with integer math, which is several times faster than the windowed sinc of Lanczos3. Other ratios use the box
+ * filter of {@link SeparableResampleAlgorithm}. Compared to Lanczos3 the result is slightly softer, but without any
+ * ringing or halos around sharp edges.
+ */
+public class AreaAverageAlgorithm implements ScaleAlgorithm {
+    static final ResampleFilter BOX_FILTER = ResampleFilters.getBoxFilter();
+    /**
+     * max source pixels per target pixel, so the premultiplied sums still fit an int
+     */
+    private static final int MAX_BLOCK_PIXELS = Integer.MAX_VALUE / (255 * 255);
+
+    private final ScaleAlgorithm otherRatios = new SeparableResampleAlgorithm(BOX_FILTER);
+
+    /**
+     * @return true if the source size is an exact integer multiple of the target size in both directions
+     */
+    public static boolean isIntegerRatio(int srcWidth, int srcHeight, int dWidth, int dHeight) {
+        return dWidth > 0 && dHeight > 0 && srcWidth % dWidth == 0 && srcHeight % dHeight == 0
+                && (long) (srcWidth / dWidth) * (srcHeight / dHeight) <= MAX_BLOCK_PIXELS;
+    }
+
+    @Override
+    public BufferedImage scale(BufferedImage imageToScale, int dWidth, int dHeight) {
+        return scale(imageToScale, dWidth, dHeight, PostScaleOp.NONE);
+    }
+
+    @Override
+    public BufferedImage scale(BufferedImage imageToScale, int dWidth, int dHeight, PostScaleOp postScaleOp) {
+        int srcWidth = imageToScale.getWidth();
+        if (!isIntegerRatio(srcWidth, imageToScale.getHeight(), dWidth, dHeight)) {
+            return otherRatios.scale(imageToScale, dWidth, dHeight, postScaleOp);
+        }
+
+        int blockWidth = srcWidth / dWidth;
+        int blockHeight = imageToScale.getHeight() / dHeight;
+        boolean alpha = imageToScale.getColorModel().hasAlpha();
+        int[] srcPixels = SeparableResampleAlgorithm.getArgbPixels(imageToScale);
+
+        BufferedImage dst = postScaleOp.createDestination(dWidth, dHeight, alpha);
+        int[] dstPixels = ((DataBufferInt) dst.getRaster().getDataBuffer()).getData();
+        ScaleExecutor.forEachBand(dHeight, (long) srcWidth * blockHeight, (fromRow, toRow) ->
+                postScaleOp.filterRows(blockRows(srcPixels, srcWidth, dWidth, blockWidth, blockHeight, alpha), dWidth, dHeight, alpha, dstPixels, fromRow, toRow));
+        return dst;
+    }
+
+    /**
+     * Target rows as averages of their blocks; color channels are weighted by alpha if the image has one. One instance per band.
+     */
+    static PostScaleOp.RowSource blockRows(int[] src, int srcWidth, int dstWidth, int blockWidth, int blockHeight, boolean alpha) {
+        int blockPixels = blockWidth * blockHeight;
+        int[] sumA = new int[dstWidth];
+        int[] sumR = new int[dstWidth];
+        int[] sumG = new int[dstWidth];
+        int[] sumB = new int[dstWidth];
+
+        return (y, dst, offset) -> {
+            Arrays.fill(sumA, 0);
+            Arrays.fill(sumR, 0);
+            Arrays.fill(sumG, 0);
+            Arrays.fill(sumB, 0);
+
+            for (int srcY = y * blockHeight; srcY < (y + 1) * blockHeight; srcY++) {
+                int index = srcY * srcWidth;
+                for (int x = 0; x < dstWidth; x++) {
+                    int a = 0, r = 0, g = 0, b = 0;
+                    for (int k = 0; k < blockWidth; k++) {
+                        int argb = src[index++];
+                        if (alpha) {
+                            int pixelAlpha = argb >>> 24;
+                            a += pixelAlpha;
+                            r += ((argb >> 16) & 0xFF) * pixelAlpha;
+                            g += ((argb >> 8) & 0xFF) * pixelAlpha;
+                            b += (argb & 0xFF) * pixelAlpha;
+                        } else {
+                            r += (argb >> 16) & 0xFF;
+                            g += (argb >> 8) & 0xFF;
+                            b += argb & 0xFF;
+                        }
+                    }
+                    sumA[x] += a;
+                    sumR[x] += r;
+                    sumG[x] += g;
+                    sumB[x] += b;
+                }
+            }
+
+            for (int x = 0; x < dstWidth; x++) {
+                if (!alpha) {
+                    dst[offset + x] = 0xFF000000 | (divide(sumR[x], blockPixels) << 16) | (divide(sumG[x], blockPixels) << 8) | divide(sumB[x], blockPixels);
+                } else if (sumA[x] == 0) {
+                    dst[offset + x] = 0;
+                } else {
+                    int a = sumA[x];
+                    dst[offset + x] = (divide(a, blockPixels) << 24) | (divide(sumR[x], a) << 16) | (divide(sumG[x], a) << 8) | divide(sumB[x], a);
+                }
+            }
+        };
+    }
+
+    private static int divide(int sum, int divisor) {
+        return (sum + divisor / 2) / divisor;
+    }
+
+    @Override
+    public String toString() {
+        return "AreaAverageAlgorithm";
+    }
+
+    @Override
+    public boolean equals(Object o) {
+        return this == o || (o != null && getClass() == o.getClass());
+    }
+
+    @Override
+    public int hashCode() {
+        return getClass().hashCode();
+    }
+}
@@ -0,0 +1,72 @@
+/*
+ *  Copyright 2016 Patrick Favre-Bulle
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package at.favre.tools.dconvert.converters.scaling;
+
+import java.awt.image.BufferedImage;
+
+/**
+ * Picks the algorithm per source and target size: {@link AreaAverageAlgorithm} for exact integer downscaling
+ * ratios, where it is much faster at almost the same quality, and a general algorithm (e.g. Lanczos3) for all other
+ * sizes and upscaling.
+ */
+public class AutoScaleAlgorithm implements ScaleAlgorithm {
+    private final ScaleAlgorithm integerRatio;
+    private final ScaleAlgorithm otherRatios;
+
+    public AutoScaleAlgorithm(ScaleAlgorithm integerRatio, ScaleAlgorithm otherRatios) {
+        this.integerRatio = integerRatio;
+        this.otherRatios = otherRatios;
+    }
+
+    /**
+     * @return the algorithm used for the given sizes
+     */
+    public ScaleAlgorithm select(int srcWidth, int srcHeight, int dWidth, int dHeight) {
+        return AreaAverageAlgorithm.isIntegerRatio(srcWidth, srcHeight, dWidth, dHeight) ? integerRatio : otherRatios;
+    }
+
+    @Override
+    public BufferedImage scale(BufferedImage imageToScale, int dWidth, int dHeight) {
+        return select(imageToScale.getWidth(), imageToScale.getHeight(), dWidth, dHeight).scale(imageToScale, dWidth, dHeight);
+    }
+
+    @Override
+    public BufferedImage scale(BufferedImage imageToScale, int dWidth, int dHeight, PostScaleOp postScaleOp) {
+        return select(imageToScale.getWidth(), imageToScale.getHeight(), dWidth, dHeight).scale(imageToScale, dWidth, dHeight, postScaleOp);
+    }
+
+    @Override
+    public String toString() {
+        return "AutoScaleAlgorithm[" + integerRatio + ", " + otherRatios + ']';
+    }
+
+    @Override
+    public boolean equals(Object o) {
+        if (this == o) return true;
+        if (o == null || getClass() != o.getClass()) return false;
+
+        AutoScaleAlgorithm that = (AutoScaleAlgorithm) o;
+
+        return integerRatio.equals(that.integerRatio) && otherRatios.equals(that.otherRatios);
+    }
+
+    @Override
+    public int hashCode() {
+        return 31 * integerRatio.hashCode() + otherRatios.hashCode();
+    }
+}
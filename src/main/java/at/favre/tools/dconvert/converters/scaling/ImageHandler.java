@@ -19,10 +19,13 @@ package at.favre.tools.dconvert.converters.scaling;
 import at.favre.tools.dconvert.arg.Arguments;
 import at.favre.tools.dconvert.arg.EScalingAlgorithm;
 import at.favre.tools.dconvert.arg.ImageType;
+import at.favre.tools.dconvert.util.ImageIOPool;
 import at.favre.tools.dconvert.util.LoadedImage;
 import at.favre.tools.dconvert.util.MiscUtil;
 import at.favre.tools.dconvert.util.NinePatchScaler;
-import com.twelvemonkeys.imageio.metadata.CompoundDirectory;
+import at.favre.tools.dconvert.util.OutputCache;
+import at.favre.tools.dconvert.util.PngEncoder;
+import at.favre.tools.dconvert.util.SvgRenderer;
 
 import javax.imageio.IIOImage;
 import javax.imageio.ImageIO;
@@ -32,10 +35,10 @@ import javax.imageio.stream.FileImageOutputStream;
 import javax.imageio.stream.ImageOutputStream;
 import java.awt.*;
 import java.awt.image.BufferedImage;
-import java.awt.image.ConvolveOp;
-import java.awt.image.Kernel;
 import java.io.File;
 import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
 import java.util.List;
 import java.util.*;
 import java.util.stream.Collectors;
@@ -46,73 +49,248 @@ import java.util.stream.Collectors;
 public class ImageHandler {
     private static final Color DEFAULT_COLOR = Color.white;
     public static final boolean TEST_MODE = false;
-    public static final ConvolveOp OP_ANTIALIAS = new ConvolveOp(new Kernel(3, 3, new float[]{.0f, .08f, .0f, .08f, .68f, .08f, .0f, .08f, .0f}), ConvolveOp.EDGE_NO_OP, null);
     public static final Map<ScaleAlgorithm, Long> traceMap = new HashMap<>();
     private final Arguments args;
+    private final ScalePyramid pyramid;
+    private final OutputCache outputCache;
+    private final Map<String, long[]> pngFormats = new TreeMap<>();
 
+    /**
+     * Use one instance per source image; if pyramid scaling is enabled it keeps the scaled
+     * intermediates of that source until {@link #clear()} is called.
+     */
     public ImageHandler(Arguments args) {
         this.args = args;
+        this.pyramid = args.enablePyramidScaling ? new ScalePyramid() : null;
+        this.outputCache = OutputCache.get(args);
+    }
+
+    /**
+     * Announces the targets of a source scaled in strips, so the first of them scales all in one pass over the file
+     */
+    public void planStreamingTargets(LoadedImage imageData, Collection<Dimension> targetDimensions, boolean isNinePatch) {
+        StreamingScaler streamingSource = imageData.getStreamingSource();
+        if (streamingSource == null || isNinePatch) {
+            return;
+        }
+        for (Dimension targetDimension : targetDimensions) {
+            EScalingAlgorithm.Type type = getScalingType(imageData, targetDimension);
+            for (ScaleAlgorithm scaleAlgorithm : getScaleAlgorithm(getScalingAlgorithm(type), type)) {
+                streamingSource.plan(scaleAlgorithm, targetDimension.width, targetDimension.height);
+            }
+        }
     }
 
     public List<File> saveToFile(File targetFile, LoadedImage imageData, Dimension targetDimension, boolean isNinePatch) throws Exception {
 
         List<File> files = new ArrayList<>(2);
-        List<ImageType.ECompression> compressionList = Arguments.getOutCompressionForType(args.outputCompressionMode, Arguments.getImageType(imageData.getSourceFile()));
-        for (ImageType.ECompression compression : compressionList) {
-            File imageFile = new File(targetFile.getAbsolutePath() + "." + compression.extension);
-
-            if (imageFile.exists() && args.skipExistingFiles) {
+        List<ImageType.ECompression> compressionList = new ArrayList<>(2);
+        for (ImageType.ECompression compression : Arguments.getOutCompressionForType(args.outputCompressionMode, Arguments.getImageType(imageData.getSourceFile()))) {
+            if (getImageFile(targetFile, compression).exists() && args.skipExistingFiles) {
                 break;
             }
+            compressionList.add(compression);
+        }
 
-            List<ScaleAlgorithm> algorithms = getScaleAlgorithm(getScalingAlgorithm(getScalingType(imageData, targetDimension)), getScalingType(imageData, targetDimension));
+        EScalingAlgorithm scalingAlgorithm = getScalingAlgorithm(getScalingType(imageData, targetDimension));
+        List<ScaleAlgorithm> algorithms = getScaleAlgorithm(scalingAlgorithm, getScalingType(imageData, targetDimension));
+        // vector sources are rendered directly at the target size and giant sources are scaled in strips,
+        // both have no decoded image to scale
+        SvgRenderer vectorSource = imageData.getVectorSource();
+        StreamingScaler streamingSource = imageData.getStreamingSource();
+        BufferedImage decodedImage = vectorSource == null && streamingSource == null ? imageData.getImage() : null;
+        // a pyramid output depends on which larger densities were scaled before, cache hits would skip those
+        String sourceHash = algorithms.size() == 1 && (pyramid == null || decodedImage == null) ? getSourceHash(imageData.getSourceFile()) : null;
+        // with a single output the post scale steps are applied while writing the scaled rows, unless the pyramid keeps the scaled image
+        boolean fusePostScale = compressionList.size() == 1 && (pyramid == null || decodedImage == null);
 
-            for (ScaleAlgorithm scaleAlgorithm : algorithms) {
+        for (ScaleAlgorithm scaleAlgorithm : algorithms) {
 
-                if (!traceMap.containsKey(scaleAlgorithm)) {
-                    traceMap.put(scaleAlgorithm, 0L);
-                }
+            if (!traceMap.containsKey(scaleAlgorithm)) {
+                traceMap.put(scaleAlgorithm, 0L);
+            }
 
-                BufferedImage scaledImage;
-                if (isNinePatch && compression == ImageType.ECompression.PNG) {
-                    scaledImage = new NinePatchScaler().scale(imageData.getImage(), targetDimension, getAsScalingAlgorithm(scaleAlgorithm, compression));
-                } else {
-                    long startNanos = System.nanoTime();
-                    scaledImage = scale(scaleAlgorithm, imageData.getImage(), targetDimension.width, targetDimension.height, compression, DEFAULT_COLOR);
-                    traceMap.put(scaleAlgorithm, traceMap.get(scaleAlgorithm) + (System.nanoTime() - startNanos));
-                }
+            // the expensive resampling is only done once and shared by all output compressions
+            BufferedImage scaledImage = null;
 
+            for (ImageType.ECompression compression : compressionList) {
+                File imageFile = getImageFile(targetFile, compression);
                 File fileToSave = imageFile;
 
                 if (algorithms.size() > 1) {
                     fileToSave = new File(imageFile.getParentFile(), MiscUtil.getFileNameWithoutExtension(imageFile) + "." + scaleAlgorithm.toString() + "." + MiscUtil.getFileExtension(imageFile));
                 }
 
+                if (canCopySource(imageData, targetDimension, compression, isNinePatch)) {
+                    Files.copy(imageData.getSourceFile().toPath(), fileToSave.toPath(), StandardCopyOption.REPLACE_EXISTING);
+                    files.add(imageFile);
+                    continue;
+                }
+
+                String cacheKey = sourceHash != null ? createCacheKey(sourceHash, targetDimension, vectorSource != null ? null : scalingAlgorithm, imageData.getSubsampling(), streamingSource != null, compression, isNinePatch) : null;
+                if (cacheKey != null && outputCache.restore(cacheKey, imageFile)) {
+                    files.add(imageFile);
+                    continue;
+                }
+
+                BufferedImage outImage;
+                PostScaleOp postScaleOp = getPostScaleOp(compression);
+                if (isNinePatch && compression == ImageType.ECompression.PNG) {
+                    outImage = new NinePatchScaler().scale(imageData.getImage(), targetDimension, getAsScalingAlgorithm(scaleAlgorithm, postScaleOp));
+                } else {
+                    PostScaleOp fusedOp = fusePostScale ? postScaleOp : PostScaleOp.NONE;
+                    if (scaledImage == null && vectorSource != null) {
+                        scaledImage = fusedOp.filter(vectorSource.render(targetDimension));
+                    } else if (scaledImage == null && streamingSource != null) {
+                        long startNanos = System.nanoTime();
+                        scaledImage = streamingSource.scale(scaleAlgorithm, targetDimension.width, targetDimension.height, fusedOp);
+                        traceMap.put(scaleAlgorithm, traceMap.get(scaleAlgorithm) + System.nanoTime() - startNanos);
+                    } else if (scaledImage == null) {
+                        BufferedImage scaleSource = pyramid != null ? pyramid.getSourceFor(scaleAlgorithm, decodedImage, targetDimension) : decodedImage;
+                        long startNanos = System.nanoTime();
+                        scaledImage = scale(scaleAlgorithm, scaleSource, targetDimension.width, targetDimension.height, fusedOp);
+                        long durationNanos = System.nanoTime() - startNanos;
+                        traceMap.put(scaleAlgorithm, traceMap.get(scaleAlgorithm) + durationNanos);
+
+                        if (pyramid != null) {
+                            pyramid.trace(durationNanos, scaleSource, decodedImage);
+                        }
+                    }
+                    outImage = fusePostScale ? scaledImage : postScaleOp.filter(scaledImage);
+                }
+
                 if (compression == ImageType.ECompression.JPG) {
-                    compressJpeg(scaledImage, null, args.compressionQuality, fileToSave);
+                    write(outImage, "jpg", args.compressionQuality, fileToSave);
+                } else if (compression == ImageType.ECompression.PNG && PngEncoder.isSupported(outImage)) {
+                    PngEncoder.Format format = args.enablePngOptimizer ? PngEncoder.write(outImage, fileToSave)
+                            : PngEncoder.write(outImage, fileToSave, args.pngCompressionLevel, args.pngFilter);
+                    tracePngFormat(format, outImage);
                 } else {
-                    ImageIO.write(scaledImage, compression.name().toLowerCase(), fileToSave);
+                    write(outImage, compression.name().toLowerCase(), null, fileToSave);
+                }
+
+                if (outImage != scaledImage && outImage != decodedImage) {
+                    outImage.flush();
+                }
+                if (cacheKey != null) {
+                    outputCache.store(cacheKey, fileToSave);
                 }
-                scaledImage.flush();
                 files.add(imageFile);
             }
+
+            if (scaledImage != null && scaledImage != decodedImage) {
+                if (pyramid != null && decodedImage != null) {
+                    pyramid.add(scaleAlgorithm, scaledImage);
+                } else {
+                    scaledImage.flush();
+                }
+            }
         }
         return files;
     }
 
-    private void compressJpeg(BufferedImage bufferedImage, CompoundDirectory exif, float quality, File targetFile) throws IOException {
-        ImageWriter jpgWriter = ImageIO.getImageWritersByFormatName("jpg").next();
-        ImageWriteParam jpgWriteParam = jpgWriter.getDefaultWriteParam();
-        jpgWriteParam.setCompressionMode(ImageWriteParam.MODE_EXPLICIT);
-        jpgWriteParam.setCompressionQuality(quality);
+    /**
+     * @return report of the pyramid scaling or null if not enabled
+     */
+    public String getPyramidReport() {
+        return pyramid != null ? pyramid.getReport() : null;
+    }
 
-        ImageWriter writer = null;
+    /**
+     * @return report of the png color types written and their saved raw image data compared to rgba or null if no png was written
+     */
+    public String getPngReport() {
+        if (pngFormats.isEmpty()) {
+            return null;
+        }
+        StringBuilder sb = new StringBuilder("png formats:");
+        for (Map.Entry<String, long[]> entry : pngFormats.entrySet()) {
+            sb.append(String.format(Locale.US, " %s %dx (-%.1f KB raw)", entry.getKey(), entry.getValue()[0], entry.getValue()[1] / 1024.0));
+        }
+        return sb.toString();
+    }
+
+    private void tracePngFormat(PngEncoder.Format format, BufferedImage image) {
+        long rgbaBytes = (long) image.getWidth() * image.getHeight() * 4;
+        long[] stats = pngFormats.computeIfAbsent(format.toString(), k -> new long[2]);
+        stats[0]++;
+        stats[1] += rgbaBytes - format.getRawBytes(image.getWidth(), image.getHeight());
+    }
+
+    /**
+     * Releases all intermediates kept for pyramid scaling
+     */
+    public void clear() {
+        if (pyramid != null) {
+            pyramid.clear();
+        }
+    }
+
+    private String getSourceHash(File sourceFile) {
+        if (outputCache != null) {
+            try {
+                return outputCache.getContentHash(sourceFile);
+            } catch (IOException e) {
+                //ignore, just not cached
+            }
+        }
+        return null;
+    }
+
+    /**
+     * Key of an output in the {@link OutputCache}: everything that changes the written file
+     *
+     * @param scalingAlgorithm null if rendered from a vector source
+     * @param subsampling      of the decoded source; it depends on the biggest target of all selected platforms
+     * @param streamed         if scaled in strips, which always uses separable filtering
+     */
+    private String createCacheKey(String sourceHash, Dimension targetDimension, EScalingAlgorithm scalingAlgorithm, int subsampling, boolean streamed, ImageType.ECompression compression, boolean isNinePatch) {
+        String pngOptions = "";
+        if (compression == ImageType.ECompression.PNG) {
+            pngOptions = args.enablePngOptimizer ? "optimized" : args.pngCompressionLevel + "-" + args.pngFilter;
+        }
+        return OutputCache.createKey("image-v7", sourceHash, targetDimension.width, targetDimension.height, scalingAlgorithm, subsampling, streamed, compression,
+                compression == ImageType.ECompression.JPG ? args.compressionQuality : "", args.enableAntiAliasing, isNinePatch, args.enablePyramidScaling,
+                pngOptions);
+    }
+
+    /**
+     * The source file is the output as is if nothing would change its pixels or format: same size, same compression,
+     * no anti-aliasing, no alpha to flatten and no png optimization. Copying it skips a whole decode/encode round trip.
+     */
+    private boolean canCopySource(LoadedImage imageData, Dimension targetDimension, ImageType.ECompression compression, boolean isNinePatch) {
+        if (isNinePatch || imageData.getVectorSource() != null || imageData.getSubsampling() != 1 || args.enableAntiAliasing
+                || !targetDimension.equals(imageData.getSourceDimension())
+                || !Arguments.getImageType(imageData.getSourceFile()).isStoredAs(compression)
+                || (compression == ImageType.ECompression.PNG && args.enablePngOptimizer)) {
+            return false;
+        }
+        boolean alpha = imageData.getStreamingSource() != null ? imageData.getStreamingSource().hasAlpha() : imageData.getImage().getColorModel().hasAlpha();
+        return compression.hasTransparency || !alpha;
+    }
+
+    private static File getImageFile(File targetFile, ImageType.ECompression compression) {
+        return new File(targetFile.getAbsolutePath() + "." + compression.extension);
+    }
+
+    /**
+     * Writes the image with a pooled writer, like {@link ImageIO#write} nothing is written if no writer supports the image
+     *
+     * @param quality compression quality or null for the default param of the writer
+     */
+    private static void write(BufferedImage bufferedImage, String formatName, Float quality, File targetFile) throws IOException {
+        ImageWriter writer = ImageIOPool.acquireWriter(formatName, bufferedImage);
+        if (writer == null) {
+            return;
+        }
+        // the stream does not truncate an existing file
+        targetFile.delete();
         try (ImageOutputStream outputStream = new FileImageOutputStream(targetFile)) {
-            writer = ImageIO.getImageWritersByFormatName("jpg").next();
+            ImageWriteParam param = quality != null ? ImageIOPool.getCompressionParam(writer, quality) : null;
             writer.setOutput(outputStream);
-            writer.write(null, new IIOImage(bufferedImage, null, null), jpgWriteParam);
+            writer.write(null, new IIOImage(bufferedImage, null, null), param);
         } finally {
-            if (writer != null) writer.dispose();
+            ImageIOPool.release(writer);
         }
     }
 
@@ -122,7 +300,14 @@ public class ImageHandler {
 
     private EScalingAlgorithm.Type getScalingType(LoadedImage imageData, Dimension targetDimension) {
         long targetSize = targetDimension.height * targetDimension.width;
-        long sourceSize = imageData.getImage().getHeight() * imageData.getImage().getWidth();
+        long sourceSize;
+        if (imageData.getVectorSource() != null) {
+            sourceSize = (long) imageData.getSourceDimension().height * imageData.getSourceDimension().width;
+        } else if (imageData.getStreamingSource() != null) {
+            sourceSize = (long) imageData.getStreamingSource().getHeight() * imageData.getStreamingSource().getWidth();
+        } else {
+            sourceSize = imageData.getImage().getHeight() * imageData.getImage().getWidth();
+        }
         return targetSize >= sourceSize ? EScalingAlgorithm.Type.UPSCALING : EScalingAlgorithm.Type.DOWNSCALING;
     }
 
@@ -134,30 +319,22 @@ public class ImageHandler {
         }
     }
 
-    private BufferedImage scale(ScaleAlgorithm scaleAlgorithm, BufferedImage imageToScale, int dWidth, int dHeight, ImageType.ECompression compression, Color background) {
-
-        BufferedImage scaledImage;
-
+    private BufferedImage scale(ScaleAlgorithm scaleAlgorithm, BufferedImage imageToScale, int dWidth, int dHeight, PostScaleOp postScaleOp) {
         if (dWidth == imageToScale.getWidth() && dHeight == imageToScale.getHeight()) {
-            scaledImage = imageToScale;
-        } else {
-            scaledImage = scaleAlgorithm.scale(imageToScale, dWidth, dHeight);
-        }
-
-        if (!compression.hasTransparency) {
-            BufferedImage convertedImg = new BufferedImage(scaledImage.getWidth(), scaledImage.getHeight(), BufferedImage.TYPE_INT_RGB);
-            convertedImg.getGraphics().drawImage(scaledImage, 0, 0, background, null);
-            scaledImage = convertedImg;
-        }
-
-        if (args.enableAntiAliasing) {
-            scaledImage = OP_ANTIALIAS.filter(scaledImage, null);
+            return postScaleOp.filter(imageToScale);
         }
+        return scaleAlgorithm.scale(imageToScale, dWidth, dHeight, postScaleOp);
+    }
 
-        return scaledImage;
+    /**
+     * Cheap per output compression steps after scaling: flattens alpha on formats without transparency
+     * and optionally anti-aliases.
+     */
+    private PostScaleOp getPostScaleOp(ImageType.ECompression compression) {
+        return new PostScaleOp(compression.hasTransparency ? null : DEFAULT_COLOR, args.enableAntiAliasing);
     }
 
-    private ScaleAlgorithm getAsScalingAlgorithm(final ScaleAlgorithm algorithm, ImageType.ECompression compression) {
-        return (imageToScale, dWidth, dHeight) -> ImageHandler.this.scale(algorithm, imageToScale, dWidth, dHeight, compression, DEFAULT_COLOR);
+    private ScaleAlgorithm getAsScalingAlgorithm(final ScaleAlgorithm algorithm, PostScaleOp postScaleOp) {
+        return (imageToScale, dWidth, dHeight) -> ImageHandler.this.scale(algorithm, imageToScale, dWidth, dHeight, postScaleOp);
     }
 }
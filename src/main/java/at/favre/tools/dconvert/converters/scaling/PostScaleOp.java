@@ -0,0 +1,267 @@
+/*
+ *  Copyright 2016 Patrick Favre-Bulle
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package at.favre.tools.dconvert.converters.scaling;
+
+import java.awt.*;
+import java.awt.image.BufferedImage;
+import java.awt.image.DataBufferInt;
+
+/**
+ * The steps after scaling in a single pass over packed int ARGB rows: alpha is composited onto a background for
+ * formats without transparency and the anti-alias kernel (0.68 center, 0.08 per direct neighbour) is applied, both
+ * written to one target buffer instead of a {@code drawImage} onto a new image and a {@link java.awt.image.ConvolveOp}
+ * into another one.
+ * <p>
+ * The kernel needs the rows above and below, so rows are taken from a {@link RowSource} (or handed to a
+ * {@link RowWriter}) into a ring of three. The own resamplers use this to apply the op while writing their target rows,
+ * others scale first and use {@link #filter(BufferedImage)}. Like {@code ConvolveOp.EDGE_NO_OP} the outermost pixels are not anti-aliased and
+ * transparent pixels are filtered premultiplied.
+ */
+public final class PostScaleOp {
+    /**
+     * keeps the scaled pixels as they are
+     */
+    public static final PostScaleOp NONE = new PostScaleOp(null, false);
+
+    /**
+     * kernel weights in 1/25: 0.68 and 0.08
+     */
+    private static final int WEIGHT_CENTER = 17;
+    private static final int WEIGHT_NEIGHBOUR = 2;
+    private static final int WEIGHT_SUM = WEIGHT_CENTER + 4 * WEIGHT_NEIGHBOUR;
+
+    /**
+     * Produces the unprocessed target rows
+     */
+    public interface RowSource {
+        /**
+         * Writes the packed ARGB pixels of the target row y to out starting at offset
+         */
+        void getRow(int y, int[] out, int offset);
+    }
+
+    private final Color background;
+    private final boolean antiAlias;
+
+    /**
+     * @param background alpha is composited onto this color, null to keep transparency
+     * @param antiAlias  if the anti-alias kernel is applied
+     */
+    public PostScaleOp(Color background, boolean antiAlias) {
+        this.background = background;
+        this.antiAlias = antiAlias;
+    }
+
+    /**
+     * @return an empty target image for this op, without alpha if flattened
+     */
+    public BufferedImage createDestination(int width, int height, boolean alpha) {
+        return new BufferedImage(width, height, alpha && background == null ? BufferedImage.TYPE_INT_ARGB : BufferedImage.TYPE_INT_RGB);
+    }
+
+    /**
+     * Applies the op to a scaled image in one pass
+     *
+     * @return the image itself if nothing would change
+     */
+    public BufferedImage filter(BufferedImage image) {
+        if (!antiAlias && (background == null || image.getType() == BufferedImage.TYPE_INT_RGB)) {
+            return image;
+        }
+
+        int width = image.getWidth();
+        int height = image.getHeight();
+        boolean alpha = image.getColorModel().hasAlpha();
+        int[] srcPixels = SeparableResampleAlgorithm.getArgbPixels(image);
+
+        BufferedImage dst = createDestination(width, height, alpha);
+        int[] dstPixels = ((DataBufferInt) dst.getRaster().getDataBuffer()).getData();
+        ScaleExecutor.forEachBand(height, width, (fromRow, toRow) -> filterRows((y, out, offset) -> System.arraycopy(srcPixels, y * width, out, offset, width),
+                width, height, alpha, dstPixels, fromRow, toRow));
+        return dst;
+    }
+
+    /**
+     * Writes the target rows [fromRow, toRow) to dst. Without anti-aliasing every row is taken once and directly into
+     * dst, otherwise the rows next to the range are taken as well, always in ascending order.
+     *
+     * @param alpha if the rows have an alpha channel, if not it is set to opaque
+     */
+    public void filterRows(RowSource source, int width, int height, boolean alpha, int[] dst, int fromRow, int toRow) {
+        if (!antiAlias) {
+            for (int y = fromRow; y < toRow; y++) {
+                source.getRow(y, dst, y * width);
+                flatten(dst, y * width, width, alpha);
+            }
+            return;
+        }
+
+        RowWriter writer = new RowWriter(width, height, alpha, dst, fromRow, toRow);
+        while (!writer.isDone()) {
+            source.getRow(writer.getNextRow(), writer.getBuffer(), 0);
+            writer.commit();
+        }
+    }
+
+    /**
+     * @return writer for all rows of a target, for producers that can't be asked for a single row
+     */
+    public RowWriter createWriter(int width, int height, boolean alpha, int[] dst) {
+        return new RowWriter(width, height, alpha, dst, 0, height);
+    }
+
+    /**
+     * Takes the unprocessed target rows in ascending order and writes every row to dst as soon as its neighbours are in
+     */
+    public final class RowWriter {
+        private final int width;
+        private final int height;
+        private final boolean alpha;
+        private final int[] dst;
+        private final int fromRow;
+        private final int toRow;
+        private final int[][] rows;
+        private int nextRow;
+
+        /**
+         * Writes the rows [fromRow, toRow); with anti-aliasing the rows next to the range are taken as well
+         */
+        private RowWriter(int width, int height, boolean alpha, int[] dst, int fromRow, int toRow) {
+            this.width = width;
+            this.height = height;
+            this.alpha = alpha;
+            this.dst = dst;
+            this.fromRow = fromRow;
+            this.toRow = toRow;
+            this.rows = new int[antiAlias ? 3 : 1][width];
+            this.nextRow = antiAlias ? Math.max(0, fromRow - 1) : fromRow;
+        }
+
+        /**
+         * @return index of the row to write to {@link #getBuffer()} next
+         */
+        public int getNextRow() {
+            return nextRow;
+        }
+
+        public boolean isDone() {
+            return nextRow >= (antiAlias ? Math.min(toRow + 1, height) : toRow);
+        }
+
+        /**
+         * @return buffer the packed ARGB pixels of the next row must be written to before {@link #commit()}
+         */
+        public int[] getBuffer() {
+            return rows[nextRow % rows.length];
+        }
+
+        public void commit() {
+            int y = nextRow;
+            int[] row = getBuffer();
+            flatten(row, 0, width, alpha);
+            nextRow++;
+
+            if (!antiAlias) {
+                System.arraycopy(row, 0, dst, y * width, width);
+                return;
+            }
+            // the row above has all of its neighbours now, the last row has no row below
+            write(y - 1);
+            if (y == height - 1) {
+                write(y);
+            }
+        }
+
+        private void write(int y) {
+            if (y < fromRow || y >= toRow) {
+                return;
+            }
+            int[] center = rows[y % 3];
+            if (y == 0 || y == height - 1 || width < 3) {
+                System.arraycopy(center, 0, dst, y * width, width);
+            } else {
+                convolveRow(rows[(y - 1) % 3], center, rows[(y + 1) % 3], dst, y * width, width, !alpha || background != null);
+            }
+        }
+    }
+
+    private void flatten(int[] row, int offset, int width, boolean alpha) {
+        if (!alpha) {
+            for (int i = offset; i < offset + width; i++) {
+                row[i] |= 0xFF000000;
+            }
+        } else if (background != null) {
+            int bgR = background.getRed();
+            int bgG = background.getGreen();
+            int bgB = background.getBlue();
+            for (int i = offset; i < offset + width; i++) {
+                int argb = row[i];
+                int a = argb >>> 24;
+                if (a != 0xFF) {
+                    int inverse = 0xFF - a;
+                    row[i] = 0xFF000000 | (blend((argb >> 16) & 0xFF, bgR, a, inverse) << 16)
+                            | (blend((argb >> 8) & 0xFF, bgG, a, inverse) << 8) | blend(argb & 0xFF, bgB, a, inverse);
+                }
+            }
+        }
+    }
+
+    private static int blend(int color, int background, int alpha, int inverse) {
+        return (color * alpha + background * inverse + 127) / 255;
+    }
+
+    /**
+     * Anti-aliases one row with the rows above and below; color channels are weighted with alpha if not opaque
+     */
+    private static void convolveRow(int[] above, int[] center, int[] below, int[] dst, int offset, int width, boolean opaque) {
+        dst[offset] = center[0];
+        dst[offset + width - 1] = center[width - 1];
+
+        for (int x = 1; x < width - 1; x++) {
+            int c = center[x];
+            int n = above[x];
+            int s = below[x];
+            int w = center[x - 1];
+            int e = center[x + 1];
+
+            if (opaque) {
+                dst[offset + x] = 0xFF000000 | (convolve(c, n, s, w, e, 16) << 16) | (convolve(c, n, s, w, e, 8) << 8) | convolve(c, n, s, w, e, 0);
+            } else {
+                int aC = c >>> 24, aN = n >>> 24, aS = s >>> 24, aW = w >>> 24, aE = e >>> 24;
+                int sumA = WEIGHT_CENTER * aC + WEIGHT_NEIGHBOUR * (aN + aS + aW + aE);
+                if (sumA == 0) {
+                    dst[offset + x] = 0;
+                    continue;
+                }
+                int pixel = ((sumA + WEIGHT_SUM / 2) / WEIGHT_SUM) << 24;
+                for (int shift = 16; shift >= 0; shift -= 8) {
+                    int sum = WEIGHT_CENTER * ((c >> shift) & 0xFF) * aC + WEIGHT_NEIGHBOUR * (((n >> shift) & 0xFF) * aN
+                            + ((s >> shift) & 0xFF) * aS + ((w >> shift) & 0xFF) * aW + ((e >> shift) & 0xFF) * aE);
+                    pixel |= ((sum + sumA / 2) / sumA) << shift;
+                }
+                dst[offset + x] = pixel;
+            }
+        }
+    }
+
+    private static int convolve(int c, int n, int s, int w, int e, int shift) {
+        int sum = WEIGHT_CENTER * ((c >> shift) & 0xFF) + WEIGHT_NEIGHBOUR * (((n >> shift) & 0xFF) + ((s >> shift) & 0xFF)
+                + ((w >> shift) & 0xFF) + ((e >> shift) & 0xFF));
+        return (sum + WEIGHT_SUM / 2) / WEIGHT_SUM;
+    }
+}
@@ -123,7 +123,14 @@ public class ProgressiveAlgorithm implements ScaleAlgorithm {
 
                 ResampleOp resizeOp = new ResampleOp(w, h);
                 resizeOp.setFilter(ResampleFilters.getLanczos3Filter());
-                ret = resizeOp.filter(ret, null);
+
+                int threads = ScaleExecutor.acquireThreads(ret.getWidth(), ret.getHeight());
+                try {
+                    resizeOp.setNumberOfThreads(threads);
+                    ret = resizeOp.filter(ret, null);
+                } finally {
+                    ScaleExecutor.releaseThreads(threads);
+                }
             } while (w != dstWidth || h != dstHeight);
 
             return ret;
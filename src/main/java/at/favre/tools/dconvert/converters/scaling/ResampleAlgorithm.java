@@ -31,11 +31,23 @@ public class ResampleAlgorithm implements ScaleAlgorithm {
         this.filter = filter;
     }
 
+    public ResampleFilter getFilter() {
+        return filter;
+    }
+
     @Override
     public BufferedImage scale(BufferedImage imageToScale, int dWidth, int dHeight) {
         ResampleOp resizeOp = new ResampleOp(dWidth, dHeight);
         resizeOp.setFilter(filter);
-        return resizeOp.filter(imageToScale, null);
+
+        // ResampleOp would otherwise start a thread per core on every call
+        int threads = ScaleExecutor.acquireThreads(imageToScale.getWidth(), imageToScale.getHeight());
+        try {
+            resizeOp.setNumberOfThreads(threads);
+            return resizeOp.filter(imageToScale, null);
+        } finally {
+            ScaleExecutor.releaseThreads(threads);
+        }
     }
 
     public static class LanczosFilter implements ResampleFilter {
@@ -23,4 +23,12 @@ import java.awt.image.BufferedImage;
  */
 public interface ScaleAlgorithm {
     BufferedImage scale(BufferedImage imageToScale, int dWidth, int dHeight);
+
+    /**
+     * Scales and applies the post scale op; implementations that produce their target rows themselves apply it
+     * while writing them, the default runs it on the scaled image.
+     */
+    default BufferedImage scale(BufferedImage imageToScale, int dWidth, int dHeight, PostScaleOp postScaleOp) {
+        return postScaleOp.filter(scale(imageToScale, dWidth, dHeight));
+    }
 }
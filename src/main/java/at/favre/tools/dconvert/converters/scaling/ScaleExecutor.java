@@ -0,0 +1,102 @@
+/*
+ *  Copyright 2016 Patrick Favre-Bulle
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package at.favre.tools.dconvert.converters.scaling;
+
+import at.favre.tools.dconvert.util.ParallelismBudget;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinTask;
+
+/**
+ * Splits the scaling of a single image into row bands that run on a shared pool. Only cores that are idle
+ * according to {@link ParallelismBudget} are used, so with a busy worker pool everything runs on the calling thread.
+ */
+public final class ScaleExecutor {
+    /**
+     * bands smaller than this are not worth the scheduling overhead
+     */
+    static final int MIN_PIXELS_PER_BAND = 1 << 16;
+    private static final ForkJoinPool pool = new ForkJoinPool(ParallelismBudget.getCapacity());
+
+    private ScaleExecutor() {
+    }
+
+    public interface BandTask {
+        void run(int fromRow, int toRow);
+    }
+
+    /**
+     * Runs the task for all rows, split in as many bands as there are idle cores. Returns after all bands are done.
+     *
+     * @param rows         row count
+     * @param pixelsPerRow cost estimate of a single row
+     * @param task         will be called with disjoint row ranges covering [0, rows)
+     */
+    public static void forEachBand(int rows, long pixelsPerRow, BandTask task) {
+        int maxBands = getMaxBands(rows, pixelsPerRow);
+        int extra = maxBands > 1 ? ParallelismBudget.tryAcquire(maxBands - 1) : 0;
+
+        if (extra == 0) {
+            task.run(0, rows);
+            return;
+        }
+
+        List<ForkJoinTask<?>> forked = new ArrayList<>(extra);
+        try {
+            int bands = extra + 1;
+            for (int i = 1; i < bands; i++) {
+                final int from = (int) ((long) rows * i / bands);
+                final int to = (int) ((long) rows * (i + 1) / bands);
+                forked.add(pool.submit(() -> task.run(from, to)));
+            }
+            task.run(0, rows / bands);
+
+            for (ForkJoinTask<?> forkJoinTask : forked) {
+                forkJoinTask.join();
+            }
+        } finally {
+            // if a band failed the others may still run on the acquired cores
+            for (ForkJoinTask<?> forkJoinTask : forked) {
+                forkJoinTask.quietlyJoin();
+            }
+            ParallelismBudget.release(extra);
+        }
+    }
+
+    /**
+     * Gets the count of threads a library scaler with own threading should use and accounts them in the budget
+     *
+     * @return thread count including the calling thread; {@link #releaseThreads(int)} must be called afterwards
+     */
+    public static int acquireThreads(int width, int height) {
+        int maxBands = getMaxBands(height, width);
+        return 1 + (maxBands > 1 ? ParallelismBudget.tryAcquire(maxBands - 1) : 0);
+    }
+
+    /**
+     * @param threads count returned by {@link #acquireThreads(int, int)}
+     */
+    public static void releaseThreads(int threads) {
+        ParallelismBudget.release(threads - 1);
+    }
+
+    private static int getMaxBands(int rows, long pixelsPerRow) {
+        return (int) Math.max(1, Math.min(rows, rows * pixelsPerRow / MIN_PIXELS_PER_BAND));
+    }
+}
@@ -0,0 +1,106 @@
+/*
+ *  Copyright 2016 Patrick Favre-Bulle
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package at.favre.tools.dconvert.converters.scaling;
+
+import java.awt.*;
+import java.awt.image.BufferedImage;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+
+/**
+ * Keeps the already scaled densities of one source image, so that smaller densities can be scaled
+ * from the nearest larger intermediate instead of the full resolution source (cascaded scaling).
+ * <p>
+ * Targets must be requested from largest to smallest. An intermediate is only used if it is at least
+ * {@link #MIN_OVERSAMPLING} times the size of the target, otherwise the repeated resampling would
+ * noticeably soften the result and the original source is used instead.
+ */
+public class ScalePyramid {
+    public static final float MIN_OVERSAMPLING = 2f;
+
+    private final Map<ScaleAlgorithm, List<BufferedImage>> levels = new HashMap<>();
+    private long scaleNanos;
+    private long estimatedDirectNanos;
+    private int cascadedCount;
+
+    /**
+     * Gets the smallest already scaled image that still has enough headroom for the target dimension
+     *
+     * @param algorithm       used algorithm; intermediates are never shared between algorithms
+     * @param source          the original source image, used as fallback
+     * @param targetDimension dimension to scale to
+     * @return the image to scale from
+     */
+    public BufferedImage getSourceFor(ScaleAlgorithm algorithm, BufferedImage source, Dimension targetDimension) {
+        BufferedImage best = source;
+        for (BufferedImage level : levels.getOrDefault(algorithm, new ArrayList<>())) {
+            if (level.getWidth() >= targetDimension.width * MIN_OVERSAMPLING
+                    && level.getHeight() >= targetDimension.height * MIN_OVERSAMPLING
+                    && area(level) < area(best)) {
+                best = level;
+            }
+        }
+        return best;
+    }
+
+    /**
+     * Adds a scaled intermediate so following (smaller) targets may use it
+     */
+    public void add(ScaleAlgorithm algorithm, BufferedImage scaledImage) {
+        levels.computeIfAbsent(algorithm, k -> new ArrayList<>()).add(scaledImage);
+    }
+
+    /**
+     * Records the time spent scaling one target. As resampling cost grows about linear with the source
+     * pixel count, the time the direct mode would have needed is estimated from the area ratio.
+     */
+    public void trace(long nanos, BufferedImage usedSource, BufferedImage originalSource) {
+        scaleNanos += nanos;
+        estimatedDirectNanos += (long) (nanos * ((double) area(originalSource) / (double) area(usedSource)));
+        if (usedSource != originalSource) {
+            cascadedCount++;
+        }
+    }
+
+    /**
+     * @return short report of the measured time spent compared to the time of scaling every density from source;
+     * the latter is never measured, only estimated from the area ratios (see {@link #trace(long, BufferedImage, BufferedImage)})
+     */
+    public String getReport() {
+        return String.format(Locale.US, "pyramid scaling: %d cascaded, measured %.2f ms (direct scaling not measured, estimated by source area ~%.2f ms, est. saving ~%.2f ms)",
+                cascadedCount, scaleNanos / 1000000.0, estimatedDirectNanos / 1000000.0, (estimatedDirectNanos - scaleNanos) / 1000000.0);
+    }
+
+    /**
+     * Flushes and drops all intermediates
+     */
+    public void clear() {
+        for (List<BufferedImage> images : levels.values()) {
+            for (BufferedImage image : images) {
+                image.flush();
+            }
+        }
+        levels.clear();
+    }
+
+    private static long area(BufferedImage image) {
+        return (long) image.getWidth() * (long) image.getHeight();
+    }
+}
@@ -0,0 +1,373 @@
+/*
+ *  Copyright 2016 Patrick Favre-Bulle
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package at.favre.tools.dconvert.converters.scaling;
+
+import com.mortennobel.imagescaling.ResampleFilter;
+
+import java.awt.image.BufferedImage;
+import java.awt.image.DataBufferByte;
+import java.awt.image.DataBufferInt;
+import java.awt.image.PixelInterleavedSampleModel;
+import java.awt.image.Raster;
+import java.awt.image.SinglePixelPackedSampleModel;
+import java.util.Arrays;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Separable two-pass resampler working directly on packed int ARGB and float rasters. First every source row
+ * is resampled horizontally into a float buffer, then every column of that buffer vertically. Transparent images
+ * are filtered with premultiplied alpha so no dark fringes appear on edges.
+ * <p>
+ * The filter contributions only depend on source size, target size and filter so they are cached and reused
+ * for every image with the same dimensions (typical for icon batches). Big images are split into row bands
+ * with {@link ScaleExecutor} if there are idle cores.
+ */
+public class SeparableResampleAlgorithm implements ScaleAlgorithm {
+    private static final int MAX_CACHED_CONTRIBUTIONS = 512;
+    private static final Map<ContributionKey, Contributions> contributionCache = new ConcurrentHashMap<>();
+
+    private final ResampleFilter filter;
+
+    public SeparableResampleAlgorithm(ResampleFilter filter) {
+        this.filter = filter;
+    }
+
+    public ResampleFilter getFilter() {
+        return filter;
+    }
+
+    @Override
+    public BufferedImage scale(BufferedImage imageToScale, int dWidth, int dHeight) {
+        return scale(imageToScale, dWidth, dHeight, PostScaleOp.NONE);
+    }
+
+    @Override
+    public BufferedImage scale(BufferedImage imageToScale, int dWidth, int dHeight, PostScaleOp postScaleOp) {
+        int srcWidth = imageToScale.getWidth();
+        int srcHeight = imageToScale.getHeight();
+        boolean alpha = imageToScale.getColorModel().hasAlpha();
+        int channels = alpha ? 4 : 3;
+
+        int[] srcPixels = getArgbPixels(imageToScale);
+        Contributions horizontal = getContributions(srcWidth, dWidth, filter);
+        Contributions vertical = getContributions(srcHeight, dHeight, filter);
+
+        float[] temp = new float[dWidth * srcHeight * channels];
+        ScaleExecutor.forEachBand(srcHeight, srcWidth, (fromRow, toRow) -> horizontalPass(srcPixels, srcWidth, temp, dWidth, channels, horizontal, fromRow, toRow));
+
+        BufferedImage dst = postScaleOp.createDestination(dWidth, dHeight, alpha);
+        int[] dstPixels = ((DataBufferInt) dst.getRaster().getDataBuffer()).getData();
+        ScaleExecutor.forEachBand(dHeight, dWidth, (fromRow, toRow) ->
+                postScaleOp.filterRows(verticalRows(temp, dWidth, channels, vertical), dWidth, dHeight, alpha, dstPixels, fromRow, toRow));
+        return dst;
+    }
+
+    /**
+     * Resamples the source rows [fromRow, toRow) horizontally into the float buffer (premultiplied if channels == 4)
+     */
+    static void horizontalPass(int[] src, int srcWidth, float[] temp, int dstWidth, int channels, Contributions contributions, int fromRow, int toRow) {
+        float[] row = new float[srcWidth * channels];
+
+        for (int y = fromRow; y < toRow; y++) {
+            horizontalRow(src, y * srcWidth, srcWidth, row, temp, y * dstWidth * channels, dstWidth, channels, contributions);
+        }
+    }
+
+    /**
+     * Resamples one source row starting at srcOffset horizontally into out starting at outOffset
+     *
+     * @param row buffer of at least srcWidth * channels floats
+     */
+    static void horizontalRow(int[] src, int srcOffset, int srcWidth, float[] row, float[] out, int outOffset, int dstWidth, int channels, Contributions contributions) {
+        unpackRow(src, srcOffset, row, srcWidth, channels);
+
+        int outIndex = outOffset;
+        for (int x = 0; x < dstWidth; x++) {
+            int weightIndex = x * contributions.stride;
+            int inIndex = contributions.first[x] * channels;
+            int count = contributions.count[x];
+            float c0 = 0, c1 = 0, c2 = 0, c3 = 0;
+
+            if (channels == 4) {
+                for (int k = 0; k < count; k++) {
+                    float w = contributions.weights[weightIndex + k];
+                    c0 += row[inIndex] * w;
+                    c1 += row[inIndex + 1] * w;
+                    c2 += row[inIndex + 2] * w;
+                    c3 += row[inIndex + 3] * w;
+                    inIndex += 4;
+                }
+                out[outIndex + 3] = c3;
+            } else {
+                for (int k = 0; k < count; k++) {
+                    float w = contributions.weights[weightIndex + k];
+                    c0 += row[inIndex] * w;
+                    c1 += row[inIndex + 1] * w;
+                    c2 += row[inIndex + 2] * w;
+                    inIndex += 3;
+                }
+            }
+            out[outIndex] = c0;
+            out[outIndex + 1] = c1;
+            out[outIndex + 2] = c2;
+            outIndex += channels;
+        }
+    }
+
+    /**
+     * Target rows resampled vertically from the float buffer and packed to int ARGB; one instance per band
+     */
+    static PostScaleOp.RowSource verticalRows(float[] temp, int dstWidth, int channels, Contributions contributions) {
+        int rowLength = dstWidth * channels;
+        float[] row = new float[rowLength];
+
+        return (y, out, offset) -> {
+            Arrays.fill(row, 0f);
+
+            int weightIndex = y * contributions.stride;
+            int count = contributions.count[y];
+            int inIndex = contributions.first[y] * rowLength;
+            for (int k = 0; k < count; k++) {
+                float w = contributions.weights[weightIndex + k];
+                for (int i = 0; i < rowLength; i++) {
+                    row[i] += temp[inIndex + i] * w;
+                }
+                inIndex += rowLength;
+            }
+            packRow(row, out, offset, dstWidth, channels);
+        };
+    }
+
+    private static void unpackRow(int[] src, int offset, float[] row, int width, int channels) {
+        int index = 0;
+        for (int x = 0; x < width; x++) {
+            int argb = src[offset + x];
+            float r = (argb >> 16) & 0xFF;
+            float g = (argb >> 8) & 0xFF;
+            float b = argb & 0xFF;
+
+            if (channels == 4) {
+                float a = (argb >>> 24);
+                float factor = a / 255f;
+                row[index++] = r * factor;
+                row[index++] = g * factor;
+                row[index++] = b * factor;
+                row[index++] = a;
+            } else {
+                row[index++] = r;
+                row[index++] = g;
+                row[index++] = b;
+            }
+        }
+    }
+
+    static void packRow(float[] row, int[] dst, int offset, int width, int channels) {
+        int index = 0;
+        for (int x = 0; x < width; x++) {
+            float r = row[index];
+            float g = row[index + 1];
+            float b = row[index + 2];
+            int a = 0xFF;
+
+            if (channels == 4) {
+                float alpha = row[index + 3];
+                a = clamp(alpha);
+                if (a == 0) {
+                    r = g = b = 0;
+                } else {
+                    float factor = 255f / alpha;
+                    r *= factor;
+                    g *= factor;
+                    b *= factor;
+                }
+            }
+            dst[offset + x] = (a << 24) | (clamp(r) << 16) | (clamp(g) << 8) | clamp(b);
+            index += channels;
+        }
+    }
+
+    private static int clamp(float value) {
+        int v = (int) (value + 0.5f);
+        return v < 0 ? 0 : (v > 255 ? 255 : v);
+    }
+
+    /**
+     * Gets the pixels as packed non-premultiplied ARGB; for plain int rasters the backing array is used directly
+     * without copying - it must not be modified. Byte interleaved rasters (as created by most ImageIO readers)
+     * are converted directly since {@link BufferedImage#getRGB(int, int, int, int, int[], int, int)} goes through
+     * the color model for every single pixel.
+     */
+    static int[] getArgbPixels(BufferedImage image) {
+        int width = image.getWidth();
+        int height = image.getHeight();
+        Raster raster = image.getRaster();
+        boolean plainRaster = raster.getSampleModelTranslateX() == 0 && raster.getSampleModelTranslateY() == 0
+                && raster.getDataBuffer().getOffset() == 0 && raster.getDataBuffer().getNumBanks() == 1;
+
+        if ((image.getType() == BufferedImage.TYPE_INT_ARGB || image.getType() == BufferedImage.TYPE_INT_RGB) && plainRaster
+                && raster.getDataBuffer() instanceof DataBufferInt
+                && raster.getSampleModel() instanceof SinglePixelPackedSampleModel
+                && ((SinglePixelPackedSampleModel) raster.getSampleModel()).getScanlineStride() == width) {
+            return ((DataBufferInt) raster.getDataBuffer()).getData();
+        }
+
+        if ((image.getType() == BufferedImage.TYPE_4BYTE_ABGR || image.getType() == BufferedImage.TYPE_3BYTE_BGR) && plainRaster
+                && raster.getDataBuffer() instanceof DataBufferByte
+                && raster.getSampleModel() instanceof PixelInterleavedSampleModel) {
+            PixelInterleavedSampleModel sampleModel = (PixelInterleavedSampleModel) raster.getSampleModel();
+            byte[] data = ((DataBufferByte) raster.getDataBuffer()).getData();
+            int[] bandOffsets = sampleModel.getBandOffsets();
+            int pixelStride = sampleModel.getPixelStride();
+            int scanlineStride = sampleModel.getScanlineStride();
+            boolean alpha = bandOffsets.length == 4;
+
+            int[] pixels = new int[width * height];
+            int index = 0;
+            for (int y = 0; y < height; y++) {
+                int rowIndex = y * scanlineStride;
+                for (int x = 0; x < width; x++) {
+                    int a = alpha ? data[rowIndex + bandOffsets[3]] & 0xFF : 0xFF;
+                    pixels[index++] = (a << 24) | ((data[rowIndex + bandOffsets[0]] & 0xFF) << 16)
+                            | ((data[rowIndex + bandOffsets[1]] & 0xFF) << 8) | (data[rowIndex + bandOffsets[2]] & 0xFF);
+                    rowIndex += pixelStride;
+                }
+            }
+            return pixels;
+        }
+        return image.getRGB(0, 0, width, height, null, 0, width);
+    }
+
+    static Contributions getContributions(int srcSize, int dstSize, ResampleFilter filter) {
+        ContributionKey key = new ContributionKey(srcSize, dstSize, filter);
+        Contributions contributions = contributionCache.get(key);
+        if (contributions == null) {
+            if (contributionCache.size() >= MAX_CACHED_CONTRIBUTIONS) {
+                contributionCache.clear();
+            }
+            contributions = new Contributions(srcSize, dstSize, filter);
+            contributionCache.put(key, contributions);
+        }
+        return contributions;
+    }
+
+    /**
+     * @return count of currently cached contribution tables
+     */
+    public static int getCachedContributionCount() {
+        return contributionCache.size();
+    }
+
+    /**
+     * Normalized filter weights for every target pixel of one dimension. Weights of target pixel i are
+     * at [i * stride, i * stride + count[i]) and apply to source pixels starting at first[i].
+     */
+    static final class Contributions {
+        final int[] first;
+        final int[] count;
+        final float[] weights;
+        final int stride;
+
+        Contributions(int srcSize, int dstSize, ResampleFilter filter) {
+            float scale = (float) dstSize / (float) srcSize;
+            float filterScale = Math.min(scale, 1f);
+            float support = filter.getSamplingRadius() / filterScale;
+
+            stride = (int) Math.ceil(support * 2) + 3;
+            first = new int[dstSize];
+            count = new int[dstSize];
+            weights = new float[dstSize * stride];
+
+            for (int i = 0; i < dstSize; i++) {
+                float center = (i + 0.5f) / scale - 0.5f;
+                int left = Math.max(0, (int) Math.floor(center - support));
+                int right = Math.min(srcSize - 1, (int) Math.ceil(center + support));
+
+                float sum = 0;
+                for (int j = left; j <= right; j++) {
+                    float w = filter.apply((center - j) * filterScale);
+                    weights[i * stride + (j - left)] = w;
+                    sum += w;
+                }
+
+                if (sum == 0) {
+                    //can only happen if the filter is zero everywhere in the window; fall back to nearest pixel
+                    int nearest = Math.min(srcSize - 1, Math.max(0, Math.round(center)));
+                    left = right = nearest;
+                    weights[i * stride] = 1f;
+                    sum = 1f;
+                }
+
+                for (int j = 0; j <= right - left; j++) {
+                    weights[i * stride + j] /= sum;
+                }
+                first[i] = left;
+                count[i] = right - left + 1;
+            }
+        }
+    }
+
+    private static final class ContributionKey {
+        private final int srcSize;
+        private final int dstSize;
+        private final ResampleFilter filter;
+
+        ContributionKey(int srcSize, int dstSize, ResampleFilter filter) {
+            this.srcSize = srcSize;
+            this.dstSize = dstSize;
+            this.filter = filter;
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (this == o) return true;
+            if (o == null || getClass() != o.getClass()) return false;
+
+            ContributionKey that = (ContributionKey) o;
+
+            return srcSize == that.srcSize && dstSize == that.dstSize && filter.equals(that.filter);
+        }
+
+        @Override
+        public int hashCode() {
+            int result = srcSize;
+            result = 31 * result + dstSize;
+            result = 31 * result + filter.hashCode();
+            return result;
+        }
+    }
+
+    @Override
+    public String toString() {
+        return "SeparableResampleAlgorithm[" + filter.getName() + ']';
+    }
+
+    @Override
+    public boolean equals(Object o) {
+        if (this == o) return true;
+        if (o == null || getClass() != o.getClass()) return false;
+
+        SeparableResampleAlgorithm that = (SeparableResampleAlgorithm) o;
+
+        return filter != null ? filter.equals(that.filter) : that.filter == null;
+    }
+
+    @Override
+    public int hashCode() {
+        return filter != null ? filter.hashCode() : 0;
+    }
+}
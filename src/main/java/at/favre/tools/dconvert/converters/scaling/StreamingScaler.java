@@ -0,0 +1,434 @@
+/*
+ *  Copyright 2016 Patrick Favre-Bulle
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package at.favre.tools.dconvert.converters.scaling;
+
+import at.favre.tools.dconvert.util.ImageIOPool;
+import at.favre.tools.dconvert.util.MiscUtil;
+import com.mortennobel.imagescaling.ResampleFilter;
+
+import javax.imageio.IIOException;
+import javax.imageio.ImageIO;
+import javax.imageio.ImageReadParam;
+import javax.imageio.ImageReader;
+import javax.imageio.stream.ImageInputStream;
+import java.awt.*;
+import java.awt.image.BufferedImage;
+import java.awt.image.DataBufferInt;
+import java.io.File;
+import java.io.IOException;
+import java.util.*;
+import java.util.List;
+
+/**
+ * Scales sources too big to be decoded as a whole: source rows are read in strips with
+ * {@link ImageReadParam#setSourceRegion(Rectangle)}, resampled horizontally and kept in a ring buffer that only holds
+ * as many rows as the vertical filter spans. Every target row is resampled from the ring as soon as its source rows
+ * are in, so memory scales with one strip plus target width × filter height instead of the source area.
+ * <p>
+ * Readers of sequential formats like png or jpeg decode the file from the start up to the requested strip for every
+ * strip. So all targets announced with {@link #plan(ScaleAlgorithm, int, int)} are scaled in the same pass, feeding every
+ * strip to the ring of every target, and strips of sequential formats are made big enough that a pass has at most
+ * {@link #MAX_SEQUENTIAL_STRIPS} of them (as far as the heap allows). This still trades time for memory and is only
+ * used if the decoded source would not fit.
+ * <p>
+ * Filtering is the same as {@link SeparableResampleAlgorithm}; algorithms without a resample filter (progressive or
+ * Graphics2D based) use Lanczos3.
+ */
+public class StreamingScaler {
+    public static final int DEFAULT_STRIP_BYTES = 8 * 1024 * 1024;
+    /**
+     * strips per pass over a sequential format, every strip decodes all rows above it again
+     */
+    public static final int MAX_SEQUENTIAL_STRIPS = 16;
+    /**
+     * max part of the heap a single strip of a sequential format may use
+     */
+    private static final float MAX_STRIP_HEAP_FRACTION = 1 / 16f;
+    private static final ResampleFilter FALLBACK_FILTER = new ResampleAlgorithm.LanczosFilter(3);
+
+    private final File file;
+    private final Dimension sourceDimension;
+    private final int subsampling;
+    private final boolean alpha;
+    private final int stripBytes;
+    private final int width;
+    private final int height;
+    /**
+     * count of planned requests per target that were not served yet
+     */
+    private final Map<Target, Integer> plannedTargets = new HashMap<>();
+    /**
+     * unprocessed images of planned targets scaled in the pass of another target
+     */
+    private final Map<Target, BufferedImage> scaledTargets = new HashMap<>();
+    private int stripReads;
+
+    /**
+     * @param file            source image
+     * @param sourceDimension dimension of the image in the file
+     * @param subsampling     only every n-th pixel in both directions is read, 1 for all
+     * @param alpha           if the image has an alpha channel
+     */
+    public StreamingScaler(File file, Dimension sourceDimension, int subsampling, boolean alpha) {
+        this(file, sourceDimension, subsampling, alpha, DEFAULT_STRIP_BYTES);
+    }
+
+    /**
+     * @param stripBytes min size of one decoded strip, at least one row is read at a time
+     */
+    public StreamingScaler(File file, Dimension sourceDimension, int subsampling, boolean alpha, int stripBytes) {
+        this.file = file;
+        this.sourceDimension = sourceDimension;
+        this.subsampling = subsampling;
+        this.alpha = alpha;
+        this.stripBytes = stripBytes;
+        this.width = (sourceDimension.width + subsampling - 1) / subsampling;
+        this.height = (sourceDimension.height + subsampling - 1) / subsampling;
+    }
+
+    /**
+     * Gets the rows read at once: at least stripBytes, for sequential formats (all but tiff) as many as needed to
+     * read the whole image in {@link #MAX_SEQUENTIAL_STRIPS}, but not more than {@link #MAX_STRIP_HEAP_FRACTION} of the heap
+     *
+     * @param width  of the (subsampled) image
+     * @param height of the (subsampled) image
+     */
+    public static int getStripRows(File file, int width, int height, int stripBytes) {
+        long rowBytes = (long) width * 4;
+        long rows = Math.max(1, stripBytes / rowBytes);
+        String extension = MiscUtil.getFileExtensionLowerCase(file);
+        if (!extension.equals("tif") && !extension.equals("tiff")) {
+            long maxRows = Math.max(1, (long) (Runtime.getRuntime().maxMemory() * MAX_STRIP_HEAP_FRACTION) / rowBytes);
+            rows = Math.max(rows, Math.min((height + MAX_SEQUENTIAL_STRIPS - 1) / MAX_SEQUENTIAL_STRIPS, maxRows));
+        }
+        return (int) Math.min(rows, height);
+    }
+
+    /**
+     * @return width of the image after subsampling
+     */
+    public int getWidth() {
+        return width;
+    }
+
+    /**
+     * @return height of the image after subsampling
+     */
+    public int getHeight() {
+        return height;
+    }
+
+    public Dimension getSourceDimension() {
+        return sourceDimension;
+    }
+
+    public int getSubsampling() {
+        return subsampling;
+    }
+
+    public boolean hasAlpha() {
+        return alpha;
+    }
+
+    /**
+     * @return count of strips read from the file so far
+     */
+    public synchronized int getStripReads() {
+        return stripReads;
+    }
+
+    /**
+     * Announces a target that will be requested with {@link #scale(ScaleAlgorithm, int, int, PostScaleOp)}. The first
+     * request scales all planned targets in one pass over the file and keeps the others until they are requested.
+     */
+    public synchronized void plan(ScaleAlgorithm algorithm, int dWidth, int dHeight) {
+        plannedTargets.merge(new Target(getFilter(algorithm, dWidth, dHeight), dWidth, dHeight), 1, Integer::sum);
+    }
+
+    /**
+     * Drops all planned targets and the scaled ones that were not requested yet
+     */
+    public synchronized void clear() {
+        plannedTargets.clear();
+        scaledTargets.clear();
+    }
+
+    /**
+     * Scales the source to the given size in one pass over the file
+     *
+     * @param algorithm its filter is used if it is a resampling algorithm
+     */
+    public BufferedImage scale(ScaleAlgorithm algorithm, int dWidth, int dHeight) throws IOException {
+        return scale(algorithm, dWidth, dHeight, PostScaleOp.NONE);
+    }
+
+    /**
+     * Scales the source to the given size and applies the post scale op while writing the target rows. Unless it was
+     * already scaled with another planned target, all other planned targets are scaled in the same pass.
+     */
+    public synchronized BufferedImage scale(ScaleAlgorithm algorithm, int dWidth, int dHeight, PostScaleOp postScaleOp) throws IOException {
+        Target target = new Target(getFilter(algorithm, dWidth, dHeight), dWidth, dHeight);
+        BufferedImage scaled = scaledTargets.get(target);
+        if (scaled == null) {
+            List<Target> targets = new ArrayList<>(plannedTargets.keySet());
+            targets.remove(target);
+            targets.add(0, target);
+            // a target requested again must be kept unprocessed
+            boolean requestedAgain = plannedTargets.getOrDefault(target, 0) > 1;
+            List<BufferedImage> images = scale(targets, requestedAgain ? PostScaleOp.NONE : postScaleOp);
+
+            for (int i = 1; i < targets.size(); i++) {
+                scaledTargets.put(targets.get(i), images.get(i));
+            }
+            if (!requestedAgain) {
+                onRequested(target);
+                return images.get(0);
+            }
+            scaled = images.get(0);
+            scaledTargets.put(target, scaled);
+        }
+        onRequested(target);
+        return postScaleOp.filter(scaled);
+    }
+
+    private void onRequested(Target target) {
+        Integer count = plannedTargets.get(target);
+        if (count != null && count > 1) {
+            plannedTargets.put(target, count - 1);
+        } else {
+            plannedTargets.remove(target);
+            scaledTargets.remove(target);
+        }
+    }
+
+    /**
+     * One pass over the file for all targets, every needed strip is read once
+     *
+     * @param firstOp post scale op of the first target, all others are not processed
+     */
+    private List<BufferedImage> scale(List<Target> targets, PostScaleOp firstOp) throws IOException {
+        List<TargetPass> passes = new ArrayList<>(targets.size());
+        int lastRow = 0;
+        for (Target target : targets) {
+            TargetPass pass = new TargetPass(target, passes.isEmpty() ? firstOp : PostScaleOp.NONE);
+            passes.add(pass);
+            lastRow = Math.max(lastRow, pass.getLastSourceRow());
+        }
+
+        float[] unpackedRow = new float[width * (alpha ? 4 : 3)];
+        try (StripReader strips = new StripReader()) {
+            for (int row = 0; row <= lastRow; row++) {
+                for (TargetPass pass : passes) {
+                    if (pass.needs(row)) {
+                        pass.add(row, strips.getStripWith(row), strips.getOffset(row), unpackedRow);
+                    }
+                }
+            }
+        }
+
+        List<BufferedImage> images = new ArrayList<>(passes.size());
+        for (TargetPass pass : passes) {
+            images.add(pass.dst);
+        }
+        return images;
+    }
+
+    /**
+     * Decodes the whole (subsampled) image, only for users that can't work on strips
+     */
+    public BufferedImage read() throws IOException {
+        try (StripReader strips = new StripReader()) {
+            return strips.read(0, height);
+        }
+    }
+
+    private ResampleFilter getFilter(ScaleAlgorithm algorithm, int dWidth, int dHeight) {
+        if (algorithm instanceof AutoScaleAlgorithm) {
+            algorithm = ((AutoScaleAlgorithm) algorithm).select(width, height, dWidth, dHeight);
+        }
+
+        if (algorithm instanceof AreaAverageAlgorithm) {
+            // the box filter is what it uses for other ratios and at integer ratios it covers exactly the same pixels
+            return AreaAverageAlgorithm.BOX_FILTER;
+        } else if (algorithm instanceof SeparableResampleAlgorithm) {
+            return ((SeparableResampleAlgorithm) algorithm).getFilter();
+        } else if (algorithm instanceof ResampleAlgorithm) {
+            return ((ResampleAlgorithm) algorithm).getFilter();
+        }
+        return FALLBACK_FILTER;
+    }
+
+    /**
+     * State of one target during a pass: its ring of horizontally resampled source rows and its target image
+     */
+    private final class TargetPass {
+        private final int dWidth;
+        private final int dHeight;
+        private final int channels;
+        private final int rowLength;
+        private final int ringRows;
+        private final SeparableResampleAlgorithm.Contributions horizontal;
+        private final SeparableResampleAlgorithm.Contributions vertical;
+        private final float[] ring;
+        private final float[] targetRow;
+        private final BufferedImage dst;
+        private final PostScaleOp.RowWriter writer;
+        private int nextY;
+
+        TargetPass(Target target, PostScaleOp postScaleOp) {
+            dWidth = target.width;
+            dHeight = target.height;
+            channels = alpha ? 4 : 3;
+            rowLength = dWidth * channels;
+            horizontal = SeparableResampleAlgorithm.getContributions(width, dWidth, target.filter);
+            vertical = SeparableResampleAlgorithm.getContributions(height, dHeight, target.filter);
+            // a window of the vertical filter never spans more rows than its stride, so rows in it never share a slot
+            ringRows = vertical.stride;
+            ring = new float[ringRows * rowLength];
+            targetRow = new float[rowLength];
+            dst = postScaleOp.createDestination(dWidth, dHeight, alpha);
+            writer = postScaleOp.createWriter(dWidth, dHeight, alpha, ((DataBufferInt) dst.getRaster().getDataBuffer()).getData());
+        }
+
+        int getLastSourceRow() {
+            return vertical.first[dHeight - 1] + vertical.count[dHeight - 1] - 1;
+        }
+
+        /**
+         * @return true if a target row still to be written uses this source row; rows are offered in ascending order
+         */
+        boolean needs(int row) {
+            return nextY < dHeight && row >= vertical.first[nextY];
+        }
+
+        /**
+         * Resamples the source row horizontally into the ring and writes every target row whose rows are all in now
+         */
+        void add(int row, int[] stripPixels, int offset, float[] unpackedRow) {
+            SeparableResampleAlgorithm.horizontalRow(stripPixels, offset, width, unpackedRow, ring, (row % ringRows) * rowLength, dWidth, channels, horizontal);
+
+            while (nextY < dHeight && vertical.first[nextY] + vertical.count[nextY] - 1 <= row) {
+                int first = vertical.first[nextY];
+                int count = vertical.count[nextY];
+                Arrays.fill(targetRow, 0f);
+                int weightIndex = nextY * vertical.stride;
+                for (int k = 0; k < count; k++) {
+                    float w = vertical.weights[weightIndex + k];
+                    int inIndex = ((first + k) % ringRows) * rowLength;
+                    for (int i = 0; i < rowLength; i++) {
+                        targetRow[i] += ring[inIndex + i] * w;
+                    }
+                }
+                SeparableResampleAlgorithm.packRow(targetRow, writer.getBuffer(), 0, dWidth, channels);
+                writer.commit();
+                nextY++;
+            }
+        }
+    }
+
+    private static final class Target {
+        private final ResampleFilter filter;
+        private final int width;
+        private final int height;
+
+        Target(ResampleFilter filter, int width, int height) {
+            this.filter = filter;
+            this.width = width;
+            this.height = height;
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (this == o) return true;
+            if (o == null || getClass() != o.getClass()) return false;
+
+            Target target = (Target) o;
+
+            return width == target.width && height == target.height && filter.equals(target.filter);
+        }
+
+        @Override
+        public int hashCode() {
+            int result = filter.hashCode();
+            result = 31 * result + width;
+            result = 31 * result + height;
+            return result;
+        }
+    }
+
+    /**
+     * Reads rows of the subsampled image in strips with one pooled reader and keeps the last strip
+     */
+    private final class StripReader implements AutoCloseable {
+        private final ImageInputStream stream;
+        private final ImageReader reader;
+        private final int stripRows;
+        private int[] pixels;
+        private int stripStart = -1;
+        private int stripLength;
+
+        StripReader() throws IOException {
+            stream = ImageIO.createImageInputStream(file);
+            if (stream == null) {
+                throw new IIOException("Can't create an ImageInputStream!");
+            }
+            reader = ImageIOPool.acquireReader(stream, MiscUtil.getFileExtensionLowerCase(file));
+            if (reader == null) {
+                stream.close();
+                throw new IIOException("No reader for " + file);
+            }
+            // strips are read in any order, so the reader must be able to seek back
+            reader.setInput(stream, false, true);
+            stripRows = getStripRows(file, width, height, stripBytes);
+        }
+
+        int[] getStripWith(int row) throws IOException {
+            if (row < stripStart || row >= stripStart + stripLength) {
+                stripStart = row;
+                stripLength = Math.min(stripRows, height - row);
+                pixels = SeparableResampleAlgorithm.getArgbPixels(read(stripStart, stripLength));
+                stripReads++;
+            }
+            return pixels;
+        }
+
+        int getOffset(int row) {
+            return (row - stripStart) * width;
+        }
+
+        /**
+         * Reads the rows [fromRow, fromRow + rows) of the subsampled image
+         */
+        BufferedImage read(int fromRow, int rows) throws IOException {
+            int sourceY = fromRow * subsampling;
+            int sourceHeight = Math.min(sourceDimension.height - sourceY, rows * subsampling);
+            ImageReadParam param = reader.getDefaultReadParam();
+            param.setSourceRegion(new Rectangle(0, sourceY, sourceDimension.width, sourceHeight));
+            if (subsampling > 1) {
+                param.setSourceSubsampling(subsampling, subsampling, 0, 0);
+            }
+            return reader.read(0, param);
+        }
+
+        @Override
+        public void close() throws IOException {
+            ImageIOPool.release(reader);
+            stream.close();
+        }
+    }
+}
@@ -17,6 +17,7 @@
 package at.favre.tools.dconvert.ui;
 
 import at.favre.tools.dconvert.arg.*;
+import at.favre.tools.dconvert.util.OutputCache;
 import org.apache.commons.cli.*;
 
 import java.io.File;
@@ -32,6 +33,12 @@ import java.util.Set;
 public final class CLIInterpreter {
     public static final String COMPRESSION_QUALITY_ARG = "compressionQuality";
     public static final String THREADS_ARG = "threads";
+    public static final String HEAP_BUDGET_ARG = "heapBudget";
+    public static final String CACHE_DIR_ARG = "cacheDir";
+    public static final String CACHE_SIZE_ARG = "cacheSize";
+    public static final String DAEMON_PORT_ARG = "daemonPort";
+    public static final String PNG_COMPRESSION_LEVEL_ARG = "pngCompressionLevel";
+    public static final String PNG_FILTER_ARG = "pngFilter";
     public static final String SOURCE_ARG = "src";
     public static final String SCALE_ARG = "scale";
     public static final String PLATFORM_ARG = "platform";
@@ -70,6 +77,14 @@ public final class CLIInterpreter {
                 return null;
             }
 
+            if (commandLine.hasOption("daemon")) {
+                builder = new Arguments.Builder(null, Arguments.DEFAULT_SCALE).daemon(true);
+                if (commandLine.hasOption(DAEMON_PORT_ARG)) {
+                    builder.daemonPort(Integer.valueOf(commandLine.getOptionValue(DAEMON_PORT_ARG)));
+                }
+                return builder.build();
+            }
+
             String scaleRawParam = commandLine.getOptionValue(SCALE_ARG).toLowerCase();
 
             boolean dp = false;
@@ -175,6 +190,33 @@ public final class CLIInterpreter {
                 builder.threadCount(Integer.valueOf(commandLine.getOptionValue(THREADS_ARG)));
             }
 
+            if (commandLine.hasOption(HEAP_BUDGET_ARG)) {
+                builder.heapBudgetMb(Integer.valueOf(commandLine.getOptionValue(HEAP_BUDGET_ARG)));
+            }
+
+            if (commandLine.hasOption(CACHE_DIR_ARG)) {
+                builder.cacheDir(new File(commandLine.getOptionValue(CACHE_DIR_ARG)));
+            }
+
+            if (commandLine.hasOption(CACHE_SIZE_ARG)) {
+                builder.cacheMaxMb(Integer.valueOf(commandLine.getOptionValue(CACHE_SIZE_ARG)));
+            }
+
+            if (commandLine.hasOption(DAEMON_PORT_ARG)) {
+                builder.daemonPort(Integer.valueOf(commandLine.getOptionValue(DAEMON_PORT_ARG)));
+            }
+
+            // explicit png options override the ones of the fast mode
+            int pngCompressionLevel = commandLine.hasOption("pngFast") ? Arguments.FAST_PNG_COMPRESSION_LEVEL : Arguments.DEFAULT_PNG_COMPRESSION_LEVEL;
+            if (commandLine.hasOption(PNG_COMPRESSION_LEVEL_ARG)) {
+                pngCompressionLevel = Integer.valueOf(commandLine.getOptionValue(PNG_COMPRESSION_LEVEL_ARG));
+            }
+            EPngFilter pngFilter = Arguments.DEFAULT_PNG_FILTER;
+            if (commandLine.hasOption(PNG_FILTER_ARG)) {
+                pngFilter = EPngFilter.getByName(commandLine.getOptionValue(PNG_FILTER_ARG));
+            }
+            builder.pngCompression(pngCompressionLevel, pngFilter);
+
             builder.skipUpscaling(commandLine.hasOption("skipUpscaling"));
             builder.skipExistingFiles(commandLine.hasOption(SKIP_EXISTING_ARG));
             builder.includeAndroidLdpiTvdpi(commandLine.hasOption("androidIncludeLdpiTvdpi"));
@@ -183,12 +225,17 @@ public final class CLIInterpreter {
             builder.createMipMapInsteadOfDrawableDir(commandLine.hasOption("androidMipmapInsteadOfDrawable"));
             builder.antiAliasing(commandLine.hasOption("antiAliasing"));
             builder.enablePngCrush(commandLine.hasOption("postProcessorPngCrush"));
+            builder.enablePngOptimizer(commandLine.hasOption("postProcessorPngOptimizer"));
             builder.postConvertWebp(commandLine.hasOption("postProcessorWebp"));
             builder.dryRun(commandLine.hasOption("dryRun"));
             builder.enableMozJpeg(commandLine.hasOption("postProcessorMozJpeg"));
             builder.keepUnoptimizedFilesPostProcessor(commandLine.hasOption("keepOriginalPostProcessedFiles"));
             builder.iosCreateImagesetFolders(commandLine.hasOption("iosCreateImagesetFolders"));
             builder.clearDirBeforeConvert(commandLine.hasOption("clean"));
+            builder.enablePyramidScaling(commandLine.hasOption("pyramidScaling"));
+            builder.incremental(commandLine.hasOption("incremental"));
+            builder.watch(commandLine.hasOption("watch"));
+            builder.useDaemon(commandLine.hasOption("useDaemon"));
 
             return builder.build();
         } catch (Exception e) {
@@ -213,6 +260,12 @@ public final class CLIInterpreter {
 
         Option platform = Option.builder(PLATFORM_ARG).hasArg(true).argName("all|android|ios|win|web").desc(MessageFormat.format(bundle.getString("arg.descr.cmd.platform"), Arguments.DEFAULT_PLATFORM)).build();
         Option threadCount = Option.builder(THREADS_ARG).argName("1-8").hasArg(true).desc(MessageFormat.format(bundle.getString("arg.descr.cmd.threads"), String.valueOf(Arguments.DEFAULT_THREAD_COUNT))).build();
+        Option cacheDir = Option.builder(CACHE_DIR_ARG).argName("path").hasArg(true).desc(bundle.getString("arg.descr.cmd.cachedir")).build();
+        Option cacheSize = Option.builder(CACHE_SIZE_ARG).argName("MB").hasArg(true).desc(MessageFormat.format(bundle.getString("arg.descr.cmd.cachesize"), String.valueOf(OutputCache.DEFAULT_MAX_SIZE_MB))).build();
+        Option daemonPort = Option.builder(DAEMON_PORT_ARG).argName("port").hasArg(true).desc(MessageFormat.format(bundle.getString("arg.descr.cmd.daemonport"), String.valueOf(Arguments.DEFAULT_DAEMON_PORT))).build();
+        Option pngCompressionLevel = Option.builder(PNG_COMPRESSION_LEVEL_ARG).argName("0-9").hasArg(true).desc(MessageFormat.format(bundle.getString("arg.descr.cmd.pngcompressionlevel"), String.valueOf(Arguments.DEFAULT_PNG_COMPRESSION_LEVEL))).build();
+        Option pngFilter = Option.builder(PNG_FILTER_ARG).argName(EPngFilter.getCliArgString()).hasArg(true).desc(MessageFormat.format(bundle.getString("arg.descr.cmd.pngfilter"), Arguments.DEFAULT_PNG_FILTER.name().toLowerCase())).build();
+        Option heapBudget = Option.builder(HEAP_BUDGET_ARG).argName("MB").hasArg(true).desc(bundle.getString("arg.descr.cmd.heapbudget")).build();
         Option roundingHandler = Option.builder(ROUNDING_MODE_ARG).argName("round|ceil|floor").hasArg(true).desc(MessageFormat.format(bundle.getString("arg.descr.cmd.rounding"), Arguments.DEFAULT_ROUNDING_STRATEGY)).build();
         Option compression = Option.builder(OUT_COMPRESSION_ARG).hasArg(true).argName("png|jpg|gif|bmp").desc(bundle.getString("arg.descr.cmd.outcompression")).build();
         Option compressionQuality = Option.builder(COMPRESSION_QUALITY_ARG).hasArg(true).argName("0.0-1.0").desc(MessageFormat.format(bundle.getString("arg.descr.cmd.compression"), String.valueOf(Arguments.DEFAULT_COMPRESSION_QUALITY))).build();
@@ -228,28 +281,36 @@ public final class CLIInterpreter {
         Option haltOnError = Option.builder("haltOnError").desc(bundle.getString("arg.descr.halterror")).build();
         Option antiAliasing = Option.builder("antiAliasing").desc(bundle.getString("arg.descr.antialiasing")).build();
         Option enablePngCrush = Option.builder("postProcessorPngCrush").desc(bundle.getString("arg.descr.pngcrush")).build();
+        Option enablePngOptimizer = Option.builder("postProcessorPngOptimizer").desc(bundle.getString("arg.descr.pngoptimizer")).build();
+        Option pngFast = Option.builder("pngFast").desc(MessageFormat.format(bundle.getString("arg.descr.pngfast"), String.valueOf(Arguments.FAST_PNG_COMPRESSION_LEVEL))).build();
         Option postWebpConvert = Option.builder("postProcessorWebp").desc(bundle.getString("arg.descr.webp")).build();
         Option keepUnPostProcessed = Option.builder("keepOriginalPostProcessedFiles").desc(bundle.getString("arg.descr.keeporiginal")).build();
         Option dpScaleIsHeight = Option.builder(SCALE_IS_HEIGHT_DP_ARG).desc(bundle.getString("arg.descr.cmd.dpIsHeight")).build();
         Option dryRun = Option.builder("dryRun").desc(bundle.getString("arg.descr.dryrun")).build();
         Option enableMozJpeg = Option.builder("postProcessorMozJpeg").desc(bundle.getString("arg.descr.mozjpeg")).build();
         Option cleanBeforeConvert = Option.builder("clean").desc(bundle.getString("arg.descr.clean")).build();
+        Option pyramidScaling = Option.builder("pyramidScaling").desc(bundle.getString("arg.descr.pyramid")).build();
+        Option incremental = Option.builder("incremental").desc(bundle.getString("arg.descr.incremental")).build();
+        Option watch = Option.builder("watch").desc(bundle.getString("arg.descr.watch")).build();
+        Option useDaemon = Option.builder("useDaemon").desc(bundle.getString("arg.descr.usedaemon")).build();
 
         Option help = Option.builder("h").longOpt("help").desc(bundle.getString("arg.descr.cmd.help")).build();
         Option version = Option.builder("v").longOpt("version").desc(bundle.getString("arg.descr.cmd.version")).build();
         Option gui = Option.builder("gui").desc(bundle.getString("arg.descr.cmd.gui")).build();
+        Option daemon = Option.builder("daemon").desc(bundle.getString("arg.descr.cmd.daemon")).build();
 
         OptionGroup mainArgs = new OptionGroup();
-        mainArgs.addOption(srcOpt).addOption(help).addOption(version).addOption(gui);
+        mainArgs.addOption(srcOpt).addOption(help).addOption(version).addOption(gui).addOption(daemon);
         mainArgs.setRequired(true);
 
         options.addOption(srcScaleOpt).addOption(dstOpt);
-        options.addOption(platform).addOption(compression).addOption(compressionQuality).addOption(threadCount).addOption(roundingHandler)
-                .addOption(upScalingAlgo).addOption(downScalingAlgo);
+        options.addOption(platform).addOption(compression).addOption(compressionQuality).addOption(threadCount).addOption(heapBudget).addOption(cacheDir).addOption(cacheSize).addOption(daemonPort).addOption(roundingHandler)
+                .addOption(pngCompressionLevel).addOption(pngFilter).addOption(upScalingAlgo).addOption(downScalingAlgo);
         options.addOption(skipExistingFiles).addOption(skipUpscaling).addOption(androidIncludeLdpiTvdpi).addOption(verboseLog)
                 .addOption(antiAliasing).addOption(dryRun).addOption(haltOnError).addOption(mipmapInsteadOfDrawable)
-                .addOption(enablePngCrush).addOption(postWebpConvert).addOption(dpScaleIsHeight).addOption(enableMozJpeg)
-                .addOption(keepUnPostProcessed).addOption(iosCreateImagesetFolders).addOption(cleanBeforeConvert);
+                .addOption(enablePngCrush).addOption(enablePngOptimizer).addOption(pngFast).addOption(postWebpConvert).addOption(dpScaleIsHeight).addOption(enableMozJpeg)
+                .addOption(keepUnPostProcessed).addOption(iosCreateImagesetFolders).addOption(cleanBeforeConvert)
+                .addOption(pyramidScaling).addOption(incremental).addOption(watch).addOption(useDaemon);
 
         options.addOptionGroup(mainArgs);
 
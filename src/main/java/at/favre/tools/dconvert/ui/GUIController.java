@@ -61,6 +61,7 @@ public class GUIController {
     public HBox hboxWhy;
     public VBox vboxFillFreeSpace;
     public CheckBox cbCleanBeforeConvert;
+    public CheckBox cbPyramidScaling;
     public Label labelDownScale;
     public ChoiceBox choiceDownScale;
     public Label labelUpScale;
@@ -435,6 +436,7 @@ public class GUIController {
             cbKeepUnoptimized.setSelected(args.keepUnoptimizedFilesPostProcessor);
             cbIosCreateImageset.setSelected(args.iosCreateImagesetFolders);
             cbCleanBeforeConvert.setSelected(args.clearDirBeforeConvert);
+            cbPyramidScaling.setSelected(args.enablePyramidScaling);
             rbOptAdvanced.setSelected(args.guiAdvancedOptions);
             rbOptSimple.setSelected(!args.guiAdvancedOptions);
 
@@ -492,6 +494,7 @@ public class GUIController {
         builder.iosCreateImagesetFolders(cbIosCreateImageset.isSelected());
         builder.guiAdvancedOptions(rbOptAdvanced.isSelected());
         builder.clearDirBeforeConvert(cbCleanBeforeConvert.isSelected());
+        builder.enablePyramidScaling(cbPyramidScaling.isSelected());
 
         return builder.skipParamValidation(skipValidation).build();
     }
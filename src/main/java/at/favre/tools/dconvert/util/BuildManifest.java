@@ -0,0 +1,227 @@
+/*
+ *  Copyright 2016 Patrick Favre-Bulle
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package at.favre.tools.dconvert.util;
+
+import at.favre.tools.dconvert.arg.Arguments;
+import at.favre.tools.dconvert.arg.EPlatform;
+
+import java.io.*;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.*;
+
+/**
+ * Persistent record of the last build in the destination folder: per source the hash of its content, the hash of
+ * the arguments that influence the output and the files produced. A source is up to date if both hashes match and all
+ * of its outputs still exist, so it can be skipped without decoding it.
+ * <p>
+ * Paths are stored relative to the destination folder, so the manifest stays valid if the whole project is moved.
+ */
+public final class BuildManifest {
+    public static final String FILE_NAME = ".dconvert-manifest";
+
+    private static final String KEY_CONTENT_HASH = "hash.";
+    private static final String KEY_ARGUMENTS_HASH = "args.";
+    private static final String KEY_OUTPUTS = "out.";
+    private static final String OUTPUT_SEPARATOR = "\n";
+
+    private final File dstFolder;
+    private final Properties entries;
+
+    private BuildManifest(File dstFolder, Properties entries) {
+        this.dstFolder = dstFolder.getAbsoluteFile().toPath().normalize().toFile();
+        this.entries = entries;
+    }
+
+    /**
+     * Loads the manifest of the given destination folder; an empty one if it does not exist or can't be read
+     */
+    public static BuildManifest load(File dstFolder) {
+        Properties properties = new Properties();
+        File manifestFile = new File(dstFolder, FILE_NAME);
+        if (manifestFile.isFile()) {
+            try (InputStream in = new FileInputStream(manifestFile)) {
+                properties.load(in);
+            } catch (Exception e) {
+                properties.clear();
+            }
+        }
+        return new BuildManifest(dstFolder, properties);
+    }
+
+    /**
+     * @return hex SHA-256 of the file content
+     */
+    public static String hashContent(File file) throws IOException {
+        MessageDigest digest = createDigest();
+        try (InputStream in = new FileInputStream(file)) {
+            byte[] buffer = new byte[64 * 1024];
+            int read;
+            while ((read = in.read(buffer)) != -1) {
+                digest.update(buffer, 0, read);
+            }
+        }
+        return toHex(digest.digest());
+    }
+
+    /**
+     * @return hex SHA-256 of all arguments that change the produced files
+     */
+    public static String hashArguments(Arguments args) {
+        List<String> platforms = new ArrayList<>();
+        if (args.platform != null) {
+            for (EPlatform platform : args.platform) {
+                platforms.add(platform.name());
+            }
+        }
+        Collections.sort(platforms);
+
+        String relevantArgs = "scale=" + args.scale +
+                ", platform=" + platforms +
+                ", outputCompressionMode=" + args.outputCompressionMode +
+                ", scaleMode=" + args.scaleMode +
+                ", downScalingAlgorithm=" + args.downScalingAlgorithm +
+                ", upScalingAlgorithm=" + args.upScalingAlgorithm +
+                ", compressionQuality=" + args.compressionQuality +
+                ", skipUpscaling=" + args.skipUpscaling +
+                ", includeAndroidLdpiTvdpi=" + args.includeAndroidLdpiTvdpi +
+                ", createMipMapInsteadOfDrawableDir=" + args.createMipMapInsteadOfDrawableDir +
+                ", iosCreateImagesetFolders=" + args.iosCreateImagesetFolders +
+                ", enablePngCrush=" + args.enablePngCrush +
+                ", enablePngOptimizer=" + args.enablePngOptimizer +
+                ", pngCompressionLevel=" + args.pngCompressionLevel +
+                ", pngFilter=" + args.pngFilter +
+                ", enableMozJpeg=" + args.enableMozJpeg +
+                ", postConvertWebp=" + args.postConvertWebp +
+                ", enableAntiAliasing=" + args.enableAntiAliasing +
+                ", keepUnoptimizedFilesPostProcessor=" + args.keepUnoptimizedFilesPostProcessor +
+                ", roundingHandler=" + args.roundingHandler +
+                ", enablePyramidScaling=" + args.enablePyramidScaling;
+
+        MessageDigest digest = createDigest();
+        try {
+            digest.update(relevantArgs.getBytes("UTF-8"));
+        } catch (UnsupportedEncodingException e) {
+            throw new IllegalStateException(e);
+        }
+        return toHex(digest.digest());
+    }
+
+    /**
+     * @return true if the source was built with the same content and arguments and all of its outputs exist
+     */
+    public synchronized boolean isUpToDate(File src, String contentHash, String argumentsHash) {
+        String key = toKey(src);
+        if (!contentHash.equals(entries.getProperty(KEY_CONTENT_HASH + key)) || !argumentsHash.equals(entries.getProperty(KEY_ARGUMENTS_HASH + key))) {
+            return false;
+        }
+        for (File output : getOutputs(src)) {
+            if (!output.exists()) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * @return all files produced from the given source in the last build, empty if unknown
+     */
+    public synchronized List<File> getOutputs(File src) {
+        List<File> outputs = new ArrayList<>();
+        String value = entries.getProperty(KEY_OUTPUTS + toKey(src));
+        if (value != null && !value.isEmpty()) {
+            for (String output : value.split(OUTPUT_SEPARATOR)) {
+                outputs.add(dstFolder.toPath().resolve(output).normalize().toFile());
+            }
+        }
+        return outputs;
+    }
+
+    /**
+     * @return all sources recorded in the manifest
+     */
+    public synchronized List<File> getSources() {
+        List<File> sources = new ArrayList<>();
+        for (String name : entries.stringPropertyNames()) {
+            if (name.startsWith(KEY_CONTENT_HASH)) {
+                sources.add(dstFolder.toPath().resolve(name.substring(KEY_CONTENT_HASH.length())).normalize().toFile());
+            }
+        }
+        return sources;
+    }
+
+    public synchronized void update(File src, String contentHash, String argumentsHash, Collection<File> outputs) {
+        String key = toKey(src);
+        StringBuilder sb = new StringBuilder();
+        for (File output : new TreeSet<>(outputs)) {
+            if (sb.length() > 0) {
+                sb.append(OUTPUT_SEPARATOR);
+            }
+            sb.append(toKey(output));
+        }
+        entries.setProperty(KEY_CONTENT_HASH + key, contentHash);
+        entries.setProperty(KEY_ARGUMENTS_HASH + key, argumentsHash);
+        entries.setProperty(KEY_OUTPUTS + key, sb.toString());
+    }
+
+    public synchronized void remove(File src) {
+        String key = toKey(src);
+        entries.remove(KEY_CONTENT_HASH + key);
+        entries.remove(KEY_ARGUMENTS_HASH + key);
+        entries.remove(KEY_OUTPUTS + key);
+    }
+
+    /**
+     * Writes the manifest to a temp file first and moves it in place, so a crash or a concurrent
+     * reader never sees a partly written manifest.
+     */
+    public synchronized void save() throws IOException {
+        Files.createDirectories(dstFolder.toPath());
+        Path tempFile = Files.createTempFile(dstFolder.toPath(), FILE_NAME, ".tmp");
+        try {
+            try (OutputStream out = new FileOutputStream(tempFile.toFile())) {
+                entries.store(out, "dconvert build manifest, do not edit");
+            }
+            Files.move(tempFile, new File(dstFolder, FILE_NAME).toPath(), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        } finally {
+            Files.deleteIfExists(tempFile);
+        }
+    }
+
+    private String toKey(File file) {
+        return dstFolder.toPath().relativize(file.getAbsoluteFile().toPath().normalize()).toString().replace(File.separatorChar, '/');
+    }
+
+    private static MessageDigest createDigest() {
+        try {
+            return MessageDigest.getInstance("SHA-256");
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException("SHA-256 not supported", e);
+        }
+    }
+
+    private static String toHex(byte[] bytes) {
+        StringBuilder sb = new StringBuilder(bytes.length * 2);
+        for (byte b : bytes) {
+            sb.append(String.format("%02x", b));
+        }
+        return sb.toString();
+    }
+}
@@ -17,11 +17,9 @@
 package at.favre.tools.dconvert.util;
 
 import at.favre.tools.dconvert.arg.Arguments;
-import at.favre.tools.dconvert.arg.EScaleMode;
 import at.favre.tools.dconvert.converters.descriptors.DensityDescriptor;
 
 import java.awt.*;
-import java.io.File;
 import java.io.IOException;
 import java.util.Map;
 import java.util.TreeMap;
@@ -30,8 +28,6 @@ import java.util.TreeMap;
  * Helps assembling needed densities to convert to
  */
 public final class DensityBucketUtil {
-    private static final float SVG_UPSCALE_FACTOR = 4;
-
     private DensityBucketUtil() {
     }
 
@@ -91,21 +87,4 @@ public final class DensityBucketUtil {
         });
         return bucketMap;
     }
-
-    private static Dimension getHqDimension(File image, Arguments args) throws IOException {
-        Dimension srcDimension = ImageUtil.getImageDimension(image);
-        Dimension hqDimension;
-        if (args.scaleMode == EScaleMode.FACTOR && args.scale < SVG_UPSCALE_FACTOR) {
-            hqDimension = new Dimension((int) args.round(SVG_UPSCALE_FACTOR / args.scale * (float) srcDimension.width), (int) args.round(SVG_UPSCALE_FACTOR / args.scale * (float) srcDimension.width));
-        } else if (args.scaleMode == EScaleMode.DP_WIDTH && (args.scale * SVG_UPSCALE_FACTOR < srcDimension.width)) {
-            float scaleFactor = args.scale / (float) srcDimension.width * SVG_UPSCALE_FACTOR;
-            hqDimension = new Dimension((int) args.round(scaleFactor * (float) srcDimension.width), (int) args.round(scaleFactor * (float) srcDimension.height));
-        } else if (args.scaleMode == EScaleMode.DP_HEIGHT && (args.scale * SVG_UPSCALE_FACTOR < srcDimension.height)) {
-            float scaleFactor = args.scale / (float) srcDimension.height * SVG_UPSCALE_FACTOR;
-            hqDimension = new Dimension((int) args.round(scaleFactor * (float) srcDimension.width), (int) args.round(scaleFactor * (float) srcDimension.height));
-        } else {
-            hqDimension = srcDimension;
-        }
-        return hqDimension;
-    }
 }
@@ -0,0 +1,254 @@
+/*
+ *  Copyright 2016 Patrick Favre-Bulle
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package at.favre.tools.dconvert.util;
+
+import java.util.*;
+
+/**
+ * Minimal codec for flat JSON objects, as used by the daemon protocol: values may only be strings, numbers, booleans,
+ * null or arrays of strings. Numbers are decoded as {@link Double}.
+ */
+public final class FlatJson {
+    private FlatJson() {
+    }
+
+    /**
+     * Encodes the map as a single line JSON object
+     *
+     * @param map values must be {@link String}, {@link Number}, {@link Boolean}, null or a collection of strings
+     */
+    public static String encode(Map<String, ?> map) {
+        StringBuilder sb = new StringBuilder("{");
+        for (Map.Entry<String, ?> entry : map.entrySet()) {
+            if (sb.length() > 1) {
+                sb.append(',');
+            }
+            appendString(sb, entry.getKey());
+            sb.append(':');
+            appendValue(sb, entry.getValue());
+        }
+        return sb.append('}').toString();
+    }
+
+    /**
+     * Decodes a flat JSON object
+     *
+     * @throws IllegalArgumentException if the json is malformed or contains nested objects
+     */
+    public static Map<String, Object> decode(String json) {
+        return new Parser(json).parseObject();
+    }
+
+    private static void appendValue(StringBuilder sb, Object value) {
+        if (value == null) {
+            sb.append("null");
+        } else if (value instanceof Boolean) {
+            sb.append(value);
+        } else if (value instanceof Number) {
+            double number = ((Number) value).doubleValue();
+            if (Double.isNaN(number) || Double.isInfinite(number)) {
+                throw new IllegalArgumentException("number not supported in json: " + value);
+            }
+            sb.append(value);
+        } else if (value instanceof Collection) {
+            sb.append('[');
+            boolean first = true;
+            for (Object element : (Collection<?>) value) {
+                if (!first) {
+                    sb.append(',');
+                }
+                first = false;
+                appendString(sb, String.valueOf(element));
+            }
+            sb.append(']');
+        } else {
+            appendString(sb, value.toString());
+        }
+    }
+
+    private static void appendString(StringBuilder sb, String s) {
+        sb.append('"');
+        for (int i = 0; i < s.length(); i++) {
+            char c = s.charAt(i);
+            switch (c) {
+                case '"':
+                    sb.append("\\\"");
+                    break;
+                case '\\':
+                    sb.append("\\\\");
+                    break;
+                case '\n':
+                    sb.append("\\n");
+                    break;
+                case '\r':
+                    sb.append("\\r");
+                    break;
+                case '\t':
+                    sb.append("\\t");
+                    break;
+                default:
+                    if (c < 0x20) {
+                        sb.append(String.format("\\u%04x", (int) c));
+                    } else {
+                        sb.append(c);
+                    }
+            }
+        }
+        sb.append('"');
+    }
+
+    private static final class Parser {
+        private final String json;
+        private int pos;
+
+        Parser(String json) {
+            this.json = json;
+        }
+
+        Map<String, Object> parseObject() {
+            Map<String, Object> map = new LinkedHashMap<>();
+            expect('{');
+            if (peek() == '}') {
+                pos++;
+            } else {
+                do {
+                    String key = parseString();
+                    expect(':');
+                    map.put(key, parseValue());
+                } while (consumeIf(','));
+                expect('}');
+            }
+            if (peek() != 0) {
+                throw error("unexpected trailing content");
+            }
+            return map;
+        }
+
+        private Object parseValue() {
+            char c = peek();
+            if (c == '"') {
+                return parseString();
+            } else if (c == '[') {
+                pos++;
+                List<String> list = new ArrayList<>();
+                if (peek() == ']') {
+                    pos++;
+                    return list;
+                }
+                do {
+                    list.add(parseString());
+                } while (consumeIf(','));
+                expect(']');
+                return list;
+            } else if (json.startsWith("true", pos)) {
+                pos += 4;
+                return Boolean.TRUE;
+            } else if (json.startsWith("false", pos)) {
+                pos += 5;
+                return Boolean.FALSE;
+            } else if (json.startsWith("null", pos)) {
+                pos += 4;
+                return null;
+            } else if (c == '-' || (c >= '0' && c <= '9')) {
+                int start = pos;
+                while (pos < json.length() && "+-0123456789.eE".indexOf(json.charAt(pos)) != -1) {
+                    pos++;
+                }
+                try {
+                    return Double.valueOf(json.substring(start, pos));
+                } catch (NumberFormatException e) {
+                    throw error("invalid number");
+                }
+            }
+            throw error("unexpected value");
+        }
+
+        private String parseString() {
+            expect('"');
+            StringBuilder sb = new StringBuilder();
+            while (pos < json.length()) {
+                char c = json.charAt(pos++);
+                if (c == '"') {
+                    return sb.toString();
+                } else if (c == '\\') {
+                    if (pos >= json.length()) {
+                        break;
+                    }
+                    char escaped = json.charAt(pos++);
+                    switch (escaped) {
+                        case 'n':
+                            sb.append('\n');
+                            break;
+                        case 'r':
+                            sb.append('\r');
+                            break;
+                        case 't':
+                            sb.append('\t');
+                            break;
+                        case 'b':
+                            sb.append('\b');
+                            break;
+                        case 'f':
+                            sb.append('\f');
+                            break;
+                        case 'u':
+                            if (pos + 4 > json.length()) {
+                                throw error("invalid unicode escape");
+                            }
+                            try {
+                                sb.append((char) Integer.parseInt(json.substring(pos, pos + 4), 16));
+                            } catch (NumberFormatException e) {
+                                throw error("invalid unicode escape");
+                            }
+                            pos += 4;
+                            break;
+                        default:
+                            sb.append(escaped);
+                    }
+                } else {
+                    sb.append(c);
+                }
+            }
+            throw error("unterminated string");
+        }
+
+        private char peek() {
+            while (pos < json.length() && Character.isWhitespace(json.charAt(pos))) {
+                pos++;
+            }
+            return pos < json.length() ? json.charAt(pos) : 0;
+        }
+
+        private boolean consumeIf(char c) {
+            if (peek() == c) {
+                pos++;
+                return true;
+            }
+            return false;
+        }
+
+        private void expect(char c) {
+            if (!consumeIf(c)) {
+                throw error("expected '" + c + "'");
+            }
+        }
+
+        private IllegalArgumentException error(String message) {
+            return new IllegalArgumentException("invalid json at " + pos + ": " + message);
+        }
+    }
+}
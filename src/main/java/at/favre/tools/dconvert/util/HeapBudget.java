@@ -0,0 +1,75 @@
+/*
+ *  Copyright 2016 Patrick Favre-Bulle
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package at.favre.tools.dconvert.util;
+
+import java.util.LinkedList;
+
+/**
+ * Admission control for memory heavy jobs: a job only starts while the sum of all estimated reservations fits
+ * the budget. Waiting jobs are admitted in order, so big images are not starved by small ones. A single job
+ * bigger than the whole budget is still admitted, but only if nothing else is reserved.
+ */
+public final class HeapBudget {
+    /**
+     * part of the max heap used if no explicit budget is set
+     */
+    public static final float DEFAULT_HEAP_FRACTION = 0.6f;
+
+    private final long budgetBytes;
+    private final LinkedList<Object> waiting = new LinkedList<>();
+    private long reservedBytes;
+
+    /**
+     * @param budgetBytes max bytes reserved at the same time; if smaller than 1 the default fraction of max heap is used
+     */
+    public HeapBudget(long budgetBytes) {
+        this.budgetBytes = budgetBytes > 0 ? budgetBytes : (long) (Runtime.getRuntime().maxMemory() * DEFAULT_HEAP_FRACTION);
+    }
+
+    /**
+     * Blocks until the given bytes fit the budget and all jobs waiting longer were admitted
+     *
+     * @param bytes estimated memory of the job
+     * @throws InterruptedException if interrupted while waiting; nothing is reserved in that case
+     */
+    public synchronized void acquire(long bytes) throws InterruptedException {
+        Object ticket = new Object();
+        waiting.addLast(ticket);
+        try {
+            while (waiting.getFirst() != ticket || (reservedBytes > 0 && reservedBytes + bytes > budgetBytes)) {
+                wait();
+            }
+            reservedBytes += bytes;
+        } finally {
+            waiting.remove(ticket);
+            notifyAll();
+        }
+    }
+
+    public synchronized void release(long bytes) {
+        reservedBytes -= bytes;
+        notifyAll();
+    }
+
+    public long getBudgetBytes() {
+        return budgetBytes;
+    }
+
+    public synchronized long getReservedBytes() {
+        return reservedBytes;
+    }
+}
@@ -0,0 +1,178 @@
+/*
+ *  Copyright 2016 Patrick Favre-Bulle
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package at.favre.tools.dconvert.util;
+
+import javax.imageio.ImageIO;
+import javax.imageio.ImageReader;
+import javax.imageio.ImageWriteParam;
+import javax.imageio.ImageWriter;
+import javax.imageio.spi.ImageReaderSpi;
+import javax.imageio.spi.ImageWriterSpi;
+import javax.imageio.stream.ImageInputStream;
+import java.awt.image.RenderedImage;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Deque;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedDeque;
+
+/**
+ * Process wide pools of {@link ImageReader} and {@link ImageWriter} instances, so converting many small images does
+ * not look up the service providers in the IIORegistry and construct new readers/writers for every file.
+ * <p>
+ * Providers are looked up once per suffix or format name; a pooled instance is only used by one thread at a time and
+ * reset when released. The most recently released instance is reused first, as it is the most likely to be warm.
+ * Compression params are built once per format and quality and must not be changed by callers.
+ */
+public final class ImageIOPool {
+    private static final Map<String, List<ImageReaderSpi>> readerSpisBySuffix = new ConcurrentHashMap<>();
+    private static final Map<String, List<ImageWriterSpi>> writerSpisByFormat = new ConcurrentHashMap<>();
+    private static final Map<Object, Deque<ImageReader>> readers = new ConcurrentHashMap<>();
+    private static final Map<Object, Deque<ImageWriter>> writers = new ConcurrentHashMap<>();
+    private static final Map<String, ImageWriteParam> compressionParams = new ConcurrentHashMap<>();
+
+    private ImageIOPool() {
+    }
+
+    /**
+     * Gets a reader that can decode the stream; the providers registered for the suffix are checked first, the
+     * whole registry only if none of them can decode it. Must be released with {@link #release(ImageReader)}.
+     *
+     * @param stream input, not set to the reader
+     * @param suffix file extension used as hint
+     * @return reader or null if no reader can decode the stream
+     */
+    public static ImageReader acquireReader(ImageInputStream stream, String suffix) throws IOException {
+        List<ImageReaderSpi> spis = readerSpisBySuffix.computeIfAbsent(suffix.toLowerCase(), ImageIOPool::lookupReaderSpis);
+        for (ImageReaderSpi spi : spis) {
+            if (spi.canDecodeInput(stream)) {
+                return acquireReader(spi);
+            }
+        }
+
+        Iterator<ImageReader> iterator = ImageIO.getImageReaders(stream);
+        return iterator.hasNext() ? iterator.next() : null;
+    }
+
+    /**
+     * Gets a reader for images with the given suffix without checking the input.
+     * Must be released with {@link #release(ImageReader)}.
+     *
+     * @return reader or null if there is none for the suffix
+     */
+    public static ImageReader acquireReader(String suffix) throws IOException {
+        List<ImageReaderSpi> spis = readerSpisBySuffix.computeIfAbsent(suffix.toLowerCase(), ImageIOPool::lookupReaderSpis);
+        return spis.isEmpty() ? null : acquireReader(spis.get(0));
+    }
+
+    /**
+     * Gets a writer of the format that can encode the image, the same writer {@link ImageIO#write} would use.
+     * Must be released with {@link #release(ImageWriter)}.
+     *
+     * @return writer or null if no writer of the format can encode the image
+     */
+    public static ImageWriter acquireWriter(String formatName, RenderedImage image) throws IOException {
+        List<ImageWriterSpi> spis = writerSpisByFormat.computeIfAbsent(formatName.toLowerCase(), ImageIOPool::lookupWriterSpis);
+        for (ImageWriterSpi spi : spis) {
+            if (spi.canEncodeImage(image)) {
+                ImageWriter writer = poll(writers, spi);
+                return writer != null ? writer : spi.createWriterInstance();
+            }
+        }
+        return null;
+    }
+
+    /**
+     * Resets the reader and returns it to the pool
+     */
+    public static void release(ImageReader reader) {
+        reader.reset();
+        if (reader.getOriginatingProvider() != null) {
+            readers.computeIfAbsent(reader.getOriginatingProvider().getClass(), k -> new ConcurrentLinkedDeque<>()).offerFirst(reader);
+        } else {
+            reader.dispose();
+        }
+    }
+
+    /**
+     * Resets the writer and returns it to the pool
+     */
+    public static void release(ImageWriter writer) {
+        writer.reset();
+        if (writer.getOriginatingProvider() != null) {
+            writers.computeIfAbsent(writer.getOriginatingProvider().getClass(), k -> new ConcurrentLinkedDeque<>()).offerFirst(writer);
+        } else {
+            writer.dispose();
+        }
+    }
+
+    /**
+     * Shared, pre-built param with explicit compression quality; must not be modified
+     *
+     * @param writer  a writer of the format
+     * @param quality compression quality between 0 and 1
+     */
+    public static ImageWriteParam getCompressionParam(ImageWriter writer, float quality) {
+        String key = writer.getOriginatingProvider().getClass().getName() + "|" + quality;
+        return compressionParams.computeIfAbsent(key, k -> {
+            ImageWriteParam param = writer.getDefaultWriteParam();
+            param.setCompressionMode(ImageWriteParam.MODE_EXPLICIT);
+            param.setCompressionQuality(quality);
+            return param;
+        });
+    }
+
+    private static ImageReader acquireReader(ImageReaderSpi spi) throws IOException {
+        ImageReader reader = poll(readers, spi);
+        return reader != null ? reader : spi.createReaderInstance();
+    }
+
+    private static <T> T poll(Map<Object, Deque<T>> pool, Object spi) {
+        Deque<T> queue = pool.get(spi.getClass());
+        return queue != null ? queue.pollFirst() : null;
+    }
+
+    private static List<ImageReaderSpi> lookupReaderSpis(String suffix) {
+        List<ImageReaderSpi> spis = new ArrayList<>();
+        Iterator<ImageReader> iterator = ImageIO.getImageReadersBySuffix(suffix);
+        while (iterator.hasNext()) {
+            ImageReader reader = iterator.next();
+            if (reader.getOriginatingProvider() != null) {
+                spis.add(reader.getOriginatingProvider());
+            }
+            reader.dispose();
+        }
+        return spis;
+    }
+
+    private static List<ImageWriterSpi> lookupWriterSpis(String formatName) {
+        List<ImageWriterSpi> spis = new ArrayList<>();
+        Iterator<ImageWriter> iterator = ImageIO.getImageWritersByFormatName(formatName);
+        while (iterator.hasNext()) {
+            ImageWriter writer = iterator.next();
+            if (writer.getOriginatingProvider() != null) {
+                spis.add(writer.getOriginatingProvider());
+            }
+            writer.dispose();
+        }
+        return spis;
+    }
+}
@@ -18,6 +18,7 @@ package at.favre.tools.dconvert.util;
 
 import at.favre.tools.dconvert.arg.Arguments;
 import at.favre.tools.dconvert.arg.ImageType;
+import at.favre.tools.dconvert.converters.scaling.StreamingScaler;
 import com.twelvemonkeys.imageio.metadata.CompoundDirectory;
 import com.twelvemonkeys.imageio.metadata.exif.EXIFReader;
 import com.twelvemonkeys.imageio.metadata.jpeg.JPEG;
@@ -36,18 +37,38 @@ import java.awt.image.BufferedImage;
 import java.io.File;
 import java.io.IOException;
 import java.io.InputStream;
-import java.util.Iterator;
 import java.util.List;
 
 /**
  * Main Util class containing all
  */
 public final class ImageUtil {
+    /**
+     * a subsampled source is still at least this factor bigger than the biggest target, so the scaling algorithm
+     * has enough source pixels per target pixel
+     */
+    public static final int SUBSAMPLING_HEADROOM = 2;
+    /**
+     * sources whose decoded pixels would need more than this part of the max heap are scaled streaming
+     */
+    public static final float STREAMING_HEAP_FRACTION = 0.25f;
 
     private ImageUtil() {
     }
 
     public static LoadedImage loadImage(File input) throws Exception {
+        return loadImage(input, null);
+    }
+
+    /**
+     * Loads the image; sources much bigger than needed are decoded subsampled, which is a lot faster and uses less
+     * memory. Sources without target size are always decoded in full resolution. Vector images are only parsed, see
+     * {@link LoadedImage#getVectorSource()}, and sources that would still be too big are not decoded but streamed,
+     * see {@link LoadedImage#getStreamingSource()}.
+     *
+     * @param targetSize provides the biggest target dimension of the source, may be null
+     */
+    public static LoadedImage loadImage(File input, TargetSize targetSize) throws Exception {
         if (input == null) {
             throw new IllegalArgumentException("input == null!");
         }
@@ -55,15 +76,41 @@ public final class ImageUtil {
             throw new IIOException("Can't read input file!");
         }
 
+        if (Arguments.getImageType(input) == ImageType.SVG) {
+            return new LoadedImage(input, SvgRenderer.parse(input));
+        }
+
         ImageInputStream stream = ImageIO.createImageInputStream(input);
         if (stream == null) {
             throw new IIOException("Can't create an ImageInputStream!");
         }
-        LoadedImage image = read(stream, Arguments.getImageType(input));
+        LoadedImage image = read(input, stream, MiscUtil.getFileExtensionLowerCase(input), targetSize);
+        if (image.getStreamingSource() != null) {
+            return new LoadedImage(input, image.getStreamingSource(), readExif(input));
+        }
         if (image.getImage() == null) {
             stream.close();
         }
-        return new LoadedImage(input, image.getImage(), image.getMetadata(), readExif(input));
+        return new LoadedImage(input, image.getImage(), image.getMetadata(), readExif(input), image.getSourceDimension(), image.getSubsampling());
+    }
+
+    /**
+     * @param decodedPixels pixel count of the decoded image
+     * @return true if the decoded image would take more than {@link #STREAMING_HEAP_FRACTION} of the max heap
+     */
+    public static boolean isTooBigToDecode(long decodedPixels) {
+        return decodedPixels * 4 > Runtime.getRuntime().maxMemory() * STREAMING_HEAP_FRACTION;
+    }
+
+    /**
+     * @return factor the source can be subsampled with while keeping {@link #SUBSAMPLING_HEADROOM}, 1 for none
+     */
+    public static int getSubsampling(Dimension sourceDimension, Dimension maxTargetDimension) {
+        if (maxTargetDimension == null || maxTargetDimension.width <= 0 || maxTargetDimension.height <= 0) {
+            return 1;
+        }
+        return Math.max(1, Math.min(sourceDimension.width / (SUBSAMPLING_HEADROOM * maxTargetDimension.width),
+                sourceDimension.height / (SUBSAMPLING_HEADROOM * maxTargetDimension.height)));
     }
 
     private static CompoundDirectory readExif(File input) throws IOException {
@@ -86,50 +133,44 @@ public final class ImageUtil {
         return null;
     }
 
-    private static LoadedImage read(ImageInputStream stream, ImageType imageType) throws IOException {
+    private static LoadedImage read(File input, ImageInputStream stream, String suffix, TargetSize targetSize) throws Exception {
         if (stream == null) {
             throw new IllegalArgumentException("stream == null!");
         }
 
-        Iterator iter = ImageIO.getImageReaders(stream);
-        if (!iter.hasNext()) {
+        ImageReader reader = ImageIOPool.acquireReader(stream, suffix);
+        if (reader == null) {
             return null;
         }
 
-        ImageReader reader = (ImageReader) iter.next();
         ImageReadParam param = reader.getDefaultReadParam();
         reader.setInput(stream, true, true);
         BufferedImage bi;
         IIOMetadata metadata;
+        Dimension sourceDimension;
+        int subsampling = 1;
         try {
+            sourceDimension = new Dimension(reader.getWidth(0), reader.getHeight(0));
+            if (targetSize != null) {
+                subsampling = getSubsampling(sourceDimension, targetSize.getMaxTargetDimension(sourceDimension));
+                if (subsampling > 1) {
+                    param.setSourceSubsampling(subsampling, subsampling, 0, 0);
+                }
+            }
+
+            long decodedPixels = (long) ((sourceDimension.width + subsampling - 1) / subsampling) * ((sourceDimension.height + subsampling - 1) / subsampling);
+            if (isTooBigToDecode(decodedPixels)) {
+                boolean alpha = reader.getImageTypes(0).next().getColorModel().hasAlpha();
+                return new LoadedImage(input, new StreamingScaler(input, sourceDimension, subsampling, alpha), null);
+            }
             metadata = reader.getImageMetadata(0);
             bi = reader.read(0, param);
         } finally {
-            reader.dispose();
+            ImageIOPool.release(reader);
             stream.close();
         }
 
-        return new LoadedImage(null, bi, metadata, null);
-    }
-
-    @Deprecated
-    public static BufferedImage readSvg(File file, Dimension sourceDimension) throws Exception {
-        try (ImageInputStream input = ImageIO.createImageInputStream(file)) {
-            Iterator<ImageReader> readers = ImageIO.getImageReaders(input);
-            if (!readers.hasNext()) {
-                throw new IllegalArgumentException("No reader for: " + file);
-            }
-
-            ImageReader reader = readers.next();
-            try {
-                reader.setInput(input);
-                ImageReadParam param = reader.getDefaultReadParam();
-                param.setSourceRenderSize(sourceDimension);
-                return reader.read(0, param);
-            } finally {
-                reader.dispose();
-            }
-        }
+        return new LoadedImage(null, bi, metadata, null, sourceDimension, subsampling);
     }
 
     /**
@@ -144,20 +185,26 @@ public final class ImageUtil {
         if (pos == -1)
             throw new IOException("No extension for file: " + imgFile.getAbsolutePath());
         String suffix = imgFile.getName().substring(pos + 1);
-        Iterator<ImageReader> iter = ImageIO.getImageReadersBySuffix(suffix);
-        if (iter.hasNext()) {
-            ImageReader reader = iter.next();
-            try {
-                ImageInputStream stream = new FileImageInputStream(imgFile);
-                reader.setInput(stream);
+        ImageReader reader = ImageIOPool.acquireReader(suffix);
+        if (reader != null) {
+            try (ImageInputStream stream = new FileImageInputStream(imgFile)) {
+                reader.setInput(stream, true, true);
                 int width = reader.getWidth(reader.getMinIndex());
                 int height = reader.getHeight(reader.getMinIndex());
                 return new Dimension(width, height);
             } finally {
-                reader.dispose();
+                ImageIOPool.release(reader);
             }
         }
 
         throw new IOException("Not a known image file: " + imgFile.getAbsolutePath());
     }
+
+    public interface TargetSize {
+        /**
+         * @param sourceDimension dimension of the image in the file
+         * @return the biggest dimension the source will be scaled to or null if it must not be subsampled
+         */
+        Dimension getMaxTargetDimension(Dimension sourceDimension) throws Exception;
+    }
 }
@@ -16,11 +16,14 @@
 
 package at.favre.tools.dconvert.util;
 
+import at.favre.tools.dconvert.converters.scaling.StreamingScaler;
 import com.twelvemonkeys.imageio.metadata.CompoundDirectory;
 
 import javax.imageio.metadata.IIOMetadata;
+import java.awt.*;
 import java.awt.image.BufferedImage;
 import java.io.File;
+import java.io.IOException;
 
 /**
  * Wraps a {@link java.awt.image.BufferedImage} and some other meta data
@@ -28,25 +31,99 @@ import java.io.File;
 
 public class LoadedImage {
     private final File sourceFile;
-    private final BufferedImage image;
+    private final SvgRenderer vectorSource;
+    private final StreamingScaler streamingSource;
+    private BufferedImage image;
     private final IIOMetadata metadata;
     private final CompoundDirectory directory;
+    private final Dimension sourceDimension;
+    private final int subsampling;
 
     public LoadedImage(File sourceFile, BufferedImage image, IIOMetadata metadata, CompoundDirectory directory) {
+        this(sourceFile, image, metadata, directory, image != null ? new Dimension(image.getWidth(), image.getHeight()) : null, 1);
+    }
+
+    /**
+     * @param sourceDimension dimension of the image in the file
+     * @param subsampling     only every n-th pixel in both directions was decoded, 1 for all
+     */
+    public LoadedImage(File sourceFile, BufferedImage image, IIOMetadata metadata, CompoundDirectory directory, Dimension sourceDimension, int subsampling) {
+        this(sourceFile, image, metadata, directory, sourceDimension, subsampling, null, null);
+    }
+
+    /**
+     * Vector image, rendered per target size instead of decoded
+     */
+    public LoadedImage(File sourceFile, SvgRenderer vectorSource) {
+        this(sourceFile, null, null, null, vectorSource.getDimension(), 1, vectorSource, null);
+    }
+
+    /**
+     * Source too big to be decoded, scaled in strips per target size instead
+     */
+    public LoadedImage(File sourceFile, StreamingScaler streamingSource, CompoundDirectory directory) {
+        this(sourceFile, null, null, directory, streamingSource.getSourceDimension(), streamingSource.getSubsampling(), null, streamingSource);
+    }
+
+    private LoadedImage(File sourceFile, BufferedImage image, IIOMetadata metadata, CompoundDirectory directory, Dimension sourceDimension, int subsampling,
+                        SvgRenderer vectorSource, StreamingScaler streamingSource) {
         this.sourceFile = sourceFile;
         this.image = image;
+        this.vectorSource = vectorSource;
+        this.streamingSource = streamingSource;
         this.metadata = metadata;
         this.directory = directory;
+        this.sourceDimension = sourceDimension;
+        this.subsampling = subsampling;
     }
 
     public File getSourceFile() {
         return sourceFile;
     }
 
-    public BufferedImage getImage() {
+    /**
+     * @return the decoded image; a vector image is rendered at its intrinsic size and a streamed source is
+     * fully decoded on first call
+     */
+    public synchronized BufferedImage getImage() {
+        if (image == null && vectorSource != null) {
+            image = vectorSource.render(sourceDimension);
+        } else if (image == null && streamingSource != null) {
+            try {
+                image = streamingSource.read();
+            } catch (IOException e) {
+                throw new IllegalStateException("could not decode " + sourceFile, e);
+            }
+        }
         return image;
     }
 
+    /**
+     * @return renderer of a vector image or null if this is a bitmap
+     */
+    public SvgRenderer getVectorSource() {
+        return vectorSource;
+    }
+
+    /**
+     * @return scaler of a source too big to be decoded or null if decoded
+     */
+    public StreamingScaler getStreamingSource() {
+        return streamingSource;
+    }
+
+    /**
+     * Flushes the decoded image, if there is one
+     */
+    public synchronized void flush() {
+        if (image != null) {
+            image.flush();
+        }
+        if (streamingSource != null) {
+            streamingSource.clear();
+        }
+    }
+
     public IIOMetadata getMetadata() {
         return metadata;
     }
@@ -54,4 +131,15 @@ public class LoadedImage {
     public CompoundDirectory getExif() {
         return directory;
     }
+
+    /**
+     * @return dimension of the image in the file, which is bigger than the decoded image if it was subsampled
+     */
+    public Dimension getSourceDimension() {
+        return sourceDimension;
+    }
+
+    public int getSubsampling() {
+        return subsampling;
+    }
 }
@@ -0,0 +1,269 @@
+/*
+ *  Copyright 2016 Patrick Favre-Bulle
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package at.favre.tools.dconvert.util;
+
+import at.favre.tools.dconvert.arg.Arguments;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.io.UncheckedIOException;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileLock;
+import java.nio.channels.OverlappingFileLockException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.*;
+import java.nio.file.attribute.FileTime;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.stream.Stream;
+
+/**
+ * Persistent content addressed cache of produced files, shared by all runs (and processes) using the same
+ * cache folder. Keys are hashes of everything that determines the output, so an entry never changes once written.
+ * <p>
+ * Entries are written to a temp file and atomically moved in place, so a reader never sees a partial entry. Reading
+ * an entry updates its modification time, which is used for LRU eviction once the cache exceeds its size; eviction is
+ * guarded by a file lock, so only one process evicts at a time. An entry deleted while being read is just a miss.
+ * Results are copied out of the cache, not hard linked, since outputs may be overwritten in place later
+ * (e.g. by a run without cache) which would corrupt a linked entry.
+ */
+public final class OutputCache {
+    public static final int DEFAULT_MAX_SIZE_MB = 1024;
+
+    private static final String TEMP_PREFIX = "tmp-";
+    private static final String LOCK_FILE = ".lock";
+    private static final float EVICT_TO_FRACTION = 0.8f;
+    private static final long STALE_TEMP_MS = 60 * 60 * 1000;
+    private static final Map<File, OutputCache> instances = new HashMap<>();
+
+    private final File cacheDir;
+    private final long maxBytes;
+    private final Map<String, String> sourceHashes = new ConcurrentHashMap<>();
+    private long bytesSinceEviction;
+    private boolean scanned;
+
+    OutputCache(File cacheDir, long maxBytes) {
+        this.cacheDir = cacheDir;
+        this.maxBytes = maxBytes;
+    }
+
+    /**
+     * @return the shared cache of the cache folder set in the args or null if caching is disabled
+     */
+    public static OutputCache get(Arguments args) {
+        if (args.cacheDir == null || args.dryRun) {
+            return null;
+        }
+        synchronized (instances) {
+            File dir = args.cacheDir.getAbsoluteFile();
+            OutputCache cache = instances.get(dir);
+            if (cache == null || cache.maxBytes != args.cacheMaxMb * 1024L * 1024L) {
+                cache = new OutputCache(dir, args.cacheMaxMb * 1024L * 1024L);
+                instances.put(dir, cache);
+            }
+            return cache;
+        }
+    }
+
+    /**
+     * Creates a key from all parts that determine an output
+     */
+    public static String createKey(Object... parts) {
+        try {
+            MessageDigest digest = MessageDigest.getInstance("SHA-256");
+            for (Object part : parts) {
+                digest.update(String.valueOf(part).getBytes(StandardCharsets.UTF_8));
+                digest.update((byte) 0);
+            }
+            StringBuilder sb = new StringBuilder();
+            for (byte b : digest.digest()) {
+                sb.append(String.format("%02x", b));
+            }
+            return sb.toString();
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException("SHA-256 not supported", e);
+        }
+    }
+
+    /**
+     * Content hash of a source file; only hashed again if its size or modification time changed
+     */
+    public String getContentHash(File file) throws IOException {
+        String fileKey = file.getAbsolutePath() + "|" + file.length() + "|" + file.lastModified();
+        String hash = sourceHashes.get(fileKey);
+        if (hash == null) {
+            hash = BuildManifest.hashContent(file);
+            sourceHashes.put(fileKey, hash);
+        }
+        return hash;
+    }
+
+    /**
+     * Copies the cached entry to the target file
+     *
+     * @return true if found, false on a miss (or any error)
+     */
+    public boolean restore(String key, File target) {
+        Path entry = getEntry(key);
+        try {
+            Files.copy(entry, target.toPath(), StandardCopyOption.REPLACE_EXISTING);
+            Files.setLastModifiedTime(entry, FileTime.fromMillis(System.currentTimeMillis()));
+            return true;
+        } catch (IOException e) {
+            return false;
+        }
+    }
+
+    /**
+     * Adds a copy of the file to the cache; errors are ignored, the cache is only an optimization
+     */
+    public void store(String key, File file) {
+        Path entry = getEntry(key);
+        Path temp = null;
+        try {
+            Files.createDirectories(entry.getParent());
+            temp = Files.createTempFile(entry.getParent(), TEMP_PREFIX, null);
+            Files.copy(file.toPath(), temp, StandardCopyOption.REPLACE_EXISTING);
+            Files.move(temp, entry, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+            onStored(file.length());
+        } catch (IOException e) {
+            //ignore
+        } finally {
+            if (temp != null) {
+                try {
+                    Files.deleteIfExists(temp);
+                } catch (IOException e) {
+                    //ignore
+                }
+            }
+        }
+    }
+
+    /**
+     * @return the max size of all entries in bytes
+     */
+    public long getMaxBytes() {
+        return maxBytes;
+    }
+
+    /**
+     * @return current size of all entries in bytes
+     */
+    public long getSizeBytes() throws IOException {
+        long size = 0;
+        for (Path entry : listEntries()) {
+            size += Files.size(entry);
+        }
+        return size;
+    }
+
+    private Path getEntry(String key) {
+        return new File(new File(cacheDir, key.substring(0, 2)), key).toPath();
+    }
+
+    private synchronized void onStored(long bytes) {
+        bytesSinceEviction += bytes;
+        // other processes fill the cache too, so it is scanned on the first store and then every 10% of the max size
+        if (!scanned || bytesSinceEviction > maxBytes / 10) {
+            scanned = true;
+            bytesSinceEviction = 0;
+            evict();
+        }
+    }
+
+    /**
+     * Deletes the least recently used entries until the cache is below {@link #EVICT_TO_FRACTION} of its max size
+     */
+    synchronized void evict() {
+        try (FileChannel channel = new RandomAccessFile(new File(cacheDir, LOCK_FILE), "rw").getChannel();
+             FileLock lock = channel.tryLock()) {
+            if (lock == null) {
+                // another process is already evicting
+                return;
+            }
+
+            List<Path> entries = listEntries();
+            Map<Path, Long> lastUsed = new HashMap<>();
+            long size = 0;
+            for (Path entry : entries) {
+                try {
+                    lastUsed.put(entry, Files.getLastModifiedTime(entry).toMillis());
+                    size += Files.size(entry);
+                } catch (IOException e) {
+                    lastUsed.put(entry, 0L);
+                }
+            }
+
+            if (size <= maxBytes) {
+                return;
+            }
+
+            entries.sort(Comparator.comparingLong(lastUsed::get));
+            long targetSize = (long) (maxBytes * EVICT_TO_FRACTION);
+            for (Path entry : entries) {
+                if (size <= targetSize) {
+                    break;
+                }
+                try {
+                    long entrySize = Files.size(entry);
+                    Files.deleteIfExists(entry);
+                    size -= entrySize;
+                } catch (IOException e) {
+                    //ignore, maybe already deleted by another process
+                }
+            }
+        } catch (IOException | OverlappingFileLockException e) {
+            //ignore, eviction is retried with the next stores
+        }
+    }
+
+    private List<Path> listEntries() throws IOException {
+        List<Path> entries = new ArrayList<>();
+        if (!cacheDir.isDirectory()) {
+            return entries;
+        }
+        try (Stream<Path> stream = Files.walk(cacheDir.toPath(), 2)) {
+            stream.filter(Files::isRegularFile).forEach(path -> {
+                String name = path.getFileName().toString();
+                if (name.equals(LOCK_FILE)) {
+                    return;
+                }
+                if (name.startsWith(TEMP_PREFIX)) {
+                    deleteIfStale(path);
+                    return;
+                }
+                entries.add(path);
+            });
+        } catch (UncheckedIOException e) {
+            throw e.getCause();
+        }
+        return entries;
+    }
+
+    private static void deleteIfStale(Path tempFile) {
+        try {
+            if (System.currentTimeMillis() - Files.getLastModifiedTime(tempFile).toMillis() > STALE_TEMP_MS) {
+                Files.deleteIfExists(tempFile);
+            }
+        } catch (IOException e) {
+            //ignore
+        }
+    }
+}
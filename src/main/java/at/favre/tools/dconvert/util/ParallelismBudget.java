@@ -0,0 +1,83 @@
+/*
+ *  Copyright 2016 Patrick Favre-Bulle
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package at.favre.tools.dconvert.util;
+
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Process wide accounting of busy threads, so that nested parallelism (e.g. splitting a single image into bands)
+ * only uses cores that are currently idle instead of oversubscribing the machine.
+ * <p>
+ * The accounting never blocks: workers always {@link #register()} even if the budget is exhausted, while
+ * optional helpers only get what is left with {@link #tryAcquire(int)}. Every call must be matched with
+ * {@link #release(int)}.
+ */
+public final class ParallelismBudget {
+    private static final int CAPACITY = Runtime.getRuntime().availableProcessors();
+    private static final AtomicInteger inUse = new AtomicInteger(0);
+
+    private ParallelismBudget() {
+    }
+
+    /**
+     * Registers a busy thread; this always succeeds even if over capacity
+     */
+    public static void register() {
+        inUse.incrementAndGet();
+    }
+
+    /**
+     * Tries to get additional threads for optional parallel work
+     *
+     * @param max max additional threads wanted
+     * @return granted count between 0 and max - must be released after use
+     */
+    public static int tryAcquire(int max) {
+        while (max > 0) {
+            int current = inUse.get();
+            int granted = Math.min(max, CAPACITY - current);
+            if (granted <= 0) {
+                return 0;
+            }
+            if (inUse.compareAndSet(current, current + granted)) {
+                return granted;
+            }
+        }
+        return 0;
+    }
+
+    /**
+     * Releases registered or acquired threads
+     */
+    public static void release(int count) {
+        inUse.addAndGet(-count);
+    }
+
+    /**
+     * @return count of available cores
+     */
+    public static int getCapacity() {
+        return CAPACITY;
+    }
+
+    /**
+     * @return count of threads currently accounted as busy
+     */
+    public static int getInUse() {
+        return inUse.get();
+    }
+}
@@ -0,0 +1,657 @@
+/*
+ *  Copyright 2016 Patrick Favre-Bulle
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package at.favre.tools.dconvert.util;
+
+import at.favre.tools.dconvert.arg.EPngFilter;
+
+import java.awt.color.ColorSpace;
+import java.awt.image.BufferedImage;
+import java.awt.image.ColorModel;
+import java.awt.image.ComponentColorModel;
+import java.awt.image.Raster;
+import java.io.*;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinTask;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.zip.Adler32;
+import java.util.zip.CRC32;
+import java.util.zip.Deflater;
+
+/**
+ * Png encoder for 8 bit images with a pure java size optimizing mode, an alternative to pngcrush working on the
+ * in-memory image, so the file is only written once.
+ * <p>
+ * A single pass over the pixels detects opaque, gray and low color count images, which are written with the smallest
+ * lossless color type: gray, gray with alpha, rgb, rgba or indexed with 1-8 bit and tRNS for transparent palette
+ * entries. The color of fully transparent pixels is not kept, as it is invisible anyway.
+ * <p>
+ * The filtered image data is split into chunks which are deflated independently, pigz style: each chunk uses the
+ * tail of the previous one as preset dictionary and ends with a sync flush, so the concatenation is one valid zlib
+ * stream that is barely larger than a sequential one. Chunks run in parallel if there are idle cores according to
+ * {@link ParallelismBudget}; the result does not depend on the parallelism.
+ * <p>
+ * In optimizing mode every row gets the filter with the smallest sum of absolute differences (the heuristic
+ * recommended by the png spec) and the data is compressed with multiple deflate strategies, keeping the smallest.
+ * Only critical chunks (and tRNS) are written, which is the same as pngcrush removing all ancillary chunks
+ * (text, gAMA, cHRM, iCCP, sRGB, ...).
+ */
+public final class PngEncoder {
+    private static final byte[] SIGNATURE = new byte[]{(byte) 0x89, 'P', 'N', 'G', '\r', '\n', 0x1A, '\n'};
+    private static final int FILTER_NONE = 0;
+    private static final int FILTER_SUB = 1;
+    private static final int FILTER_UP = 2;
+    private static final int FILTER_AVERAGE = 3;
+    private static final int FILTER_PAETH = 4;
+    private static final int MAX_PALETTE_SIZE = 256;
+    private static final int CHUNK_SIZE = 128 * 1024;
+    private static final int DICTIONARY_SIZE = 32 * 1024;
+    private static final ForkJoinPool pool = new ForkJoinPool(ParallelismBudget.getCapacity());
+
+    private PngEncoder() {
+    }
+
+    /**
+     * @return true if the image can be encoded without loss, i.e. it has no more than 8 bit per sample
+     */
+    public static boolean isSupported(BufferedImage image) {
+        for (int componentSize : image.getColorModel().getComponentSize()) {
+            if (componentSize > 8) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Encodes the image as small as possible and writes it to the file
+     *
+     * @return the color type used
+     */
+    public static Format write(BufferedImage image, File file) throws IOException {
+        int[] pixels = readPixels(image);
+        Format format = analyze(pixels);
+        write(encodeOptimized(pixels, image.getWidth(), image.getHeight(), format), file);
+        return format;
+    }
+
+    /**
+     * Encodes the image with the given compression level (0-9) and row filter and writes it to the file
+     *
+     * @return the color type used
+     */
+    public static Format write(BufferedImage image, File file, int compressionLevel, EPngFilter filter) throws IOException {
+        int[] pixels = readPixels(image);
+        Format format = analyze(pixels);
+        write(encode(pixels, image.getWidth(), image.getHeight(), format, compressionLevel, filter), file);
+        return format;
+    }
+
+    private static void write(byte[] png, File file) throws IOException {
+        try (OutputStream out = new FileOutputStream(file)) {
+            out.write(png);
+        }
+    }
+
+    /**
+     * @return the smallest png this encoder can create of the image
+     */
+    public static byte[] encode(BufferedImage image) throws IOException {
+        int[] pixels = readPixels(image);
+        return encodeOptimized(pixels, image.getWidth(), image.getHeight(), analyze(pixels));
+    }
+
+    /**
+     * @param compressionLevel deflate level 0-9
+     * @param filter           row filter
+     * @return png of the image
+     */
+    public static byte[] encode(BufferedImage image, int compressionLevel, EPngFilter filter) throws IOException {
+        int[] pixels = readPixels(image);
+        return encode(pixels, image.getWidth(), image.getHeight(), analyze(pixels), compressionLevel, filter);
+    }
+
+    private static byte[] encodeOptimized(int[] pixels, int width, int height, Format format) throws IOException {
+        byte[][] filteredData = filter(pixels, width, height, format, EPngFilter.ADAPTIVE, EPngFilter.NONE);
+
+        List<Callable<byte[]>> candidates = new ArrayList<>();
+        candidates.add(() -> deflate(filteredData[0], Deflater.BEST_COMPRESSION, Deflater.DEFAULT_STRATEGY));
+        candidates.add(() -> deflate(filteredData[0], Deflater.BEST_COMPRESSION, Deflater.FILTERED));
+        // flat images like icons often compress better without any filter
+        candidates.add(() -> deflate(filteredData[1], Deflater.BEST_COMPRESSION, Deflater.DEFAULT_STRATEGY));
+
+        byte[] idat = null;
+        for (byte[] candidate : runAll(candidates)) {
+            if (idat == null || candidate.length < idat.length) {
+                idat = candidate;
+            }
+        }
+        return createPng(width, height, format, idat);
+    }
+
+    private static byte[] encode(int[] pixels, int width, int height, Format format, int compressionLevel, EPngFilter filter) throws IOException {
+        if (compressionLevel < Deflater.NO_COMPRESSION || compressionLevel > Deflater.BEST_COMPRESSION) {
+            throw new IllegalArgumentException("invalid compression level " + compressionLevel);
+        }
+        if (filter == EPngFilter.ADAPTIVE && format.colorType == ColorType.INDEXED) {
+            // the png spec recommends no filter for indexed images, differences of palette indices are meaningless
+            filter = EPngFilter.NONE;
+        }
+        byte[] filteredData = filter(pixels, width, height, format, filter)[0];
+        return createPng(width, height, format, deflate(filteredData, compressionLevel, filter == EPngFilter.NONE ? Deflater.DEFAULT_STRATEGY : Deflater.FILTERED));
+    }
+
+    private static byte[] createPng(int width, int height, Format format, byte[] idat) throws IOException {
+        ByteArrayOutputStream out = new ByteArrayOutputStream(idat.length + 64 + format.palette.length * 4);
+        out.write(SIGNATURE);
+
+        ByteArrayOutputStream header = new ByteArrayOutputStream(13);
+        DataOutputStream headerData = new DataOutputStream(header);
+        headerData.writeInt(width);
+        headerData.writeInt(height);
+        headerData.writeByte(format.bitDepth);
+        headerData.writeByte(format.colorType.code);
+        headerData.writeByte(0);
+        headerData.writeByte(0);
+        headerData.writeByte(0);
+        writeChunk(out, "IHDR", header.toByteArray());
+
+        if (format.colorType == ColorType.INDEXED) {
+            byte[] palette = new byte[format.palette.length * 3];
+            int transparentCount = 0;
+            for (int i = 0; i < format.palette.length; i++) {
+                int color = format.palette[i];
+                palette[i * 3] = (byte) (color >> 16);
+                palette[i * 3 + 1] = (byte) (color >> 8);
+                palette[i * 3 + 2] = (byte) color;
+                if ((color >>> 24) != 0xff) {
+                    transparentCount = i + 1;
+                }
+            }
+            writeChunk(out, "PLTE", palette);
+
+            if (transparentCount > 0) {
+                byte[] alpha = new byte[transparentCount];
+                for (int i = 0; i < transparentCount; i++) {
+                    alpha[i] = (byte) (format.palette[i] >>> 24);
+                }
+                writeChunk(out, "tRNS", alpha);
+            }
+        }
+
+        writeChunk(out, "IDAT", idat);
+        writeChunk(out, "IEND", new byte[0]);
+        return out.toByteArray();
+    }
+
+    /**
+     * Reads all pixels as non-premultiplied argb, fully transparent pixels are set to 0
+     */
+    private static int[] readPixels(BufferedImage image) {
+        int width = image.getWidth();
+        int height = image.getHeight();
+        int[] pixels = new int[width * height];
+        int[] row = new int[width];
+        for (int y = 0; y < height; y++) {
+            readRow(image, y, row);
+            for (int x = 0; x < width; x++) {
+                pixels[y * width + x] = (row[x] >>> 24) == 0 ? 0 : row[x];
+            }
+        }
+        return pixels;
+    }
+
+    /**
+     * Single pass over the pixels to find the smallest lossless color type
+     */
+    private static Format analyze(int[] pixels) {
+        boolean opaque = true;
+        boolean gray = true;
+        ColorTable colors = new ColorTable();
+        boolean fewColors = true;
+
+        for (int pixel : pixels) {
+            if ((pixel >>> 24) != 0xff) {
+                opaque = false;
+            }
+            if (gray && (((pixel >> 16) & 0xff) != (pixel & 0xff) || ((pixel >> 8) & 0xff) != (pixel & 0xff))) {
+                gray = false;
+            }
+            if (fewColors && !colors.add(pixel)) {
+                fewColors = false;
+            }
+            if (!opaque && !gray && !fewColors) {
+                break;
+            }
+        }
+
+        if (fewColors) {
+            int count = colors.size();
+            int paletteBitDepth = count <= 2 ? 1 : count <= 4 ? 2 : count <= 16 ? 4 : 8;
+            // 8 bit gray has the same size as an 8 bit palette, but without the palette overhead and filters work
+            if (!gray || !opaque || paletteBitDepth < 8) {
+                return new Format(ColorType.INDEXED, paletteBitDepth, sortPalette(colors.toArray()));
+            }
+        }
+        if (gray) {
+            return new Format(opaque ? ColorType.GRAY : ColorType.GRAY_ALPHA, 8, new int[0]);
+        }
+        return new Format(opaque ? ColorType.RGB : ColorType.RGBA, 8, new int[0]);
+    }
+
+    /**
+     * Transparent entries first so the tRNS chunk only needs to cover them
+     */
+    private static int[] sortPalette(int[] palette) {
+        long[] keys = new long[palette.length];
+        for (int i = 0; i < palette.length; i++) {
+            keys[i] = ((palette[i] >>> 24) == 0xff ? 1L << 32 : 0L) | (palette[i] & 0xffffffffL);
+        }
+        Arrays.sort(keys);
+        int[] sorted = new int[palette.length];
+        for (int i = 0; i < palette.length; i++) {
+            sorted[i] = (int) keys[i];
+        }
+        return sorted;
+    }
+
+    /**
+     * Packs the pixels to rows in the given format and filters them with each of the given filters
+     *
+     * @return filtered data in the order of the filters
+     */
+    private static byte[][] filter(int[] pixels, int width, int height, Format format, EPngFilter... filters) {
+        int rowBytes = format.getRowBytes(width);
+        // filters work on bytes of the previous pixel, or the previous byte for sub byte pixels
+        int bpp = Math.max(1, format.getBitsPerPixel() / 8);
+        ColorTable paletteIndices = format.colorType == ColorType.INDEXED ? new ColorTable(format.palette) : null;
+
+        byte[][] filteredData = new byte[filters.length][height * (rowBytes + 1)];
+
+        byte[] previous = new byte[rowBytes];
+        byte[] current = new byte[rowBytes];
+        byte[][] candidates = new byte[5][rowBytes];
+
+        for (int y = 0; y < height; y++) {
+            packRow(pixels, y * width, width, format, paletteIndices, current);
+
+            int bestFilter = selectFilter(current, previous, bpp, candidates);
+            int offset = y * (rowBytes + 1);
+            for (int i = 0; i < filters.length; i++) {
+                int filterType = filters[i] == EPngFilter.ADAPTIVE ? bestFilter : filters[i].filterType;
+                filteredData[i][offset] = (byte) filterType;
+                System.arraycopy(candidates[filterType], 0, filteredData[i], offset + 1, rowBytes);
+            }
+
+            byte[] swap = previous;
+            previous = current;
+            current = swap;
+        }
+        return filteredData;
+    }
+
+    private static void packRow(int[] pixels, int offset, int width, Format format, ColorTable paletteIndices, byte[] row) {
+        switch (format.colorType) {
+            case GRAY:
+                for (int x = 0; x < width; x++) {
+                    row[x] = (byte) pixels[offset + x];
+                }
+                break;
+            case GRAY_ALPHA:
+                for (int x = 0, i = 0; x < width; x++) {
+                    int pixel = pixels[offset + x];
+                    row[i++] = (byte) pixel;
+                    row[i++] = (byte) (pixel >>> 24);
+                }
+                break;
+            case RGB:
+            case RGBA:
+                boolean alpha = format.colorType == ColorType.RGBA;
+                for (int x = 0, i = 0; x < width; x++) {
+                    int pixel = pixels[offset + x];
+                    row[i++] = (byte) (pixel >> 16);
+                    row[i++] = (byte) (pixel >> 8);
+                    row[i++] = (byte) pixel;
+                    if (alpha) {
+                        row[i++] = (byte) (pixel >>> 24);
+                    }
+                }
+                break;
+            case INDEXED:
+                int bitDepth = format.bitDepth;
+                int pixelsPerByte = 8 / bitDepth;
+                Arrays.fill(row, (byte) 0);
+                for (int x = 0; x < width; x++) {
+                    int index = paletteIndices.indexOf(pixels[offset + x]);
+                    int shift = 8 - bitDepth * (x % pixelsPerByte + 1);
+                    row[x / pixelsPerByte] |= (byte) (index << shift);
+                }
+                break;
+        }
+    }
+
+    /**
+     * Reads a row as non-premultiplied argb. Gray images are read from the raster, since {@link BufferedImage#getRGB}
+     * would convert their linear gray values, which would change the pixels.
+     */
+    private static void readRow(BufferedImage image, int y, int[] argb) {
+        ColorModel colorModel = image.getColorModel();
+        if (colorModel instanceof ComponentColorModel && colorModel.getColorSpace().getType() == ColorSpace.TYPE_GRAY && !colorModel.isAlphaPremultiplied()) {
+            Raster raster = image.getRaster();
+            int width = image.getWidth();
+            for (int x = 0; x < width; x++) {
+                int gray = raster.getSample(x, y, 0);
+                int alpha = colorModel.hasAlpha() ? raster.getSample(x, y, 1) : 0xff;
+                argb[x] = (alpha << 24) | (gray << 16) | (gray << 8) | gray;
+            }
+        } else {
+            image.getRGB(0, y, image.getWidth(), 1, argb, 0, image.getWidth());
+        }
+    }
+
+    /**
+     * Applies all filters to the row and returns the one with the smallest sum of absolute (signed) values
+     */
+    private static int selectFilter(byte[] row, byte[] previous, int bpp, byte[][] candidates) {
+        long[] sums = new long[5];
+        for (int i = 0; i < row.length; i++) {
+            int raw = row[i] & 0xff;
+            int left = i >= bpp ? row[i - bpp] & 0xff : 0;
+            int up = previous[i] & 0xff;
+            int upperLeft = i >= bpp ? previous[i - bpp] & 0xff : 0;
+
+            candidates[FILTER_NONE][i] = (byte) raw;
+            candidates[FILTER_SUB][i] = (byte) (raw - left);
+            candidates[FILTER_UP][i] = (byte) (raw - up);
+            candidates[FILTER_AVERAGE][i] = (byte) (raw - ((left + up) >> 1));
+            candidates[FILTER_PAETH][i] = (byte) (raw - paeth(left, up, upperLeft));
+
+            for (int f = 0; f < 5; f++) {
+                sums[f] += Math.abs(candidates[f][i]);
+            }
+        }
+
+        int best = FILTER_NONE;
+        for (int f = 1; f < 5; f++) {
+            if (sums[f] < sums[best]) {
+                best = f;
+            }
+        }
+        return best;
+    }
+
+    private static int paeth(int a, int b, int c) {
+        int p = a + b - c;
+        int pa = Math.abs(p - a);
+        int pb = Math.abs(p - b);
+        int pc = Math.abs(p - c);
+        if (pa <= pb && pa <= pc) {
+            return a;
+        } else if (pb <= pc) {
+            return b;
+        }
+        return c;
+    }
+
+    /**
+     * Deflates the data in independent chunks to a zlib stream
+     */
+    private static byte[] deflate(byte[] data, int level, int strategy) throws IOException {
+        List<Callable<byte[]>> chunks = new ArrayList<>();
+        for (int start = 0; start == 0 || start < data.length; start += CHUNK_SIZE) {
+            int chunkStart = start;
+            chunks.add(() -> deflateChunk(data, chunkStart, Math.min(data.length, chunkStart + CHUNK_SIZE), level, strategy));
+        }
+        List<byte[]> deflatedChunks = runAll(chunks);
+
+        Adler32 adler = new Adler32();
+        adler.update(data);
+
+        int length = 6;
+        for (byte[] chunk : deflatedChunks) {
+            length += chunk.length;
+        }
+        ByteArrayOutputStream out = new ByteArrayOutputStream(length);
+        DataOutputStream dataOut = new DataOutputStream(out);
+        dataOut.writeShort(getZlibHeader(level));
+        for (byte[] chunk : deflatedChunks) {
+            dataOut.write(chunk);
+        }
+        dataOut.writeInt((int) adler.getValue());
+        return out.toByteArray();
+    }
+
+    /**
+     * Raw deflates a part of the data, primed with the 32k before it. All but the last chunk end with a sync flush,
+     * so the next chunk starts at a byte boundary and the stream is not finished.
+     */
+    private static byte[] deflateChunk(byte[] data, int start, int end, int level, int strategy) {
+        Deflater deflater = new Deflater(level, true);
+        try {
+            byte[] buffer = new byte[64 * 1024];
+            deflater.setStrategy(strategy);
+            // the strategy is only applied with the next deflate call, which must happen before setting the
+            // dictionary, otherwise zlib resets its matches and creates references to data it does not have
+            deflater.deflate(buffer);
+            if (start > 0) {
+                int dictionaryStart = Math.max(0, start - DICTIONARY_SIZE);
+                deflater.setDictionary(data, dictionaryStart, start - dictionaryStart);
+            }
+            deflater.setInput(data, start, end - start);
+
+            ByteArrayOutputStream out = new ByteArrayOutputStream((end - start) / 4 + 64);
+            if (end == data.length) {
+                deflater.finish();
+                while (!deflater.finished()) {
+                    out.write(buffer, 0, deflater.deflate(buffer));
+                }
+            } else {
+                int length;
+                do {
+                    length = deflater.deflate(buffer, 0, buffer.length, Deflater.SYNC_FLUSH);
+                    out.write(buffer, 0, length);
+                } while (length == buffer.length);
+            }
+            return out.toByteArray();
+        } finally {
+            deflater.end();
+        }
+    }
+
+    /**
+     * zlib header for a 32k window, the level hint is the same zlib would set
+     */
+    private static int getZlibHeader(int level) {
+        int levelHint = level <= 1 ? 0 : level <= 5 ? 1 : level == 6 ? 2 : 3;
+        int header = 0x7800 | levelHint << 6;
+        return header + (31 - header % 31) % 31;
+    }
+
+    /**
+     * Runs all tasks, in parallel as far as idle cores are available
+     *
+     * @return results in the order of the tasks
+     */
+    private static List<byte[]> runAll(List<Callable<byte[]>> tasks) throws IOException {
+        byte[][] results = new byte[tasks.size()][];
+        AtomicInteger next = new AtomicInteger();
+        Callable<Void> worker = () -> {
+            int i;
+            while ((i = next.getAndIncrement()) < tasks.size()) {
+                results[i] = tasks.get(i).call();
+            }
+            return null;
+        };
+
+        int extra = ParallelismBudget.tryAcquire(tasks.size() - 1);
+        List<ForkJoinTask<Void>> helpers = new ArrayList<>(extra);
+        try {
+            for (int i = 0; i < extra; i++) {
+                helpers.add(pool.submit(worker));
+            }
+            worker.call();
+            for (ForkJoinTask<Void> helper : helpers) {
+                helper.join();
+            }
+            return Arrays.asList(results);
+        } catch (Exception e) {
+            // no new tasks are started, the running ones are awaited below
+            next.set(tasks.size());
+            throw new IOException("could not deflate image data", e);
+        } finally {
+            // helpers still use the acquired cores until they are done
+            for (ForkJoinTask<Void> helper : helpers) {
+                helper.quietlyJoin();
+            }
+            ParallelismBudget.release(extra);
+        }
+    }
+
+    private static void writeChunk(OutputStream out, String type, byte[] data) throws IOException {
+        byte[] typeBytes = type.getBytes(StandardCharsets.US_ASCII);
+        CRC32 crc = new CRC32();
+        crc.update(typeBytes);
+        crc.update(data);
+
+        DataOutputStream dataOut = new DataOutputStream(out);
+        dataOut.writeInt(data.length);
+        dataOut.write(typeBytes);
+        dataOut.write(data);
+        dataOut.writeInt((int) crc.getValue());
+    }
+
+    /**
+     * Png color types
+     */
+    public enum ColorType {
+        GRAY(0, 1),
+        RGB(2, 3),
+        INDEXED(3, 1),
+        GRAY_ALPHA(4, 2),
+        RGBA(6, 4);
+
+        final int code;
+        final int samples;
+
+        ColorType(int code, int samples) {
+            this.code = code;
+            this.samples = samples;
+        }
+    }
+
+    /**
+     * Color type and bit depth an image is written with
+     */
+    public static final class Format {
+        public final ColorType colorType;
+        public final int bitDepth;
+        final int[] palette;
+
+        Format(ColorType colorType, int bitDepth, int[] palette) {
+            this.colorType = colorType;
+            this.bitDepth = bitDepth;
+            this.palette = palette;
+        }
+
+        public int getBitsPerPixel() {
+            return colorType.samples * bitDepth;
+        }
+
+        /**
+         * @return size of the unfiltered, uncompressed image data in this format
+         */
+        public long getRawBytes(int width, int height) {
+            return (long) height * getRowBytes(width);
+        }
+
+        int getRowBytes(int width) {
+            return (int) (((long) width * getBitsPerPixel() + 7) / 8);
+        }
+
+        @Override
+        public String toString() {
+            return colorType.name().toLowerCase() + " " + bitDepth + "bit";
+        }
+    }
+
+    /**
+     * Small open addressing set of argb colors with max {@link #MAX_PALETTE_SIZE} entries, avoids boxing every pixel
+     */
+    private static final class ColorTable {
+        private static final int SLOTS = 1024;
+        private final int[] colors = new int[SLOTS];
+        private final int[] indices = new int[SLOTS];
+        private int size;
+
+        ColorTable() {
+            Arrays.fill(indices, -1);
+        }
+
+        ColorTable(int[] palette) {
+            this();
+            for (int color : palette) {
+                add(color);
+            }
+        }
+
+        /**
+         * @return false if the color is new and the table is already full
+         */
+        boolean add(int color) {
+            int slot = findSlot(color);
+            if (indices[slot] != -1) {
+                return true;
+            }
+            if (size == MAX_PALETTE_SIZE) {
+                return false;
+            }
+            colors[slot] = color;
+            indices[slot] = size++;
+            return true;
+        }
+
+        int indexOf(int color) {
+            return indices[findSlot(color)];
+        }
+
+        int size() {
+            return size;
+        }
+
+        int[] toArray() {
+            int[] array = new int[size];
+            for (int slot = 0; slot < SLOTS; slot++) {
+                if (indices[slot] != -1) {
+                    array[indices[slot]] = colors[slot];
+                }
+            }
+            return array;
+        }
+
+        private int findSlot(int color) {
+            int slot = (color * 0x9E3779B9) >>> 22;
+            while (indices[slot] != -1 && colors[slot] != color) {
+                slot = (slot + 1) & (SLOTS - 1);
+            }
+            return slot;
+        }
+    }
+}
@@ -27,8 +27,10 @@ import java.io.IOException;
 import java.io.InputStreamReader;
 import java.nio.file.Files;
 import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Collections;
+import java.util.List;
 import java.util.UUID;
 import java.util.concurrent.locks.ReentrantLock;
 
@@ -36,6 +38,8 @@ import java.util.concurrent.locks.ReentrantLock;
  * Util for post processors
  */
 public final class PostProcessorUtil {
+    public static final String OUT_POSTFIX_PLACEHOLDER = "%%outFilePostfix%%";
+
     private static ReentrantLock lock = new ReentrantLock();
 
     private PostProcessorUtil() {
@@ -68,44 +72,100 @@ public final class PostProcessorUtil {
 
             copy.delete();
 
-            boolean r1 = true, r2 = true, r3 = true;
-            if (outFile.exists() && outFile.isFile()) {
-                if (keepOriginal) {
-                    File origFile = getFileWithPostFix(rawFile, IPostProcessor.ORIG_POSTFIX, MiscUtil.getFileExtension(rawFile));
+            return applyOptimizedFile(rawFile, outFile, keepOriginal, outExtension, result.log, result.exception);
+        }
+        return null;
+    }
 
-                    if (origFile.exists()) {
-                        origFile.delete();
-                    }
+    /**
+     * Runs a tool that can process many files in one invocation and writes each result next to its input. Saves
+     * the fork per file and, since the inputs are only read, the temp copy of every input.
+     *
+     * @param rawFiles      to process, files of another type than processedType are skipped (their result is null)
+     * @param processedType type of files the tool processes
+     * @param args          command, where {@value #OUT_POSTFIX_PLACEHOLDER} will be replaced by the postfix (incl. extension)
+     *                      the tool has to append to the name of every output; the input files are appended at the end
+     * @param keepOriginal  if true the unprocessed file will be renamed instead of deleted
+     * @return a result for every raw file, in the same order
+     */
+    public static List<Result> runBatchImageOptimizer(List<File> rawFiles, ImageType processedType, String[] args, boolean keepOriginal) {
+        String postfix = "_optimized_" + UUID.randomUUID().toString().substring(0, 8);
+        String extension = processedType.extensions[0];
+
+        List<String> cmd = new ArrayList<>();
+        for (String arg : args) {
+            cmd.add(arg.equals(OUT_POSTFIX_PLACEHOLDER) ? postfix + "." + extension : arg);
+        }
+        List<File> processedFiles = new ArrayList<>();
+        for (File rawFile : rawFiles) {
+            if (Arguments.getImageType(rawFile) == processedType && rawFile.exists() && rawFile.isFile()) {
+                cmd.add(rawFile.getAbsolutePath());
+                processedFiles.add(rawFile);
+            }
+        }
+
+        Result cmdResult = processedFiles.isEmpty() ? null : runCmd(cmd.toArray(new String[0]));
 
-                    r1 = rawFile.renameTo(origFile);
+        List<Result> results = new ArrayList<>(rawFiles.size());
+        for (File rawFile : rawFiles) {
+            if (!processedFiles.contains(rawFile)) {
+                results.add(null);
+                continue;
+            }
+            // the tool's output is only logged once for the whole batch
+            String log = processedFiles.get(0).equals(rawFile) ? cmdResult.log : "";
+            results.add(applyOptimizedFile(rawFile, getFileWithPostFix(rawFile, postfix, extension), keepOriginal,
+                    MiscUtil.getFileExtension(rawFile), log, cmdResult.exception));
+        }
+        return results;
+    }
+
+    /**
+     * Replaces the raw file with the optimized one (or keeps it renamed as original)
+     */
+    private static Result applyOptimizedFile(File rawFile, File outFile, boolean keepOriginal, String outExtension, String log, Exception exception) {
+        boolean r1 = true, r2 = true, r3 = true;
+        List<File> resultingFiles = new ArrayList<>();
+        if (outFile.exists() && outFile.isFile()) {
+            if (keepOriginal) {
+                File origFile = getFileWithPostFix(rawFile, IPostProcessor.ORIG_POSTFIX, MiscUtil.getFileExtension(rawFile));
+
+                if (origFile.exists()) {
+                    origFile.delete();
+                }
 
+                r1 = rawFile.renameTo(origFile);
+
+                File outFileNew = getFileWithPostFix(rawFile, "", outExtension);
+
+                if (outFileNew.exists()) {
+                    outFileNew.delete();
+                }
+
+                r2 = outFile.renameTo(outFileNew);
+                resultingFiles.add(origFile);
+                resultingFiles.add(outFileNew);
+            } else {
+                if (rawFile.delete()) {
                     File outFileNew = getFileWithPostFix(rawFile, "", outExtension);
 
                     if (outFileNew.exists()) {
                         outFileNew.delete();
                     }
 
-                    r2 = outFile.renameTo(outFileNew);
-                } else {
-                    if (rawFile.delete()) {
-                        File outFileNew = getFileWithPostFix(rawFile, "", outExtension);
-
-                        if (outFileNew.exists()) {
-                            outFileNew.delete();
-                        }
-
-                        r3 = outFile.renameTo(outFileNew);
-                    }
+                    r3 = outFile.renameTo(outFileNew);
+                    resultingFiles.add(outFileNew);
                 }
             }
-            String log = result.log;
-            if (!r1 || !r2 || !r3) {
-                log += "Could not rename all files correctly\n";
-            }
-
-            return new Result(log, result.exception, Collections.singletonList(rawFile));
         }
-        return null;
+        if (resultingFiles.isEmpty()) {
+            resultingFiles.add(rawFile);
+        }
+        if (!r1 || !r2 || !r3) {
+            log += "Could not rename all files correctly\n";
+        }
+
+        return new Result(log, exception, resultingFiles);
     }
 
     private static File getFileWithPostFix(File src, String postfix, String extension) {
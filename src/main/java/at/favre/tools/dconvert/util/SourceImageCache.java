@@ -0,0 +1,203 @@
+/*
+ *  Copyright 2016 Patrick Favre-Bulle
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package at.favre.tools.dconvert.util;
+
+import java.awt.*;
+import java.io.File;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Reference counted cache of decoded source images, so that all converters working on the same
+ * file share one {@link LoadedImage} instead of decoding the source for every platform.
+ * <p>
+ * Entries are keyed by file and modification time and are evicted as soon as the last
+ * reference is released. Every {@link #retain(File)} or {@link #acquire(File)} must be matched
+ * with exactly one {@link #release(File)}.
+ */
+public final class SourceImageCache {
+    private static final Map<Key, Entry> cache = new HashMap<>();
+
+    private SourceImageCache() {
+    }
+
+    /**
+     * Announces an upcoming user of the given file without decoding it. Use this to keep the decoded
+     * image alive between multiple jobs that may not run at the same time.
+     *
+     * @param file source image
+     */
+    public static void retain(File file) {
+        retain(file, null);
+    }
+
+    /**
+     * Same as {@link #retain(File)} but will additionally call the given listener once the image is evicted
+     *
+     * @param file      source image
+     * @param onEvicted called after the last reference was released, may be null
+     */
+    public static void retain(File file, Runnable onEvicted) {
+        synchronized (cache) {
+            Entry entry = cache.computeIfAbsent(new Key(file), k -> new Entry());
+            entry.refCount++;
+            if (onEvicted != null) {
+                entry.evictionListeners.add(onEvicted);
+            }
+        }
+    }
+
+    /**
+     * Gets the decoded image for given file in full resolution; will only decode it if no other user currently holds it.
+     *
+     * @param file source image
+     * @return the shared decoded image - do not flush or modify
+     * @throws Exception if image could not be read
+     */
+    public static LoadedImage acquire(File file) throws Exception {
+        return acquire(file, null);
+    }
+
+    /**
+     * Gets the decoded image for given file; will only decode it if no other user currently holds it or if the held
+     * image was subsampled more than this user allows.
+     *
+     * @param file       source image
+     * @param targetSize biggest target size of this user, used to decode subsampled; null for full resolution
+     * @return the shared decoded image - do not flush or modify
+     * @throws Exception if image could not be read
+     */
+    public static LoadedImage acquire(File file, ImageUtil.TargetSize targetSize) throws Exception {
+        Entry entry;
+        synchronized (cache) {
+            entry = cache.computeIfAbsent(new Key(file), k -> new Entry());
+            entry.refCount++;
+        }
+
+        try {
+            return entry.get(file, targetSize);
+        } catch (Exception e) {
+            release(file);
+            throw e;
+        }
+    }
+
+    /**
+     * Releases one reference of the given file. If it was the last, the decoded image will be evicted.
+     *
+     * @param file source image
+     */
+    public static void release(File file) {
+        synchronized (cache) {
+            Key key = findKey(file);
+            if (key != null) {
+                Entry entry = cache.get(key);
+                if (--entry.refCount <= 0) {
+                    cache.remove(key);
+                    entry.dispose();
+                }
+            }
+        }
+    }
+
+    /**
+     * @return count of currently cached source files
+     */
+    public static int size() {
+        synchronized (cache) {
+            return cache.size();
+        }
+    }
+
+    private static Key findKey(File file) {
+        Key key = new Key(file);
+        if (cache.containsKey(key)) {
+            return key;
+        }
+
+        //file was modified while being in use
+        for (Key candidate : cache.keySet()) {
+            if (candidate.file.equals(key.file)) {
+                return candidate;
+            }
+        }
+        return null;
+    }
+
+    private static final class Entry {
+        private final List<Runnable> evictionListeners = new ArrayList<>(1);
+        private int refCount;
+        private LoadedImage loadedImage;
+
+        synchronized LoadedImage get(File file, ImageUtil.TargetSize targetSize) throws Exception {
+            if (loadedImage == null || loadedImage.getSubsampling() > getAllowedSubsampling(targetSize)) {
+                // a replaced image is not flushed, other users may still hold it
+                loadedImage = ImageUtil.loadImage(file, targetSize);
+            }
+            return loadedImage;
+        }
+
+        private int getAllowedSubsampling(ImageUtil.TargetSize targetSize) throws Exception {
+            if (targetSize == null) {
+                return 1;
+            }
+            Dimension sourceDimension = loadedImage.getSourceDimension();
+            return ImageUtil.getSubsampling(sourceDimension, targetSize.getMaxTargetDimension(sourceDimension));
+        }
+
+        synchronized void dispose() {
+            if (loadedImage != null) {
+                loadedImage.flush();
+            }
+            loadedImage = null;
+
+            for (Runnable evictionListener : evictionListeners) {
+                evictionListener.run();
+            }
+            evictionListeners.clear();
+        }
+    }
+
+    private static final class Key {
+        private final File file;
+        private final long lastModified;
+
+        Key(File file) {
+            this.file = file.getAbsoluteFile();
+            this.lastModified = file.lastModified();
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (this == o) return true;
+            if (o == null || getClass() != o.getClass()) return false;
+
+            Key key = (Key) o;
+
+            return lastModified == key.lastModified && file.equals(key.file);
+        }
+
+        @Override
+        public int hashCode() {
+            int result = file.hashCode();
+            result = 31 * result + (int) (lastModified ^ (lastModified >>> 32));
+            return result;
+        }
+    }
+}
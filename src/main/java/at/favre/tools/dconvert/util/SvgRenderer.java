@@ -0,0 +1,112 @@
+/*
+ *  Copyright 2016 Patrick Favre-Bulle
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package at.favre.tools.dconvert.util;
+
+import org.apache.batik.anim.dom.SAXSVGDocumentFactory;
+import org.apache.batik.bridge.BridgeContext;
+import org.apache.batik.bridge.DocumentLoader;
+import org.apache.batik.bridge.GVTBuilder;
+import org.apache.batik.bridge.UserAgent;
+import org.apache.batik.bridge.UserAgentAdapter;
+import org.apache.batik.gvt.GraphicsNode;
+import org.apache.batik.util.XMLResourceDescriptor;
+import org.w3c.dom.svg.SVGDocument;
+
+import java.awt.*;
+import java.awt.geom.Dimension2D;
+import java.awt.image.BufferedImage;
+import java.io.File;
+
+/**
+ * Renders a svg directly at any target size. The document is parsed and built into a Batik GVT tree once, every
+ * target is then painted from this tree, so there is no intermediate raster that has to be resampled.
+ * <p>
+ * The tree is not thread safe, so rendering is serialized per instance; painting an icon is cheap compared to
+ * encoding it.
+ */
+public final class SvgRenderer {
+    /**
+     * viewport relative sizes (e.g. width="100%") are resolved against, same as the imageio svg reader
+     */
+    private static final Dimension DEFAULT_VIEWPORT = new Dimension(400, 400);
+
+    private final GraphicsNode root;
+    private final Dimension2D documentSize;
+    private final Dimension dimension;
+
+    private SvgRenderer(GraphicsNode root, Dimension2D documentSize) {
+        this.root = root;
+        this.documentSize = documentSize;
+        this.dimension = new Dimension((int) Math.round(documentSize.getWidth()), (int) Math.round(documentSize.getHeight()));
+    }
+
+    /**
+     * Parses the svg and builds its GVT tree
+     *
+     * @param svgFile source file
+     * @return renderer of the file
+     * @throws Exception if the file is not a valid svg
+     */
+    public static SvgRenderer parse(File svgFile) throws Exception {
+        SAXSVGDocumentFactory factory = new SAXSVGDocumentFactory(XMLResourceDescriptor.getXMLParserClassName());
+        SVGDocument document = factory.createSVGDocument(svgFile.toURI().toString());
+
+        UserAgent userAgent = new UserAgentAdapter() {
+            @Override
+            public Dimension2D getViewportSize() {
+                return DEFAULT_VIEWPORT;
+            }
+        };
+        BridgeContext context = new BridgeContext(userAgent, new DocumentLoader(userAgent));
+        try {
+            GraphicsNode root = new GVTBuilder().build(context, document);
+            return new SvgRenderer(root, context.getDocumentSize());
+        } finally {
+            context.dispose();
+        }
+    }
+
+    /**
+     * @return intrinsic size of the svg
+     */
+    public Dimension getDimension() {
+        return new Dimension(dimension);
+    }
+
+    /**
+     * Paints the svg scaled to the given size
+     *
+     * @param targetDimension size of the returned image
+     * @return new argb image
+     */
+    public synchronized BufferedImage render(Dimension targetDimension) {
+        BufferedImage image = new BufferedImage(targetDimension.width, targetDimension.height, BufferedImage.TYPE_INT_ARGB);
+        Graphics2D g = image.createGraphics();
+        try {
+            g.setRenderingHint(RenderingHints.KEY_ANTIALIASING, RenderingHints.VALUE_ANTIALIAS_ON);
+            g.setRenderingHint(RenderingHints.KEY_RENDERING, RenderingHints.VALUE_RENDER_QUALITY);
+            g.setRenderingHint(RenderingHints.KEY_INTERPOLATION, RenderingHints.VALUE_INTERPOLATION_BICUBIC);
+            g.setRenderingHint(RenderingHints.KEY_STROKE_CONTROL, RenderingHints.VALUE_STROKE_PURE);
+            g.scale(targetDimension.width / documentSize.getWidth(), targetDimension.height / documentSize.getHeight());
+            root.paint(g);
+        } finally {
+            g.dispose();
+        }
+        return image;
+    }
+}
@@ -131,6 +131,12 @@ public abstract class AConverterTest {
         test(new Arguments.Builder(defaultSrc, 24).dstFolder(defaultDst).scaleMode(EScaleMode.DP_WIDTH).platform(Collections.singleton(getType())).build(), files);
     }
 
+    @Test
+    public void testPyramidScaling() throws Exception {
+        List<File> files = copyToTestPath(defaultSrc, "png_example4_500.png", "jpg_example_1920.jpg");
+        test(new Arguments.Builder(defaultSrc, 4).dstFolder(defaultDst).enablePyramidScaling(true).platform(Collections.singleton(getType())).build(), files);
+    }
+
     @Test
     public void testMultipleScaleWidthInDp() throws Exception {
         List<File> files = copyToTestPath(defaultSrc, "png_example1_alpha_144.png", "png_example4_500.png", "jpg_example_1920.jpg");
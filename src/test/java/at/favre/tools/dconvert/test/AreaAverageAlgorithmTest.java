@@ -0,0 +1,93 @@
+package at.favre.tools.dconvert.test;
+
+import at.favre.tools.dconvert.arg.EScalingAlgorithm;
+import at.favre.tools.dconvert.converters.scaling.AreaAverageAlgorithm;
+import at.favre.tools.dconvert.converters.scaling.AutoScaleAlgorithm;
+import at.favre.tools.dconvert.converters.scaling.ScaleAlgorithm;
+import at.favre.tools.dconvert.converters.scaling.SeparableResampleAlgorithm;
+import com.mortennobel.imagescaling.ResampleFilters;
+import org.junit.Test;
+
+import javax.imageio.ImageIO;
+import java.awt.image.BufferedImage;
+import java.io.File;
+
+import static org.junit.Assert.*;
+
+/**
+ * Tests the integer ratio area average and the auto selection
+ */
+public class AreaAverageAlgorithmTest extends AIntegrationTest {
+    private final ScaleAlgorithm areaAverage = EScalingAlgorithm.AREA_AVERAGE.getImplementation();
+    private final ScaleAlgorithm boxFilter = new SeparableResampleAlgorithm(ResampleFilters.getBoxFilter());
+
+    @Test
+    public void testBlockAverageWithPremultipliedAlpha() throws Exception {
+        BufferedImage image = new BufferedImage(4, 2, BufferedImage.TYPE_INT_ARGB);
+        image.setRGB(0, 0, 0xFFFF0000);
+        image.setRGB(1, 0, 0x00FFFFFF);
+        image.setRGB(0, 1, 0x800000FF);
+        image.setRGB(1, 1, 0x00000000);
+        for (int x = 2; x < 4; x++) {
+            for (int y = 0; y < 2; y++) {
+                image.setRGB(x, y, 0xFF000000 | (x * 10 + y * 20));
+            }
+        }
+
+        BufferedImage scaled = areaAverage.scale(image, 2, 1);
+        // the transparent white pixel does not lighten the block, blue has half the weight of red
+        assertEquals(0x60AA0055, scaled.getRGB(0, 0));
+        assertEquals(0xFF000023, scaled.getRGB(1, 0));
+    }
+
+    @Test
+    public void testIntegerRatiosMatchBoxFilter() throws Exception {
+        for (File file : AConverterTest.copyToTestPath(src, "png_example1_alpha_144.png", "jpg_example2_512.jpg")) {
+            BufferedImage image = ImageIO.read(file);
+            for (int factor : new int[]{2, 3, 4}) {
+                int width = image.getWidth() / factor;
+                int height = image.getHeight() / factor;
+                if (!AreaAverageAlgorithm.isIntegerRatio(image.getWidth(), image.getHeight(), width, height)) {
+                    continue;
+                }
+                assertSimilar(boxFilter.scale(image, width, height), areaAverage.scale(image, width, height));
+            }
+        }
+    }
+
+    @Test
+    public void testOtherRatiosUseBoxFilter() throws Exception {
+        BufferedImage image = ImageIO.read(AConverterTest.copyToTestPath(src, "png_example1_alpha_144.png").get(0));
+        assertFalse(AreaAverageAlgorithm.isIntegerRatio(144, 144, 100, 100));
+        BufferedImage expected = boxFilter.scale(image, 100, 100);
+        BufferedImage actual = areaAverage.scale(image, 100, 100);
+        for (int y = 0; y < 100; y++) {
+            for (int x = 0; x < 100; x++) {
+                assertEquals(expected.getRGB(x, y), actual.getRGB(x, y));
+            }
+        }
+    }
+
+    @Test
+    public void testAutoSelection() throws Exception {
+        AutoScaleAlgorithm auto = (AutoScaleAlgorithm) EScalingAlgorithm.AUTO.getImplementation();
+        assertTrue(auto.select(144, 144, 48, 48) instanceof AreaAverageAlgorithm);
+        assertTrue(auto.select(300, 150, 100, 75) instanceof AreaAverageAlgorithm);
+        assertEquals(EScalingAlgorithm.LANCZOS3_FAST.getImplementation(), auto.select(144, 144, 100, 100));
+        assertEquals(EScalingAlgorithm.LANCZOS3_FAST.getImplementation(), auto.select(48, 48, 144, 144));
+    }
+
+    private static void assertSimilar(BufferedImage expected, BufferedImage actual) {
+        assertEquals(expected.getWidth(), actual.getWidth());
+        assertEquals(expected.getHeight(), actual.getHeight());
+        for (int y = 0; y < expected.getHeight(); y++) {
+            for (int x = 0; x < expected.getWidth(); x++) {
+                int e = expected.getRGB(x, y);
+                int a = actual.getRGB(x, y);
+                for (int shift = 0; shift < 32; shift += 8) {
+                    assertTrue("pixel " + x + "," + y, Math.abs(((e >> shift) & 0xFF) - ((a >> shift) & 0xFF)) <= 1);
+                }
+            }
+        }
+    }
+}
@@ -197,6 +197,54 @@ public class CLIParserTest {
         check(defaultCmd + " -" + CLIInterpreter.THREADS_ARG + " " + 0, new Arguments.Builder(defaultSrc, DEFAULT_SCALE).threadCount(0).build());
     }
 
+    @Test
+    public void testHeapBudget() throws Exception {
+        check(defaultCmd + " -" + CLIInterpreter.HEAP_BUDGET_ARG + " 512", new Arguments.Builder(defaultSrc, DEFAULT_SCALE).heapBudgetMb(512).build());
+    }
+
+    @Test(expected = InvalidArgumentException.class)
+    public void testNegativeHeapBudgetShouldFail() throws Exception {
+        check(defaultCmd + " -" + CLIInterpreter.HEAP_BUDGET_ARG + " -1", new Arguments.Builder(defaultSrc, DEFAULT_SCALE).heapBudgetMb(-1).build());
+    }
+
+    @Test
+    public void testOutputCache() throws Exception {
+        check(defaultCmd + " -" + CLIInterpreter.CACHE_DIR_ARG + " " + defaultSrc.getAbsolutePath(), new Arguments.Builder(defaultSrc, DEFAULT_SCALE).cacheDir(defaultSrc).build());
+        check(defaultCmd + " -" + CLIInterpreter.CACHE_DIR_ARG + " " + defaultSrc.getAbsolutePath() + " -" + CLIInterpreter.CACHE_SIZE_ARG + " 64", new Arguments.Builder(defaultSrc, DEFAULT_SCALE).cacheDir(defaultSrc).cacheMaxMb(64).build());
+    }
+
+    @Test(expected = InvalidArgumentException.class)
+    public void testCacheSize0ShouldFail() throws Exception {
+        check(defaultCmd + " -" + CLIInterpreter.CACHE_SIZE_ARG + " 0", new Arguments.Builder(defaultSrc, DEFAULT_SCALE).cacheMaxMb(0).build());
+    }
+
+    @Test
+    public void testDaemon() throws Exception {
+        check("-daemon", new Arguments.Builder(null, Arguments.DEFAULT_SCALE).daemon(true).build());
+        check("-daemon -" + CLIInterpreter.DAEMON_PORT_ARG + " 8123", new Arguments.Builder(null, Arguments.DEFAULT_SCALE).daemon(true).daemonPort(8123).build());
+        check(defaultCmd + " -useDaemon", new Arguments.Builder(defaultSrc, DEFAULT_SCALE).useDaemon(true).build());
+        check(defaultCmd + " -useDaemon -" + CLIInterpreter.DAEMON_PORT_ARG + " 8123", new Arguments.Builder(defaultSrc, DEFAULT_SCALE).useDaemon(true).daemonPort(8123).build());
+    }
+
+    @Test(expected = InvalidArgumentException.class)
+    public void testDaemonPort0ShouldFail() throws Exception {
+        check(defaultCmd + " -" + CLIInterpreter.DAEMON_PORT_ARG + " 0", new Arguments.Builder(defaultSrc, DEFAULT_SCALE).daemonPort(0).build());
+    }
+
+    @Test
+    public void testPngCompression() throws Exception {
+        check(defaultCmd + " -" + CLIInterpreter.PNG_COMPRESSION_LEVEL_ARG + " 4", new Arguments.Builder(defaultSrc, DEFAULT_SCALE).pngCompression(4, Arguments.DEFAULT_PNG_FILTER).build());
+        check(defaultCmd + " -" + CLIInterpreter.PNG_FILTER_ARG + " paeth", new Arguments.Builder(defaultSrc, DEFAULT_SCALE).pngCompression(Arguments.DEFAULT_PNG_COMPRESSION_LEVEL, EPngFilter.PAETH).build());
+        check(defaultCmd + " -pngFast", new Arguments.Builder(defaultSrc, DEFAULT_SCALE).pngCompression(Arguments.FAST_PNG_COMPRESSION_LEVEL, Arguments.DEFAULT_PNG_FILTER).build());
+        check(defaultCmd + " -pngFast -" + CLIInterpreter.PNG_COMPRESSION_LEVEL_ARG + " 3 -" + CLIInterpreter.PNG_FILTER_ARG + " none",
+                new Arguments.Builder(defaultSrc, DEFAULT_SCALE).pngCompression(3, EPngFilter.NONE).build());
+    }
+
+    @Test(expected = InvalidArgumentException.class)
+    public void testPngCompressionLevel10ShouldFail() throws Exception {
+        check(defaultCmd + " -" + CLIInterpreter.PNG_COMPRESSION_LEVEL_ARG + " 10", new Arguments.Builder(defaultSrc, DEFAULT_SCALE).pngCompression(10, Arguments.DEFAULT_PNG_FILTER).build());
+    }
+
     @Test
     public void testRoundingModes() throws Exception {
         check(defaultCmd + " -" + CLIInterpreter.ROUNDING_MODE_ARG + " round", new Arguments.Builder(defaultSrc, DEFAULT_SCALE).scaleRoundingStragy(RoundingHandler.Strategy.ROUND_HALF_UP).build());
@@ -214,11 +262,15 @@ public class CLIParserTest {
         check(defaultCmd + " -androidMipmapInsteadOfDrawable", new Arguments.Builder(defaultSrc, DEFAULT_SCALE).createMipMapInsteadOfDrawableDir(true).build());
         check(defaultCmd + " -antiAliasing", new Arguments.Builder(defaultSrc, DEFAULT_SCALE).antiAliasing(true).build());
         check(defaultCmd + " -postProcessorPngCrush", new Arguments.Builder(defaultSrc, DEFAULT_SCALE).enablePngCrush(true).build());
+        check(defaultCmd + " -postProcessorPngOptimizer", new Arguments.Builder(defaultSrc, DEFAULT_SCALE).enablePngOptimizer(true).build());
         check(defaultCmd + " -postProcessorWebp", new Arguments.Builder(defaultSrc, DEFAULT_SCALE).postConvertWebp(true).build());
         check(defaultCmd + " -postProcessorMozJpeg", new Arguments.Builder(defaultSrc, DEFAULT_SCALE).enableMozJpeg(true).build());
         check(defaultCmd + " -keepOriginalPostProcessedFiles", new Arguments.Builder(defaultSrc, DEFAULT_SCALE).keepUnoptimizedFilesPostProcessor(true).build());
         check(defaultCmd + " -iosCreateImagesetFolders", new Arguments.Builder(defaultSrc, DEFAULT_SCALE).iosCreateImagesetFolders(true).build());
         check(defaultCmd + " -clean", new Arguments.Builder(defaultSrc, DEFAULT_SCALE).clearDirBeforeConvert(true).build());
+        check(defaultCmd + " -pyramidScaling", new Arguments.Builder(defaultSrc, DEFAULT_SCALE).enablePyramidScaling(true).build());
+        check(defaultCmd + " -incremental", new Arguments.Builder(defaultSrc, DEFAULT_SCALE).incremental(true).build());
+        check(defaultCmd + " -watch", new Arguments.Builder(defaultSrc, DEFAULT_SCALE).watch(true).build());
     }
 
     @Test
@@ -3,11 +3,15 @@ package at.favre.tools.dconvert.test;
 import at.favre.tools.dconvert.DConvert;
 import at.favre.tools.dconvert.arg.Arguments;
 import at.favre.tools.dconvert.arg.EPlatform;
+import at.favre.tools.dconvert.util.BuildManifest;
 import org.junit.Test;
 
 import java.io.File;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
 import java.util.Collections;
 import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
 import java.util.concurrent.CountDownLatch;
 import java.util.concurrent.TimeUnit;
 
@@ -60,6 +64,48 @@ public class DConvertTest extends AIntegrationTest {
         AConverterTest.checkMultiPlatformConvert(dst, arg, files);
     }
 
+    @Test
+    public void testIncrementalSkipsUnchangedSources() throws Exception {
+        List<File> files = AConverterTest.copyToTestPath(src, "png_example1_alpha_144.png", "jpg_example2_512.jpg");
+        Arguments arg = new Arguments.Builder(src, Arguments.DEFAULT_SCALE).platform(Collections.singleton(EPlatform.ANDROID)).dstFolder(dst).incremental(true).threadCount(4).build();
+
+        runAndCheck(arg, files.size());
+        assertTrue(new File(dst, BuildManifest.FILE_NAME).isFile());
+        runAndCheck(arg, 0);
+
+        Files.copy(new File(AConverterTest.class.getClassLoader().getResource("png_example2_alpha_144.png").getFile()).toPath(), files.get(0).toPath(), StandardCopyOption.REPLACE_EXISTING);
+        runAndCheck(arg, 1);
+
+        runAndCheck(new Arguments.Builder(src, 2f).platform(Collections.singleton(EPlatform.ANDROID)).dstFolder(dst).incremental(true).threadCount(4).build(), files.size());
+        AndroidConverterTest.checkOutDirAndroid(dst, new Arguments.Builder(src, 2f).platform(Collections.singleton(EPlatform.ANDROID)).dstFolder(dst).build(), files);
+    }
+
+    @Test
+    public void testIncrementalReportsSkippedSourcesAsProgress() throws Exception {
+        List<File> files = AConverterTest.copyToTestPath(src, "png_example1_alpha_144.png", "jpg_example2_512.jpg");
+        Arguments arg = new Arguments.Builder(src, Arguments.DEFAULT_SCALE).platform(Collections.singleton(EPlatform.ANDROID)).dstFolder(dst).incremental(true).threadCount(4).build();
+        runAndCheck(arg, files.size());
+
+        Files.copy(new File(AConverterTest.class.getClassLoader().getResource("png_example2_alpha_144.png").getFile()).toPath(), files.get(0).toPath(), StandardCopyOption.REPLACE_EXISTING);
+        CountDownLatch runLatch = new CountDownLatch(1);
+        TestCallback callback = new TestCallback(1, Collections.emptyList(), false, runLatch);
+        new DConvert().execute(arg, false, callback);
+        assertTrue(runLatch.await(WAIT_SEC, TimeUnit.SECONDS));
+        checkResult(callback);
+
+        // the unchanged source is done right away, so progress starts at half instead of waiting for the changed one
+        assertEquals(0.5f, callback.progress.get(0), 0.0001f);
+        assertEquals(1f, callback.progress.get(callback.progress.size() - 1), 0.0001f);
+    }
+
+    private void runAndCheck(Arguments arg, int expectedJobs) throws Exception {
+        CountDownLatch runLatch = new CountDownLatch(1);
+        TestCallback callback = new TestCallback(expectedJobs, Collections.emptyList(), false, runLatch);
+        new DConvert().execute(arg, false, callback);
+        assertTrue(runLatch.await(WAIT_SEC, TimeUnit.SECONDS));
+        checkResult(callback);
+    }
+
     private void checkResult(TestCallback callback) {
         assertEquals(callback.expectedJobs, callback.actualJobs);
         assertEquals(callback.expectedExceptions, callback.actualExceptions);
@@ -74,6 +120,7 @@ public class DConvertTest extends AIntegrationTest {
         private int actualJobs;
         private List<Exception> actualExceptions;
         private boolean actualHaltDuringProcess;
+        private final List<Float> progress = new CopyOnWriteArrayList<>();
 
         public TestCallback(int expectedJobs, List<Exception> expectedExceptions, boolean expectedHaltDuringProcess, CountDownLatch latch) {
             this.expectedJobs = expectedJobs;
@@ -84,6 +131,7 @@ public class DConvertTest extends AIntegrationTest {
 
         @Override
         public void onProgress(float percent) {
+            progress.add(percent);
         }
 
         @Override
@@ -0,0 +1,206 @@
+package at.favre.tools.dconvert.test;
+
+import at.favre.tools.dconvert.DConvert;
+import at.favre.tools.dconvert.DaemonClient;
+import at.favre.tools.dconvert.DaemonServer;
+import at.favre.tools.dconvert.arg.*;
+import at.favre.tools.dconvert.exceptions.InvalidArgumentException;
+import at.favre.tools.dconvert.util.FlatJson;
+import org.junit.Test;
+
+import java.io.*;
+import java.net.ConnectException;
+import java.net.InetAddress;
+import java.net.Socket;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.FileSystems;
+import java.nio.file.Files;
+import java.nio.file.attribute.PosixFilePermissions;
+import java.util.*;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
+
+import static org.junit.Assert.*;
+
+/**
+ * Tests the daemon, its client and the json codec
+ */
+public class DaemonTest extends AIntegrationTest {
+
+    @Test
+    public void testFlatJsonRoundTrip() throws Exception {
+        Map<String, Object> map = new LinkedHashMap<>();
+        map.put("string", "a \"quoted\" \\ path\nwith\tcontrol \u0001 chars and ünicode");
+        map.put("int", 42);
+        map.put("float", 0.9f);
+        map.put("negative", -1.5e-3);
+        map.put("bool", true);
+        map.put("null", null);
+        map.put("list", Arrays.asList("a", "b,c"));
+        map.put("empty", Collections.emptyList());
+
+        Map<String, Object> decoded = FlatJson.decode(FlatJson.encode(map));
+        assertEquals(map.keySet(), decoded.keySet());
+        assertEquals(map.get("string"), decoded.get("string"));
+        assertEquals(42, ((Number) decoded.get("int")).intValue());
+        assertEquals(0.9f, ((Number) decoded.get("float")).floatValue(), 0);
+        assertEquals(-1.5e-3, ((Number) decoded.get("negative")).doubleValue(), 0);
+        assertEquals(Boolean.TRUE, decoded.get("bool"));
+        assertNull(decoded.get("null"));
+        assertEquals(map.get("list"), decoded.get("list"));
+        assertEquals(map.get("empty"), decoded.get("empty"));
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testFlatJsonRejectsNestedObjects() throws Exception {
+        FlatJson.decode("{\"a\":{\"b\":1}}");
+    }
+
+    @Test
+    public void testArgumentsJsonRoundTrip() throws Exception {
+        Arguments args = new Arguments.Builder(src.getAbsoluteFile(), 2.5f).dstFolder(dst.getAbsoluteFile())
+                .platform(new HashSet<>(Arrays.asList(EPlatform.ANDROID, EPlatform.WEB)))
+                .compression(EOutputCompressionMode.AS_JPG, 0.7f).scaleMode(EScaleMode.DP_HEIGHT)
+                .upScaleAlgorithm(EScalingAlgorithm.BICUBIC).downScaleAlgorithm(EScalingAlgorithm.MITCHELL)
+                .scaleRoundingStragy(RoundingHandler.Strategy.CEIL).threadCount(3).skipUpscaling(true).haltOnError(true)
+                .incremental(true).cacheDir(dst.getAbsoluteFile()).cacheMaxMb(64).heapBudgetMb(128).build();
+        assertEquals(args, ArgumentsJson.fromJson(ArgumentsJson.toJson(args)));
+    }
+
+    @Test(expected = InvalidArgumentException.class)
+    public void testArgumentsJsonInvalid() throws Exception {
+        ArgumentsJson.fromJson("{\"src\":\"/does/not/exist\"}");
+    }
+
+    @Test
+    public void testConvertWithDaemon() throws Exception {
+        List<File> files = AConverterTest.copyToTestPath(src, "png_example1_alpha_144.png", "jpg_example2_512.jpg");
+        DaemonServer server = new DaemonServer(0, dst);
+        Thread serverThread = startServer(server);
+
+        try {
+            Arguments arg = new Arguments.Builder(src, Arguments.DEFAULT_SCALE).platform(Collections.singleton(EPlatform.ANDROID))
+                    .dstFolder(dst).useDaemon(true).daemonPort(server.getPort()).build();
+            AtomicInteger finishedJobs = new AtomicInteger(-1);
+            List<Float> progress = new ArrayList<>();
+            AtomicReference<List<Exception>> errors = new AtomicReference<>();
+
+            DaemonClient.execute(arg, dst, new DConvert.HandlerCallback() {
+                @Override
+                public void onProgress(float p) {
+                    progress.add(p);
+                }
+
+                @Override
+                public void onFinished(int jobs, List<Exception> exceptions, long time, boolean haltedDuringProcess, String log) {
+                    finishedJobs.set(jobs);
+                    errors.set(exceptions);
+                }
+            });
+
+            assertEquals(2, finishedJobs.get());
+            assertTrue(errors.get().isEmpty());
+            assertFalse(progress.isEmpty());
+            AndroidConverterTest.checkOutDirAndroid(dst, arg, files);
+        } finally {
+            server.stop();
+            serverThread.join(WAIT_SEC * 1000);
+        }
+    }
+
+    @Test
+    public void testInvalidRequestIsAnswered() throws Exception {
+        DaemonServer server = new DaemonServer(0, dst);
+        Thread serverThread = startServer(server);
+
+        try (Socket socket = new Socket(InetAddress.getLoopbackAddress(), server.getPort());
+             BufferedReader in = new BufferedReader(new InputStreamReader(socket.getInputStream(), StandardCharsets.UTF_8));
+             Writer out = new OutputStreamWriter(socket.getOutputStream(), StandardCharsets.UTF_8)) {
+            out.write(new String(Files.readAllBytes(DaemonServer.getTokenFile(dst, server.getPort()).toPath()), StandardCharsets.UTF_8) + "\n");
+            out.write("not json\n");
+            out.flush();
+
+            Map<String, Object> response = FlatJson.decode(in.readLine());
+            assertEquals(DaemonServer.EVENT_ERROR, response.get("event"));
+            assertNotNull(response.get("message"));
+            assertNull(in.readLine());
+        } finally {
+            server.stop();
+            serverThread.join(WAIT_SEC * 1000);
+        }
+        assertFalse(serverThread.isAlive());
+    }
+
+    @Test
+    public void testJobWithoutTokenIsRejected() throws Exception {
+        AConverterTest.copyToTestPath(src, "png_example1_alpha_144.png");
+        DaemonServer server = new DaemonServer(0, dst);
+        Thread serverThread = startServer(server);
+
+        try (Socket socket = new Socket(InetAddress.getLoopbackAddress(), server.getPort());
+             BufferedReader in = new BufferedReader(new InputStreamReader(socket.getInputStream(), StandardCharsets.UTF_8));
+             Writer out = new OutputStreamWriter(socket.getOutputStream(), StandardCharsets.UTF_8)) {
+            Arguments arg = new Arguments.Builder(src, Arguments.DEFAULT_SCALE).platform(Collections.singleton(EPlatform.ANDROID)).dstFolder(dst).build();
+            out.write("guessed\n");
+            out.write(ArgumentsJson.toJson(arg) + "\n");
+            out.flush();
+
+            Map<String, Object> response = FlatJson.decode(in.readLine());
+            assertEquals(DaemonServer.EVENT_ERROR, response.get("event"));
+            assertNull(in.readLine());
+            assertFalse(new File(dst, "drawable-mdpi").exists());
+        } finally {
+            server.stop();
+            serverThread.join(WAIT_SEC * 1000);
+        }
+    }
+
+    @Test
+    public void testTokenFileOnlyReadableByUser() throws Exception {
+        DaemonServer server = new DaemonServer(0, new File(dst, "tokens"));
+        File tokenFile = DaemonServer.getTokenFile(new File(dst, "tokens"), server.getPort());
+        try {
+            assertTrue(tokenFile.isFile());
+            if (FileSystems.getDefault().supportedFileAttributeViews().contains("posix")) {
+                assertEquals(PosixFilePermissions.fromString("rw-------"), Files.getPosixFilePermissions(tokenFile.toPath()));
+                assertEquals(PosixFilePermissions.fromString("rwx------"), Files.getPosixFilePermissions(tokenFile.getParentFile().toPath()));
+            }
+        } finally {
+            server.stop();
+        }
+        assertFalse(tokenFile.exists());
+    }
+
+    @Test(expected = ConnectException.class)
+    public void testClientWithoutDaemonFails() throws Exception {
+        DaemonServer server = new DaemonServer(0, dst);
+        int port = server.getPort();
+        server.stop();
+        // token of a crashed daemon
+        Files.write(DaemonServer.getTokenFile(dst, port).toPath(), "stale".getBytes(StandardCharsets.UTF_8));
+
+        Arguments arg = new Arguments.Builder(src, Arguments.DEFAULT_SCALE).dstFolder(dst).useDaemon(true).daemonPort(port).build();
+        DaemonClient.execute(arg, dst, new DConvert.HandlerCallback() {
+            @Override
+            public void onProgress(float progress) {
+            }
+
+            @Override
+            public void onFinished(int finishedJobs, List<Exception> exceptions, long time, boolean haltedDuringProcess, String log) {
+                fail("should not be called");
+            }
+        });
+    }
+
+    private static Thread startServer(DaemonServer server) {
+        Thread thread = new Thread(() -> {
+            try {
+                server.serve();
+            } catch (IOException e) {
+                e.printStackTrace();
+            }
+        });
+        thread.start();
+        return thread;
+    }
+}
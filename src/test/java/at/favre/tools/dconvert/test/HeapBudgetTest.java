@@ -0,0 +1,89 @@
+package at.favre.tools.dconvert.test;
+
+import at.favre.tools.dconvert.util.HeapBudget;
+import org.junit.Test;
+
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.*;
+
+/**
+ * Tests the heap admission control
+ */
+public class HeapBudgetTest {
+
+    @Test
+    public void testOversizedJobAdmittedAlone() throws Exception {
+        HeapBudget budget = new HeapBudget(100);
+        budget.acquire(500);
+        assertEquals(500, budget.getReservedBytes());
+        budget.release(500);
+        assertEquals(0, budget.getReservedBytes());
+    }
+
+    @Test
+    public void testReleaseUnblocksWaitingJob() throws Exception {
+        HeapBudget budget = new HeapBudget(100);
+        budget.acquire(80);
+
+        CountDownLatch admitted = new CountDownLatch(1);
+        Thread waiting = new Thread(() -> {
+            try {
+                budget.acquire(50);
+                admitted.countDown();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        });
+        waiting.start();
+
+        assertFalse("should wait while budget is exhausted", admitted.await(200, TimeUnit.MILLISECONDS));
+        budget.release(80);
+        assertTrue("should be admitted after release", admitted.await(5, TimeUnit.SECONDS));
+        assertEquals(50, budget.getReservedBytes());
+        waiting.join();
+    }
+
+    @Test
+    public void testAdmittedInOrder() throws Exception {
+        HeapBudget budget = new HeapBudget(100);
+        budget.acquire(100);
+
+        List<Integer> order = new CopyOnWriteArrayList<>();
+        Thread big = startAcquire(budget, 90, 1, order);
+        waitUntilWaiting(big);
+        Thread small = startAcquire(budget, 5, 2, order);
+        waitUntilWaiting(small);
+
+        assertTrue(order.isEmpty());
+        budget.release(100);
+        big.join(5000);
+        small.join(5000);
+
+        assertEquals(2, order.size());
+        assertEquals(1, (int) order.get(0));
+        assertEquals(95, budget.getReservedBytes());
+    }
+
+    private static Thread startAcquire(HeapBudget budget, long bytes, int id, List<Integer> order) {
+        Thread thread = new Thread(() -> {
+            try {
+                budget.acquire(bytes);
+                order.add(id);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        });
+        thread.start();
+        return thread;
+    }
+
+    private static void waitUntilWaiting(Thread thread) throws InterruptedException {
+        while (thread.getState() != Thread.State.WAITING) {
+            Thread.sleep(5);
+        }
+    }
+}
@@ -0,0 +1,58 @@
+package at.favre.tools.dconvert.test;
+
+import at.favre.tools.dconvert.arg.Arguments;
+import at.favre.tools.dconvert.arg.EOutputCompressionMode;
+import at.favre.tools.dconvert.converters.scaling.ImageHandler;
+import at.favre.tools.dconvert.util.ImageUtil;
+import org.junit.Test;
+
+import java.awt.*;
+import java.io.File;
+import java.nio.file.Files;
+import java.util.Arrays;
+import java.util.List;
+
+import static org.junit.Assert.*;
+
+/**
+ * Tests copying the source if a target needs no transformation
+ */
+public class ImageHandlerTest extends AIntegrationTest {
+
+    @Test
+    public void testSameSizeAndFormatCopiesSource() throws Exception {
+        for (File file : AConverterTest.copyToTestPath(src, "png_example1_alpha_144.png", "jpg_example2_512.jpg")) {
+            Dimension size = ImageUtil.getImageDimension(file);
+            assertTrue(isCopy(file, save(file, defaultArgs().build(), size)));
+            assertFalse(isCopy(file, save(file, defaultArgs().build(), new Dimension(size.width / 2, size.height / 2))));
+            assertFalse(isCopy(file, save(file, defaultArgs().antiAliasing(true).build(), size)));
+        }
+    }
+
+    @Test
+    public void testTransformedSourceNotCopied() throws Exception {
+        File png = AConverterTest.copyToTestPath(src, "png_example1_alpha_144.png").get(0);
+        Dimension size = new Dimension(144, 144);
+        assertFalse(isCopy(png, save(png, defaultArgs().enablePngOptimizer(true).build(), size)));
+        // other format
+        assertFalse(isCopy(png, save(png, defaultArgs().compression(EOutputCompressionMode.AS_JPG).build(), size)));
+
+        File svg = AConverterTest.copyToTestPath(src, "svg_example_512.svg").get(0);
+        assertFalse(isCopy(svg, save(svg, defaultArgs().build(), ImageUtil.getImageDimension(svg))));
+    }
+
+    private Arguments.Builder defaultArgs() {
+        return new Arguments.Builder(src, Arguments.DEFAULT_SCALE).dstFolder(dst);
+    }
+
+    private File save(File file, Arguments args, Dimension dimension) throws Exception {
+        File target = new File(dst, "out");
+        List<File> files = new ImageHandler(args).saveToFile(target, ImageUtil.loadImage(file), dimension, false);
+        assertEquals(1, files.size());
+        return files.get(0);
+    }
+
+    private static boolean isCopy(File source, File output) throws Exception {
+        return Arrays.equals(Files.readAllBytes(source.toPath()), Files.readAllBytes(output.toPath()));
+    }
+}
@@ -0,0 +1,78 @@
+package at.favre.tools.dconvert.test;
+
+import at.favre.tools.dconvert.util.ImageIOPool;
+import at.favre.tools.dconvert.util.ImageUtil;
+import at.favre.tools.dconvert.util.LoadedImage;
+import org.junit.Test;
+
+import javax.imageio.ImageIO;
+import javax.imageio.ImageReader;
+import javax.imageio.ImageWriteParam;
+import javax.imageio.ImageWriter;
+import javax.imageio.stream.ImageInputStream;
+import java.awt.image.BufferedImage;
+import java.io.File;
+import java.nio.file.Files;
+
+import static org.junit.Assert.*;
+
+/**
+ * Tests pooling of image readers and writers
+ */
+public class ImageIOPoolTest extends AIntegrationTest {
+
+    @Test
+    public void testReleasedReaderIsReused() throws Exception {
+        File file = AConverterTest.copyToTestPath(src, "png_example1_alpha_144.png").get(0);
+        ImageReader first;
+        try (ImageInputStream stream = ImageIO.createImageInputStream(file)) {
+            first = ImageIOPool.acquireReader(stream, "png");
+            assertNotNull(first);
+            first.setInput(stream);
+            assertEquals(144, first.getWidth(0));
+            ImageIOPool.release(first);
+        }
+        assertNull(first.getInput());
+
+        try (ImageInputStream stream = ImageIO.createImageInputStream(file)) {
+            ImageReader second = ImageIOPool.acquireReader(stream, "png");
+            ImageReader concurrent = ImageIOPool.acquireReader(stream, "png");
+            assertSame(first, second);
+            assertNotSame(second, concurrent);
+            ImageIOPool.release(second);
+            ImageIOPool.release(concurrent);
+        }
+    }
+
+    @Test
+    public void testWrongSuffixFallsBackToRegistry() throws Exception {
+        File png = AConverterTest.copyToTestPath(src, "png_example1_alpha_144.png").get(0);
+        File mislabeled = new File(src, "actually_png.jpg");
+        Files.copy(png.toPath(), mislabeled.toPath());
+
+        LoadedImage image = ImageUtil.loadImage(mislabeled);
+        assertEquals(144, image.getImage().getWidth());
+    }
+
+    @Test
+    public void testWriterOnlyIfImageSupported() throws Exception {
+        ImageWriter writer = ImageIOPool.acquireWriter("bmp", new BufferedImage(2, 2, BufferedImage.TYPE_INT_RGB));
+        assertNotNull(writer);
+        ImageIOPool.release(writer);
+        // same as ImageIO.write which can't write bmp with alpha
+        assertNull(ImageIOPool.acquireWriter("bmp", new BufferedImage(2, 2, BufferedImage.TYPE_INT_ARGB)));
+    }
+
+    @Test
+    public void testCompressionParamPerQuality() throws Exception {
+        ImageWriter writer = ImageIOPool.acquireWriter("jpg", new BufferedImage(2, 2, BufferedImage.TYPE_INT_RGB));
+        try {
+            ImageWriteParam param = ImageIOPool.getCompressionParam(writer, 0.5f);
+            assertEquals(0.5f, param.getCompressionQuality(), 0.0001f);
+            assertSame(param, ImageIOPool.getCompressionParam(writer, 0.5f));
+            assertEquals(0.8f, ImageIOPool.getCompressionParam(writer, 0.8f).getCompressionQuality(), 0.0001f);
+        } finally {
+            ImageIOPool.release(writer);
+        }
+    }
+}
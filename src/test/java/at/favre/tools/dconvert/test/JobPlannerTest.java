@@ -0,0 +1,53 @@
+package at.favre.tools.dconvert.test;
+
+import at.favre.tools.dconvert.JobPlanner;
+import at.favre.tools.dconvert.arg.EPlatform;
+import at.favre.tools.dconvert.converters.IPlatformConverter;
+import org.junit.Test;
+
+import java.awt.*;
+import java.io.File;
+import java.nio.file.Files;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+import static org.junit.Assert.*;
+
+/**
+ * Tests the header only planning and the job order
+ */
+public class JobPlannerTest extends AIntegrationTest {
+
+    @Test
+    public void testLargestFirst() throws Exception {
+        List<File> files = AConverterTest.copyToTestPath(src, "png_example1_alpha_144.png", "jpg_example_1920.jpg", "bmp_example_256.bmp", "png_example4_500.png");
+        List<IPlatformConverter> converters = Arrays.asList(EPlatform.ANDROID.getConverter(), EPlatform.IOS.getConverter());
+
+        List<JobPlanner.Job> jobs = JobPlanner.plan(files, converters, arguments);
+
+        assertEquals(files.size(), jobs.size());
+        assertEquals("jpg_example_1920.jpg", jobs.get(0).file.getName());
+        assertEquals("png_example4_500.png", jobs.get(1).file.getName());
+        assertEquals("bmp_example_256.bmp", jobs.get(2).file.getName());
+        assertEquals("png_example1_alpha_144.png", jobs.get(3).file.getName());
+        assertEquals(new Dimension(144, 144), jobs.get(3).srcDimension);
+
+        for (int i = 1; i < jobs.size(); i++) {
+            assertTrue(jobs.get(i - 1).cost >= jobs.get(i).cost);
+        }
+    }
+
+    @Test
+    public void testUnreadableHeaderFirst() throws Exception {
+        List<File> files = AConverterTest.copyToTestPath(src, "png_example1_alpha_144.png");
+        File broken = new File(src, "broken.png");
+        Files.write(broken.toPath(), new byte[]{1, 2, 3, 4});
+
+        List<JobPlanner.Job> jobs = JobPlanner.plan(Arrays.asList(files.get(0), broken), Collections.singletonList(EPlatform.ANDROID.getConverter()), arguments);
+
+        assertEquals(broken, jobs.get(0).file);
+        assertNull(jobs.get(0).srcDimension);
+        assertEquals(files.get(0), jobs.get(1).file);
+    }
+}
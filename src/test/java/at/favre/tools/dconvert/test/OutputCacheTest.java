@@ -0,0 +1,180 @@
+package at.favre.tools.dconvert.test;
+
+import at.favre.tools.dconvert.DConvert;
+import at.favre.tools.dconvert.arg.Arguments;
+import at.favre.tools.dconvert.arg.EPlatform;
+import at.favre.tools.dconvert.arg.EScaleMode;
+import at.favre.tools.dconvert.converters.AndroidConverter;
+import at.favre.tools.dconvert.converters.Result;
+import at.favre.tools.dconvert.util.OutputCache;
+import org.junit.Test;
+
+import java.io.File;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.*;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
+import static org.junit.Assert.*;
+
+/**
+ * Tests the persistent output cache
+ */
+public class OutputCacheTest extends AIntegrationTest {
+
+    @Test
+    public void testStoreAndRestore() throws Exception {
+        OutputCache cache = OutputCache.get(createArgs(temporaryFolder.newFolder("cache"), 16));
+        File file = createFile("in", 1024);
+        String key = OutputCache.createKey("test", 1, 2);
+
+        File target = new File(dst, "out");
+        assertFalse(cache.restore(key, target));
+        cache.store(key, file);
+        assertTrue(cache.restore(key, target));
+        assertArrayEquals(Files.readAllBytes(file.toPath()), Files.readAllBytes(target.toPath()));
+        assertNotEquals(key, OutputCache.createKey("test", 12));
+    }
+
+    @Test
+    public void testEvictsLeastRecentlyUsed() throws Exception {
+        OutputCache cache = OutputCache.get(createArgs(temporaryFolder.newFolder("cache"), 1));
+        int entrySize = 300 * 1024;
+
+        for (int i = 0; i < 5; i++) {
+            cache.store("key" + i, createFile("in" + i, entrySize));
+            // keep the first entry in use
+            assertTrue(cache.restore("key0", new File(dst, "out")));
+            Thread.sleep(20);
+        }
+
+        assertTrue(cache.getSizeBytes() <= cache.getMaxBytes());
+        assertTrue(cache.restore("key0", new File(dst, "out")));
+        assertFalse(cache.restore("key1", new File(dst, "out")));
+        assertTrue(cache.restore("key4", new File(dst, "out")));
+    }
+
+    @Test
+    public void testConverterUsesCache() throws Exception {
+        File cacheDir = temporaryFolder.newFolder("cache");
+        List<File> files = AConverterTest.copyToTestPath(src, "png_example1_alpha_144.png");
+        File dst2 = temporaryFolder.newFolder("convert-test", "out2");
+
+        Arguments arg = new Arguments.Builder(src, Arguments.DEFAULT_SCALE).dstFolder(dst).platform(Collections.singleton(EPlatform.ANDROID)).cacheDir(cacheDir).build();
+        Result result = new AndroidConverter().convert(files.get(0), arg);
+        assertNull(result.exception);
+        long cacheSize = OutputCache.get(arg).getSizeBytes();
+        assertTrue(cacheSize > 0);
+
+        Arguments arg2 = new Arguments.Builder(src, Arguments.DEFAULT_SCALE).dstFolder(dst2).platform(Collections.singleton(EPlatform.ANDROID)).cacheDir(cacheDir).build();
+        Result result2 = new AndroidConverter().convert(files.get(0), arg2);
+        assertNull(result2.exception);
+        assertEquals(result.processedFiles.size(), result2.processedFiles.size());
+        assertEquals(cacheSize, OutputCache.get(arg2).getSizeBytes());
+
+        for (File file : result.processedFiles) {
+            File cachedFile = dst2.toPath().resolve(dst.toPath().relativize(file.toPath())).toFile();
+            assertArrayEquals(Files.readAllBytes(file.toPath()), Files.readAllBytes(cachedFile.toPath()));
+        }
+        AndroidConverterTest.checkOutDirAndroid(dst2, arg2, files);
+    }
+
+    @Test
+    public void testPyramidOutputsIndependentOfCachedDensities() throws Exception {
+        File cacheDir = temporaryFolder.newFolder("cache");
+        List<File> files = AConverterTest.copyToTestPath(src, "png_example1_alpha_144.png");
+        File dst2 = temporaryFolder.newFolder("convert-test", "out2");
+
+        Arguments arg = new Arguments.Builder(src, Arguments.DEFAULT_SCALE).dstFolder(dst).platform(Collections.singleton(EPlatform.ANDROID)).enablePyramidScaling(true).cacheDir(cacheDir).build();
+        Result result = new AndroidConverter().convert(files.get(0), arg);
+        assertNull(result.exception);
+
+        // evict every cached density but xhdpi, which a cold run uses as intermediate for mdpi
+        byte[] kept = null;
+        for (File file : result.processedFiles) {
+            if (file.getParentFile().getName().endsWith("-xhdpi")) {
+                kept = Files.readAllBytes(file.toPath());
+            }
+        }
+        assertNotNull(kept);
+        try (Stream<Path> entries = Files.walk(cacheDir.toPath())) {
+            // entries are in sub folders, the lock file is in the root
+            for (Path entry : entries.filter(path -> Files.isRegularFile(path) && !path.getParent().equals(cacheDir.toPath())).collect(Collectors.toList())) {
+                if (!Arrays.equals(kept, Files.readAllBytes(entry))) {
+                    Files.delete(entry);
+                }
+            }
+        }
+
+        Arguments arg2 = new Arguments.Builder(src, Arguments.DEFAULT_SCALE).dstFolder(dst2).platform(Collections.singleton(EPlatform.ANDROID)).enablePyramidScaling(true).cacheDir(cacheDir).build();
+        Result result2 = new AndroidConverter().convert(files.get(0), arg2);
+        assertNull(result2.exception);
+
+        for (File file : result.processedFiles) {
+            File secondFile = dst2.toPath().resolve(dst.toPath().relativize(file.toPath())).toFile();
+            assertArrayEquals(file.toString(), Files.readAllBytes(file.toPath()), Files.readAllBytes(secondFile.toPath()));
+        }
+    }
+
+    @Test
+    public void testCacheSeparatesSubsampledSources() throws Exception {
+        File cacheDir = temporaryFolder.newFolder("cache");
+        List<File> files = AConverterTest.copyToTestPath(src, "jpg_example2_512.jpg");
+        File webOnlyDst = temporaryFolder.newFolder("convert-test", "web");
+        File cachedDst = temporaryFolder.newFolder("convert-test", "cached");
+        File uncachedDst = temporaryFolder.newFolder("convert-test", "uncached");
+        Set<EPlatform> webAndAndroid = new HashSet<>(Arrays.asList(EPlatform.WEB, EPlatform.ANDROID));
+
+        // web alone needs at most 64px and decodes 1/4, with android up to 128px are needed and it decodes 1/2
+        convert(createDpArgs(webOnlyDst, Collections.singleton(EPlatform.WEB), cacheDir));
+        convert(createDpArgs(cachedDst, webAndAndroid, cacheDir));
+        convert(createDpArgs(uncachedDst, webAndAndroid, null));
+
+        List<Path> outputs;
+        try (Stream<Path> paths = Files.walk(uncachedDst.toPath())) {
+            outputs = paths.filter(Files::isRegularFile).collect(Collectors.toList());
+        }
+        assertFalse(outputs.isEmpty());
+        for (Path output : outputs) {
+            Path cachedOutput = cachedDst.toPath().resolve(uncachedDst.toPath().relativize(output));
+            assertArrayEquals(output.toString(), Files.readAllBytes(output), Files.readAllBytes(cachedOutput));
+        }
+    }
+
+    private Arguments createDpArgs(File dstFolder, Set<EPlatform> platforms, File cacheDir) throws Exception {
+        return new Arguments.Builder(src, 32).scaleMode(EScaleMode.DP_WIDTH).dstFolder(dstFolder).platform(platforms).cacheDir(cacheDir).threadCount(2).build();
+    }
+
+    private static void convert(Arguments args) throws Exception {
+        CountDownLatch finished = new CountDownLatch(1);
+        List<Exception> exceptions = new ArrayList<>();
+        new DConvert().execute(args, false, new DConvert.HandlerCallback() {
+            @Override
+            public void onProgress(float progress) {
+            }
+
+            @Override
+            public void onFinished(int finishedJobs, List<Exception> jobExceptions, long time, boolean haltedDuringProcess, String log) {
+                exceptions.addAll(jobExceptions);
+                finished.countDown();
+            }
+        });
+        assertTrue(finished.await(WAIT_SEC, TimeUnit.SECONDS));
+        assertTrue(exceptions.toString(), exceptions.isEmpty());
+    }
+
+    private Arguments createArgs(File cacheDir, int maxMb) throws Exception {
+        return new Arguments.Builder(null, Arguments.DEFAULT_SCALE).cacheDir(cacheDir).cacheMaxMb(maxMb).skipParamValidation(true).build();
+    }
+
+    private File createFile(String name, int size) throws Exception {
+        byte[] content = new byte[size];
+        new Random(name.hashCode()).nextBytes(content);
+        File file = new File(src, name);
+        Files.write(file.toPath(), content);
+        return file;
+    }
+}
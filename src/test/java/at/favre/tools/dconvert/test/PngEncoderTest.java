@@ -0,0 +1,223 @@
+package at.favre.tools.dconvert.test;
+
+import at.favre.tools.dconvert.arg.Arguments;
+import at.favre.tools.dconvert.arg.EPlatform;
+import at.favre.tools.dconvert.arg.EPngFilter;
+import at.favre.tools.dconvert.converters.AndroidConverter;
+import at.favre.tools.dconvert.converters.Result;
+import at.favre.tools.dconvert.converters.postprocessing.PngOptimizerProcessor;
+import at.favre.tools.dconvert.util.PngEncoder;
+import org.junit.Test;
+
+import javax.imageio.ImageIO;
+import java.awt.*;
+import java.awt.color.ColorSpace;
+import java.awt.image.BufferedImage;
+import java.awt.image.ComponentColorModel;
+import java.io.ByteArrayInputStream;
+import java.io.File;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.Collections;
+import java.util.List;
+import java.util.Random;
+
+import static org.junit.Assert.*;
+
+/**
+ * Tests the pure java png encoder and its post processor
+ */
+public class PngEncoderTest extends AIntegrationTest {
+
+    @Test
+    public void testLosslessForImageTypes() throws Exception {
+        int[] types = new int[]{BufferedImage.TYPE_INT_ARGB, BufferedImage.TYPE_INT_RGB, BufferedImage.TYPE_4BYTE_ABGR,
+                BufferedImage.TYPE_3BYTE_BGR, BufferedImage.TYPE_BYTE_GRAY, BufferedImage.TYPE_BYTE_INDEXED};
+        for (int type : types) {
+            BufferedImage image = createImage(type, 67, 41);
+            BufferedImage decoded = ImageIO.read(new ByteArrayInputStream(PngEncoder.encode(image)));
+            assertSamePixels(image, decoded);
+        }
+    }
+
+    @Test
+    public void testChunkedDeflateLosslessForAllOptions() throws Exception {
+        // big enough for multiple deflate chunks
+        BufferedImage image = createImage(BufferedImage.TYPE_INT_ARGB, 420, 310);
+        for (EPngFilter filter : EPngFilter.values()) {
+            for (int level : new int[]{0, 1, 6, 9}) {
+                byte[] png = PngEncoder.encode(image, level, filter);
+                assertSamePixels(image, ImageIO.read(new ByteArrayInputStream(png)));
+                // chunks don't depend on the available parallelism
+                assertArrayEquals(png, PngEncoder.encode(image, level, filter));
+            }
+        }
+    }
+
+    @Test
+    public void testConverterUsesPngOptions() throws Exception {
+        List<File> files = AConverterTest.copyToTestPath(src, "png_example1_alpha_144.png");
+        Arguments arg = new Arguments.Builder(src, Arguments.DEFAULT_SCALE).dstFolder(dst).platform(Collections.singleton(EPlatform.ANDROID))
+                .pngCompression(Arguments.FAST_PNG_COMPRESSION_LEVEL, EPngFilter.SUB).build();
+        Result result = new AndroidConverter().convert(files.get(0), arg);
+        assertNull(result.exception);
+        for (File output : result.processedFiles) {
+            BufferedImage image = ImageIO.read(output);
+            if (image.getWidth() == 144) {
+                // same size as the source, copied as is
+                assertArrayEquals(Files.readAllBytes(files.get(0).toPath()), Files.readAllBytes(output.toPath()));
+            } else {
+                assertArrayEquals(PngEncoder.encode(image, Arguments.FAST_PNG_COMPRESSION_LEVEL, EPngFilter.SUB), Files.readAllBytes(output.toPath()));
+            }
+        }
+        AndroidConverterTest.checkOutDirAndroid(dst, arg, files);
+    }
+
+    @Test
+    public void testReducesColorType() throws Exception {
+        BufferedImage opaque = createImage(BufferedImage.TYPE_INT_RGB, 67, 41);
+        fillGradient(opaque, false, false);
+        assertColorType(opaque, 2, 8);
+
+        BufferedImage gray = new BufferedImage(67, 41, BufferedImage.TYPE_INT_ARGB);
+        fillGradient(gray, true, false);
+        assertColorType(gray, 0, 8);
+
+        BufferedImage grayAlpha = new BufferedImage(67, 41, BufferedImage.TYPE_INT_ARGB);
+        fillGradient(grayAlpha, true, true);
+        assertColorType(grayAlpha, 4, 8);
+
+        BufferedImage rgba = new BufferedImage(67, 41, BufferedImage.TYPE_INT_ARGB);
+        fillGradient(rgba, false, true);
+        assertColorType(rgba, 6, 8);
+    }
+
+    @Test
+    public void testIndexedWithTransparency() throws Exception {
+        int[][] colorSets = new int[][]{{0xffff0000, 0x8000ff00}, {0xffff0000, 0x8000ff00, 0, 0xff0000ff},
+                {0xffff0000, 0x8000ff00, 0, 0xff0000ff, 0xff123456, 0x01abcdef}};
+        int[] expectedBitDepths = new int[]{1, 2, 4};
+        for (int i = 0; i < colorSets.length; i++) {
+            BufferedImage image = new BufferedImage(13, 7, BufferedImage.TYPE_INT_ARGB);
+            Random random = new Random(i);
+            for (int y = 0; y < image.getHeight(); y++) {
+                for (int x = 0; x < image.getWidth(); x++) {
+                    image.setRGB(x, y, colorSets[i][random.nextInt(colorSets[i].length)]);
+                }
+            }
+            byte[] png = assertColorType(image, 3, expectedBitDepths[i]);
+            assertTrue(new String(png, StandardCharsets.ISO_8859_1).contains("tRNS"));
+        }
+    }
+
+    @Test
+    public void testOnlyCriticalChunks() throws Exception {
+        byte[] png = PngEncoder.encode(createImage(BufferedImage.TYPE_INT_ARGB, 10, 10));
+        String content = new String(png, StandardCharsets.ISO_8859_1);
+        assertTrue(content.contains("IHDR"));
+        assertTrue(content.contains("IDAT"));
+        assertTrue(content.contains("IEND"));
+        for (String chunk : new String[]{"tEXt", "gAMA", "cHRM", "iCCP", "sRGB", "pHYs"}) {
+            assertFalse(chunk, content.contains(chunk));
+        }
+    }
+
+    @Test
+    public void testUnsupportedHighBitDepth() throws Exception {
+        assertFalse(PngEncoder.isSupported(new BufferedImage(2, 2, BufferedImage.TYPE_USHORT_GRAY)));
+        assertTrue(PngEncoder.isSupported(new BufferedImage(2, 2, BufferedImage.TYPE_INT_ARGB)));
+    }
+
+    @Test
+    public void testProcessorIsLosslessAndNotLarger() throws Exception {
+        for (String resource : new String[]{"png_example1_alpha_144.png", "png_example4_500.png"}) {
+            File file = AConverterTest.copyToTestPath(src, resource).get(0);
+            BufferedImage original = ImageIO.read(file);
+            long originalSize = file.length();
+
+            Result result = new PngOptimizerProcessor().process(file, false);
+
+            assertNull(result.exception);
+            assertEquals(Collections.singletonList(file), result.processedFiles);
+            assertTrue(file.length() <= originalSize);
+            assertSamePixels(original, ImageIO.read(file));
+        }
+    }
+
+    @Test
+    public void testConverterWritesOptimizedPngs() throws Exception {
+        List<File> files = AConverterTest.copyToTestPath(src, "png_example1_alpha_144.png");
+        Arguments arg = new Arguments.Builder(src, Arguments.DEFAULT_SCALE).dstFolder(dst).platform(Collections.singleton(EPlatform.ANDROID)).enablePngOptimizer(true).build();
+        Result result = new AndroidConverter().convert(files.get(0), arg);
+        assertNull(result.exception);
+        for (File output : result.processedFiles) {
+            // encoding is deterministic, so an output written by the encoder is reproduced exactly
+            assertArrayEquals(PngEncoder.encode(ImageIO.read(output)), Files.readAllBytes(output.toPath()));
+        }
+        AndroidConverterTest.checkOutDirAndroid(dst, arg, files);
+    }
+
+    private static byte[] assertColorType(BufferedImage image, int expectedColorType, int expectedBitDepth) throws Exception {
+        for (byte[] png : new byte[][]{PngEncoder.encode(image), PngEncoder.encode(image, Arguments.DEFAULT_PNG_COMPRESSION_LEVEL, Arguments.DEFAULT_PNG_FILTER)}) {
+            // IHDR data starts after the signature, chunk length and type
+            assertEquals(expectedBitDepth, png[24]);
+            assertEquals(expectedColorType, png[25]);
+            assertSamePixels(image, ImageIO.read(new ByteArrayInputStream(png)));
+        }
+        return PngEncoder.encode(image);
+    }
+
+    private static void fillGradient(BufferedImage image, boolean gray, boolean alpha) {
+        for (int y = 0; y < image.getHeight(); y++) {
+            for (int x = 0; x < image.getWidth(); x++) {
+                int value = (x * 3 + y) & 0xff;
+                int a = alpha ? 0xff - y * 5 : 0xff;
+                int rgb = gray ? value << 16 | value << 8 | value : value << 16 | (y * 6) << 8 | (x * 2);
+                image.setRGB(x, y, a << 24 | rgb);
+            }
+        }
+    }
+
+    private static BufferedImage createImage(int type, int width, int height) {
+        BufferedImage image = new BufferedImage(width, height, type);
+        Graphics2D g = image.createGraphics();
+        g.setColor(new Color(30, 144, 255, 180));
+        g.fillOval(5, 5, width - 10, height - 10);
+        g.setColor(Color.red);
+        g.drawLine(0, 0, width, height);
+        g.dispose();
+
+        Random random = new Random(type);
+        for (int i = 0; i < 50; i++) {
+            image.setRGB(random.nextInt(width), random.nextInt(height), random.nextInt());
+        }
+        return image;
+    }
+
+    private static void assertSamePixels(BufferedImage expected, BufferedImage actual) {
+        assertEquals(expected.getWidth(), actual.getWidth());
+        assertEquals(expected.getHeight(), actual.getHeight());
+        for (int y = 0; y < expected.getHeight(); y++) {
+            for (int x = 0; x < expected.getWidth(); x++) {
+                int expectedPixel = getArgb(expected, x, y);
+                int actualPixel = getArgb(actual, x, y);
+                // color of fully transparent pixels does not matter
+                if ((expectedPixel >>> 24) != 0 || (actualPixel >>> 24) != 0) {
+                    assertEquals("pixel at " + x + "," + y, expectedPixel, actualPixel);
+                }
+            }
+        }
+    }
+
+    /**
+     * getRGB would convert the linear gray of gray images, so these are read from the raster
+     */
+    private static int getArgb(BufferedImage image, int x, int y) {
+        if (image.getColorModel() instanceof ComponentColorModel && image.getColorModel().getColorSpace().getType() == ColorSpace.TYPE_GRAY) {
+            int gray = image.getRaster().getSample(x, y, 0);
+            int alpha = image.getColorModel().hasAlpha() ? image.getRaster().getSample(x, y, 1) : 0xff;
+            return alpha << 24 | gray << 16 | gray << 8 | gray;
+        }
+        return image.getRGB(x, y);
+    }
+}
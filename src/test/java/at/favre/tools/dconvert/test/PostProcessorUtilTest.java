@@ -0,0 +1,71 @@
+package at.favre.tools.dconvert.test;
+
+import at.favre.tools.dconvert.arg.ImageType;
+import at.favre.tools.dconvert.converters.Result;
+import at.favre.tools.dconvert.converters.postprocessing.IPostProcessor;
+import at.favre.tools.dconvert.util.PostProcessorUtil;
+import org.junit.Assume;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.File;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.Arrays;
+import java.util.List;
+
+import static org.junit.Assert.*;
+
+/**
+ * Tests running external post processor tools, with a shell script as tool
+ */
+public class PostProcessorUtilTest extends AIntegrationTest {
+    // appends "optimized" to a copy of every input, named with the given postfix
+    private static final String[] FAKE_TOOL = new String[]{"sh", "-c", "for f in \"$@\"; do cat \"$f\" > \"${f%.*}$0\"; echo optimized >> \"${f%.*}$0\"; done",
+            PostProcessorUtil.OUT_POSTFIX_PLACEHOLDER};
+
+    @Before
+    public void setUp() throws Exception {
+        super.setUp();
+        Assume.assumeTrue(PostProcessorUtil.canRunCmd(new String[]{"sh", "-c", "true"}));
+    }
+
+    @Test
+    public void testBatchReplacesEveryFile() throws Exception {
+        // same name in different folders, like the densities of one source
+        List<File> files = Arrays.asList(createFile("mdpi", "icon.png"), createFile("hdpi", "icon.png"), createFile("hdpi", "photo.jpg"));
+
+        List<Result> results = PostProcessorUtil.runBatchImageOptimizer(files, ImageType.PNG, FAKE_TOOL, false);
+
+        assertEquals(files.size(), results.size());
+        assertNull("other type should be skipped", results.get(2));
+        for (int i = 0; i < 2; i++) {
+            assertNull(results.get(i).exception);
+            assertEquals(files.subList(i, i + 1), results.get(i).processedFiles);
+            assertEquals(files.get(i).getParentFile().getName() + "\noptimized\n", new String(Files.readAllBytes(files.get(i).toPath()), StandardCharsets.UTF_8));
+            assertEquals(0, files.get(i).getParentFile().list((dir, name) -> name.contains("_optimized_")).length);
+        }
+    }
+
+    @Test
+    public void testBatchKeepsOriginal() throws Exception {
+        List<File> files = Arrays.asList(createFile("mdpi", "icon.png"), createFile("mdpi", "icon2.png"));
+
+        List<Result> results = PostProcessorUtil.runBatchImageOptimizer(files, ImageType.PNG, FAKE_TOOL, true);
+
+        for (int i = 0; i < files.size(); i++) {
+            File orig = new File(dst, "mdpi/" + files.get(i).getName().replace(".png", IPostProcessor.ORIG_POSTFIX + ".png"));
+            assertEquals(Arrays.asList(orig, files.get(i)), results.get(i).processedFiles);
+            assertEquals("mdpi\n", new String(Files.readAllBytes(orig.toPath()), StandardCharsets.UTF_8));
+            assertEquals("mdpi\noptimized\n", new String(Files.readAllBytes(files.get(i).toPath()), StandardCharsets.UTF_8));
+        }
+    }
+
+    private File createFile(String folder, String name) throws Exception {
+        File dir = new File(dst, folder);
+        dir.mkdirs();
+        File file = new File(dir, name);
+        Files.write(file.toPath(), (folder + "\n").getBytes(StandardCharsets.UTF_8));
+        return file;
+    }
+}
@@ -0,0 +1,110 @@
+package at.favre.tools.dconvert.test;
+
+import at.favre.tools.dconvert.arg.EScalingAlgorithm;
+import at.favre.tools.dconvert.converters.scaling.PostScaleOp;
+import at.favre.tools.dconvert.converters.scaling.ScaleAlgorithm;
+import at.favre.tools.dconvert.converters.scaling.StreamingScaler;
+import org.junit.Test;
+
+import javax.imageio.ImageIO;
+import java.awt.*;
+import java.awt.image.BufferedImage;
+import java.awt.image.ConvolveOp;
+import java.awt.image.Kernel;
+import java.io.File;
+import java.util.List;
+
+import static org.junit.Assert.*;
+
+/**
+ * Tests the single pass flatten and anti-alias against drawImage and ConvolveOp and applied while scaling
+ */
+public class PostScaleOpTest extends AIntegrationTest {
+    private static final ConvolveOp OP_ANTIALIAS = new ConvolveOp(new Kernel(3, 3, new float[]{.0f, .08f, .0f, .08f, .68f, .08f, .0f, .08f, .0f}), ConvolveOp.EDGE_NO_OP, null);
+
+    @Test
+    public void testSameAsDrawAndConvolve() throws Exception {
+        for (File file : AConverterTest.copyToTestPath(src, "png_example1_alpha_144.png", "jpg_example2_512.jpg")) {
+            BufferedImage image = ImageIO.read(file);
+            BufferedImage flattened = flatten(image);
+
+            assertSimilar(flattened, new PostScaleOp(Color.white, false).filter(image));
+            assertSimilar(OP_ANTIALIAS.filter(flattened, null), new PostScaleOp(Color.white, true).filter(image));
+            assertSimilar(OP_ANTIALIAS.filter(toArgb(image), null), new PostScaleOp(null, true).filter(toArgb(image)));
+        }
+    }
+
+    @Test
+    public void testUnchangedImageNotCopied() throws Exception {
+        BufferedImage image = ImageIO.read(AConverterTest.copyToTestPath(src, "png_example1_alpha_144.png").get(0));
+        assertSame(image, PostScaleOp.NONE.filter(image));
+        BufferedImage flattened = flatten(image);
+        assertSame(flattened, new PostScaleOp(Color.white, false).filter(flattened));
+        assertNotSame(flattened, new PostScaleOp(Color.white, true).filter(flattened));
+    }
+
+    @Test
+    public void testAppliedWhileScaling() throws Exception {
+        List<File> files = AConverterTest.copyToTestPath(src, "png_example1_alpha_144.png", "jpg_example2_512.jpg");
+        PostScaleOp[] ops = {new PostScaleOp(Color.white, true), new PostScaleOp(Color.white, false), new PostScaleOp(null, true)};
+
+        for (File file : files) {
+            BufferedImage image = ImageIO.read(file);
+            StreamingScaler streamingScaler = new StreamingScaler(file, new Dimension(image.getWidth(), image.getHeight()), 1, image.getColorModel().hasAlpha());
+
+            for (EScalingAlgorithm algorithm : new EScalingAlgorithm[]{EScalingAlgorithm.LANCZOS3_FAST, EScalingAlgorithm.AREA_AVERAGE, EScalingAlgorithm.LANCZOS3}) {
+                ScaleAlgorithm implementation = algorithm.getImplementation();
+                for (Dimension target : new Dimension[]{new Dimension(image.getWidth() / 4, image.getHeight() / 4),
+                        new Dimension(image.getWidth() / 3 + 1, image.getHeight() / 2 - 1), new Dimension(1100, 1100)}) {
+                    if (!algorithm.getSupportedForType().contains(target.width > image.getWidth() ? EScalingAlgorithm.Type.UPSCALING : EScalingAlgorithm.Type.DOWNSCALING)) {
+                        continue;
+                    }
+                    BufferedImage scaled = implementation.scale(image, target.width, target.height);
+                    for (PostScaleOp op : ops) {
+                        assertSamePixels(op.filter(scaled), implementation.scale(image, target.width, target.height, op));
+                        if (algorithm == EScalingAlgorithm.LANCZOS3_FAST) {
+                            assertSamePixels(op.filter(scaled), streamingScaler.scale(implementation, target.width, target.height, op));
+                        }
+                    }
+                }
+            }
+        }
+    }
+
+    private static BufferedImage flatten(BufferedImage image) {
+        BufferedImage flattened = new BufferedImage(image.getWidth(), image.getHeight(), BufferedImage.TYPE_INT_RGB);
+        flattened.getGraphics().drawImage(image, 0, 0, Color.white, null);
+        return flattened;
+    }
+
+    private static BufferedImage toArgb(BufferedImage image) {
+        BufferedImage argb = new BufferedImage(image.getWidth(), image.getHeight(), BufferedImage.TYPE_INT_ARGB);
+        argb.getGraphics().drawImage(image, 0, 0, null);
+        return argb;
+    }
+
+    private static void assertSimilar(BufferedImage expected, BufferedImage actual) {
+        assertEquals(expected.getWidth(), actual.getWidth());
+        assertEquals(expected.getHeight(), actual.getHeight());
+        for (int y = 0; y < expected.getHeight(); y++) {
+            for (int x = 0; x < expected.getWidth(); x++) {
+                int e = expected.getRGB(x, y);
+                int a = actual.getRGB(x, y);
+                for (int shift = 0; shift < 32; shift += 8) {
+                    assertTrue("pixel " + x + "," + y + ": " + Integer.toHexString(e) + " vs " + Integer.toHexString(a),
+                            Math.abs(((e >> shift) & 0xFF) - ((a >> shift) & 0xFF)) <= 1);
+                }
+            }
+        }
+    }
+
+    private static void assertSamePixels(BufferedImage expected, BufferedImage actual) {
+        assertEquals(expected.getWidth(), actual.getWidth());
+        assertEquals(expected.getHeight(), actual.getHeight());
+        for (int y = 0; y < expected.getHeight(); y++) {
+            for (int x = 0; x < expected.getWidth(); x++) {
+                assertEquals("pixel " + x + "," + y, expected.getRGB(x, y), actual.getRGB(x, y));
+            }
+        }
+    }
+}
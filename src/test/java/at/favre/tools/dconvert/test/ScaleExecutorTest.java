@@ -0,0 +1,88 @@
+package at.favre.tools.dconvert.test;
+
+import at.favre.tools.dconvert.converters.scaling.ScaleExecutor;
+import at.favre.tools.dconvert.util.ParallelismBudget;
+import org.junit.Assume;
+import org.junit.Test;
+
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicIntegerArray;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.fail;
+
+/**
+ * Tests band splitting and the parallelism accounting
+ */
+public class ScaleExecutorTest {
+
+    @Test
+    public void testBandsCoverAllRowsOnce() throws Exception {
+        for (int rows : new int[]{1, 7, 100, 4099}) {
+            AtomicIntegerArray visited = new AtomicIntegerArray(rows);
+            ScaleExecutor.forEachBand(rows, 4096, (fromRow, toRow) -> {
+                for (int i = fromRow; i < toRow; i++) {
+                    visited.incrementAndGet(i);
+                }
+            });
+
+            for (int i = 0; i < rows; i++) {
+                assertEquals("row " + i + " of " + rows, 1, visited.get(i));
+            }
+        }
+        assertEquals(0, ParallelismBudget.getInUse());
+    }
+
+    @Test
+    public void testFailedBandWaitsForForkedBands() throws Exception {
+        Assume.assumeTrue(ParallelismBudget.getCapacity() > 1);
+        AtomicInteger running = new AtomicInteger();
+        try {
+            ScaleExecutor.forEachBand(4000, 4000, (fromRow, toRow) -> {
+                if (fromRow == 0) {
+                    throw new IllegalStateException("mock failure");
+                }
+                running.incrementAndGet();
+                try {
+                    Thread.sleep(200);
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+                running.decrementAndGet();
+            });
+            fail("expected the failure of the own band");
+        } catch (IllegalStateException e) {
+            assertEquals(0, running.get());
+        }
+        assertEquals(0, ParallelismBudget.getInUse());
+    }
+
+    @Test
+    public void testNoExtraThreadsIfBudgetExhausted() throws Exception {
+        for (int i = 0; i < ParallelismBudget.getCapacity(); i++) {
+            ParallelismBudget.register();
+        }
+        try {
+            assertEquals(0, ParallelismBudget.tryAcquire(4));
+            int threads = ScaleExecutor.acquireThreads(4000, 4000);
+            assertEquals(1, threads);
+            ScaleExecutor.releaseThreads(threads);
+
+            Thread caller = Thread.currentThread();
+            ScaleExecutor.forEachBand(4000, 4000, (fromRow, toRow) -> assertEquals(caller, Thread.currentThread()));
+        } finally {
+            ParallelismBudget.release(ParallelismBudget.getCapacity());
+        }
+        assertEquals(0, ParallelismBudget.getInUse());
+    }
+
+    @Test
+    public void testAcquireNeverExceedsCapacity() throws Exception {
+        int granted = ParallelismBudget.tryAcquire(Integer.MAX_VALUE);
+        try {
+            assertEquals(ParallelismBudget.getCapacity(), granted);
+        } finally {
+            ParallelismBudget.release(granted);
+        }
+    }
+}
@@ -0,0 +1,76 @@
+package at.favre.tools.dconvert.test;
+
+import at.favre.tools.dconvert.converters.scaling.ResampleAlgorithm;
+import at.favre.tools.dconvert.converters.scaling.SeparableResampleAlgorithm;
+import at.favre.tools.dconvert.util.ImageUtil;
+import org.junit.Test;
+
+import java.awt.image.BufferedImage;
+import java.io.File;
+
+import static org.junit.Assert.*;
+
+/**
+ * Tests the primitive array resampler against the reference implementation
+ */
+public class SeparableResampleAlgorithmTest extends AIntegrationTest {
+
+    @Test
+    public void testDownscaleMatchesReference() throws Exception {
+        compareToReference(AConverterTest.copyToTestPath(src, "png_example1_alpha_144.png").get(0), 48, 48);
+        compareToReference(AConverterTest.copyToTestPath(src, "jpg_example2_512.jpg").get(0), 171, 100);
+    }
+
+    @Test
+    public void testUpscaleMatchesReference() throws Exception {
+        compareToReference(AConverterTest.copyToTestPath(src, "png_example1_alpha_144.png").get(0), 300, 300);
+    }
+
+    @Test
+    public void testFullyTransparentStaysTransparent() throws Exception {
+        BufferedImage image = new BufferedImage(64, 64, BufferedImage.TYPE_INT_ARGB);
+        BufferedImage scaled = new SeparableResampleAlgorithm(new ResampleAlgorithm.LanczosFilter(3)).scale(image, 21, 17);
+
+        assertEquals(21, scaled.getWidth());
+        assertEquals(17, scaled.getHeight());
+        for (int y = 0; y < scaled.getHeight(); y++) {
+            for (int x = 0; x < scaled.getWidth(); x++) {
+                assertEquals(0, scaled.getRGB(x, y));
+            }
+        }
+    }
+
+    @Test
+    public void testContributionsAreCached() throws Exception {
+        SeparableResampleAlgorithm algorithm = new SeparableResampleAlgorithm(new ResampleAlgorithm.LanczosFilter(3));
+        algorithm.scale(new BufferedImage(97, 97, BufferedImage.TYPE_INT_RGB), 13, 13);
+        int cached = SeparableResampleAlgorithm.getCachedContributionCount();
+        algorithm.scale(new BufferedImage(97, 97, BufferedImage.TYPE_INT_RGB), 13, 13);
+        assertEquals(cached, SeparableResampleAlgorithm.getCachedContributionCount());
+    }
+
+    private static void compareToReference(File file, int width, int height) throws Exception {
+        BufferedImage src = ImageUtil.loadImage(file).getImage();
+        BufferedImage reference = new ResampleAlgorithm(new ResampleAlgorithm.LanczosFilter(3)).scale(src, width, height);
+        BufferedImage actual = new SeparableResampleAlgorithm(new ResampleAlgorithm.LanczosFilter(3)).scale(src, width, height);
+
+        assertEquals(width, actual.getWidth());
+        assertEquals(height, actual.getHeight());
+
+        long diff = 0;
+        for (int y = 0; y < height; y++) {
+            for (int x = 0; x < width; x++) {
+                int a = reference.getRGB(x, y);
+                int b = actual.getRGB(x, y);
+                if ((a >>> 24) == 0 && (b >>> 24) == 0) {
+                    continue;
+                }
+                for (int shift = 0; shift < 32; shift += 8) {
+                    diff += Math.abs(((a >> shift) & 0xFF) - ((b >> shift) & 0xFF));
+                }
+            }
+        }
+        double meanDiff = (double) diff / (width * height * 4);
+        assertTrue("mean channel difference too big: " + meanDiff, meanDiff < 3.0);
+    }
+}
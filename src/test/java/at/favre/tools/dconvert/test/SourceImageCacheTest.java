@@ -0,0 +1,124 @@
+package at.favre.tools.dconvert.test;
+
+import at.favre.tools.dconvert.arg.Arguments;
+import at.favre.tools.dconvert.arg.EPlatform;
+import at.favre.tools.dconvert.arg.EScaleMode;
+import at.favre.tools.dconvert.converters.AndroidConverter;
+import at.favre.tools.dconvert.converters.Result;
+import at.favre.tools.dconvert.util.ImageUtil;
+import at.favre.tools.dconvert.util.LoadedImage;
+import at.favre.tools.dconvert.util.SourceImageCache;
+import org.junit.Test;
+
+import java.awt.*;
+import java.io.File;
+import java.util.Collections;
+import java.util.List;
+
+import static org.junit.Assert.*;
+
+/**
+ * Tests the shared decoded source cache
+ */
+public class SourceImageCacheTest extends AIntegrationTest {
+
+    @Test
+    public void testSameInstanceWhileReferenced() throws Exception {
+        File file = AConverterTest.copyToTestPath(src, "png_example1_alpha_144.png").get(0);
+
+        LoadedImage first = SourceImageCache.acquire(file);
+        LoadedImage second = SourceImageCache.acquire(file);
+        assertSame(first, second);
+
+        SourceImageCache.release(file);
+        SourceImageCache.release(file);
+        assertEquals(0, SourceImageCache.size());
+    }
+
+    @Test
+    public void testRetainKeepsImageBetweenUsers() throws Exception {
+        List<File> files = AConverterTest.copyToTestPath(src, "png_example1_alpha_144.png", "jpg_example2_512.jpg");
+        File file = files.get(0);
+
+        SourceImageCache.retain(file);
+        LoadedImage first = SourceImageCache.acquire(file);
+        SourceImageCache.release(file);
+        LoadedImage second = SourceImageCache.acquire(file);
+        SourceImageCache.release(file);
+        assertSame(first, second);
+
+        SourceImageCache.release(file);
+        assertEquals(0, SourceImageCache.size());
+    }
+
+    @Test
+    public void testEvictedAfterLastRelease() throws Exception {
+        File file = AConverterTest.copyToTestPath(src, "png_example1_alpha_144.png").get(0);
+
+        LoadedImage first = SourceImageCache.acquire(file);
+        SourceImageCache.release(file);
+        LoadedImage second = SourceImageCache.acquire(file);
+        SourceImageCache.release(file);
+
+        assertNotSame(first, second);
+        assertEquals(0, SourceImageCache.size());
+    }
+
+    @Test
+    public void testModifiedFileIsDecodedAgain() throws Exception {
+        File file = AConverterTest.copyToTestPath(src, "png_example1_alpha_144.png").get(0);
+
+        LoadedImage first = SourceImageCache.acquire(file);
+        assertTrue(file.setLastModified(file.lastModified() - 10_000));
+        LoadedImage second = SourceImageCache.acquire(file);
+        assertNotSame(first, second);
+
+        SourceImageCache.release(file);
+        SourceImageCache.release(file);
+        assertEquals(0, SourceImageCache.size());
+    }
+
+    @Test
+    public void testSubsampledDecode() throws Exception {
+        File file = AConverterTest.copyToTestPath(src, "jpg_example_1920.jpg").get(0);
+        Dimension full = ImageUtil.getImageDimension(file);
+
+        LoadedImage image = ImageUtil.loadImage(file, srcDimension -> new Dimension(srcDimension.width / 8, srcDimension.height / 8));
+        assertEquals(4, image.getSubsampling());
+        assertEquals(full, image.getSourceDimension());
+        assertEquals((full.width + 3) / 4, image.getImage().getWidth());
+        assertEquals((full.height + 3) / 4, image.getImage().getHeight());
+
+        // not enough headroom
+        assertEquals(1, ImageUtil.loadImage(file, srcDimension -> new Dimension(srcDimension.width / 3, srcDimension.height / 3)).getSubsampling());
+        assertEquals(1, ImageUtil.loadImage(file, null).getSubsampling());
+    }
+
+    @Test
+    public void testTooCoarseImageIsDecodedAgain() throws Exception {
+        File file = AConverterTest.copyToTestPath(src, "jpg_example_1920.jpg").get(0);
+
+        LoadedImage coarse = SourceImageCache.acquire(file, srcDimension -> new Dimension(srcDimension.width / 8, srcDimension.height / 8));
+        LoadedImage smallerTarget = SourceImageCache.acquire(file, srcDimension -> new Dimension(srcDimension.width / 16, srcDimension.height / 16));
+        assertSame(coarse, smallerTarget);
+
+        LoadedImage full = SourceImageCache.acquire(file);
+        assertNotSame(coarse, full);
+        assertEquals(1, full.getSubsampling());
+
+        SourceImageCache.release(file);
+        SourceImageCache.release(file);
+        SourceImageCache.release(file);
+        assertEquals(0, SourceImageCache.size());
+    }
+
+    @Test
+    public void testConverterOutputOfSubsampledSource() throws Exception {
+        List<File> files = AConverterTest.copyToTestPath(src, "jpg_example_1920.jpg");
+        Arguments arg = new Arguments.Builder(src, 48).scaleMode(EScaleMode.DP_WIDTH).dstFolder(dst).platform(Collections.singleton(EPlatform.ANDROID)).build();
+        Result result = new AndroidConverter().convert(files.get(0), arg);
+        assertNull(result.exception);
+        assertTrue(result.log.contains("decoded subsampled"));
+        AndroidConverterTest.checkOutDirAndroid(dst, arg, files);
+    }
+}
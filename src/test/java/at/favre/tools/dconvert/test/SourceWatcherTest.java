@@ -0,0 +1,121 @@
+package at.favre.tools.dconvert.test;
+
+import at.favre.tools.dconvert.DConvert;
+import at.favre.tools.dconvert.SourceWatcher;
+import at.favre.tools.dconvert.arg.Arguments;
+import at.favre.tools.dconvert.arg.EPlatform;
+import org.junit.Test;
+
+import java.io.File;
+import java.nio.file.Files;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.function.BooleanSupplier;
+
+import static org.junit.Assert.*;
+
+/**
+ * Tests the watch mode
+ */
+public class SourceWatcherTest extends AIntegrationTest {
+
+    @Test
+    public void testConvertsNewAndRemovesDeletedSources() throws Exception {
+        AConverterTest.copyToTestPath(src, "png_example1_alpha_144.png");
+        Arguments arg = new Arguments.Builder(src, Arguments.DEFAULT_SCALE).platform(Collections.singleton(EPlatform.ANDROID)).dstFolder(dst).watch(true).threadCount(2).build();
+        TestCallback callback = new TestCallback();
+
+        new DConvert().execute(arg, true, callback);
+        File existingOutput = new File(dst, "drawable-mdpi/png_example1_alpha_144.png");
+        assertTrue(existingOutput.exists());
+
+        SourceWatcher watcher = new SourceWatcher(arg, callback);
+        Thread watchThread = new Thread(() -> {
+            try {
+                watcher.watch();
+            } catch (Exception e) {
+                e.printStackTrace();
+            }
+        });
+        watchThread.start();
+
+        try {
+            Thread.sleep(300);
+            Files.copy(new File(AConverterTest.class.getClassLoader().getResource("jpg_example2_512.jpg").getFile()).toPath(), new File(src, "jpg_example2_512.jpg").toPath());
+            File newOutput = new File(dst, "drawable-mdpi/jpg_example2_512.jpg");
+            assertTrue("new source should be converted", waitFor(newOutput::exists));
+
+            assertTrue(new File(src, "png_example1_alpha_144.png").delete());
+            assertTrue("outputs of removed source should be deleted", waitFor(() -> !existingOutput.exists()));
+            assertTrue(waitFor(() -> callback.removed.size() == 1));
+            assertTrue(newOutput.exists());
+        } finally {
+            watcher.stop();
+            watchThread.join(WAIT_SEC * 1000);
+        }
+        assertFalse(watchThread.isAlive());
+    }
+
+    @Test
+    public void testCleanOnlyOnInitialRun() throws Exception {
+        AConverterTest.copyToTestPath(src, "png_example1_alpha_144.png");
+        Arguments arg = new Arguments.Builder(src, Arguments.DEFAULT_SCALE).platform(Collections.singleton(EPlatform.ANDROID)).dstFolder(dst)
+                .watch(true).clearDirBeforeConvert(true).threadCount(2).build();
+        TestCallback callback = new TestCallback();
+
+        new DConvert().execute(arg, true, callback);
+        File existingOutput = new File(dst, "drawable-mdpi/png_example1_alpha_144.png");
+        assertTrue(existingOutput.exists());
+
+        SourceWatcher watcher = new SourceWatcher(arg, callback);
+        Thread watchThread = new Thread(() -> {
+            try {
+                watcher.watch();
+            } catch (Exception e) {
+                e.printStackTrace();
+            }
+        });
+        watchThread.start();
+
+        try {
+            Thread.sleep(300);
+            Files.copy(new File(AConverterTest.class.getClassLoader().getResource("jpg_example2_512.jpg").getFile()).toPath(), new File(src, "jpg_example2_512.jpg").toPath());
+            assertTrue("new source should be converted", waitFor(new File(dst, "drawable-mdpi/jpg_example2_512.jpg")::exists));
+            assertTrue("outputs of other sources must not be cleaned", existingOutput.exists());
+        } finally {
+            watcher.stop();
+            watchThread.join(WAIT_SEC * 1000);
+        }
+    }
+
+    private static boolean waitFor(BooleanSupplier condition) throws InterruptedException {
+        long endMs = System.currentTimeMillis() + WAIT_SEC * 1000;
+        while (System.currentTimeMillis() < endMs) {
+            if (condition.getAsBoolean()) {
+                return true;
+            }
+            Thread.sleep(50);
+        }
+        return false;
+    }
+
+    private static class TestCallback implements SourceWatcher.Callback {
+        private final List<File> removed = new CopyOnWriteArrayList<>();
+
+        @Override
+        public void onProgress(float progress) {
+        }
+
+        @Override
+        public void onFinished(int finishedJobs, List<Exception> exceptions, long time, boolean haltedDuringProcess, String log) {
+            assertTrue(exceptions.isEmpty());
+        }
+
+        @Override
+        public void onSourceRemoved(File source, List<File> deletedOutputs) {
+            removed.add(source);
+            assertFalse(deletedOutputs.isEmpty());
+        }
+    }
+}
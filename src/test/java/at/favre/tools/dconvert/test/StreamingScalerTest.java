@@ -0,0 +1,135 @@
+package at.favre.tools.dconvert.test;
+
+import at.favre.tools.dconvert.arg.Arguments;
+import at.favre.tools.dconvert.arg.EScalingAlgorithm;
+import at.favre.tools.dconvert.converters.scaling.ImageHandler;
+import at.favre.tools.dconvert.converters.scaling.ScaleAlgorithm;
+import at.favre.tools.dconvert.converters.scaling.StreamingScaler;
+import at.favre.tools.dconvert.util.ImageUtil;
+import at.favre.tools.dconvert.util.LoadedImage;
+import org.junit.Test;
+
+import javax.imageio.ImageIO;
+import javax.imageio.ImageReadParam;
+import javax.imageio.ImageReader;
+import javax.imageio.stream.ImageInputStream;
+import java.awt.*;
+import java.awt.image.BufferedImage;
+import java.io.File;
+import java.util.List;
+
+import static org.junit.Assert.*;
+
+/**
+ * Tests scaling in strips against scaling the decoded image
+ */
+public class StreamingScalerTest extends AIntegrationTest {
+    private static final int STRIP_ROWS = 7;
+
+    @Test
+    public void testSameAsDecodedScaling() throws Exception {
+        List<File> files = AConverterTest.copyToTestPath(src, "png_example1_alpha_144.png", "jpg_example2_512.jpg", "tiff_example_256.tif");
+        ScaleAlgorithm algorithm = EScalingAlgorithm.LANCZOS3_FAST.getImplementation();
+
+        for (File file : files) {
+            BufferedImage decoded = ImageIO.read(file);
+            StreamingScaler scaler = createScaler(file, decoded, 1);
+
+            for (Dimension target : new Dimension[]{new Dimension(decoded.getWidth() / 3, decoded.getHeight() / 3),
+                    new Dimension(decoded.getWidth() * 2 + 1, decoded.getHeight() + 5)}) {
+                assertSamePixels(algorithm.scale(decoded, target.width, target.height), scaler.scale(algorithm, target.width, target.height));
+            }
+        }
+    }
+
+    @Test
+    public void testPlannedTargetsScaledInOnePass() throws Exception {
+        File file = AConverterTest.copyToTestPath(src, "jpg_example2_512.jpg").get(0);
+        BufferedImage decoded = ImageIO.read(file);
+        ScaleAlgorithm algorithm = EScalingAlgorithm.LANCZOS3_FAST.getImplementation();
+        Dimension[] targets = {new Dimension(170, 113), new Dimension(97, 64), new Dimension(600, 400)};
+
+        StreamingScaler single = createScaler(file, decoded, 1);
+        single.scale(algorithm, targets[0].width, targets[0].height);
+        int stripsPerPass = single.getStripReads();
+        assertTrue(stripsPerPass > 1);
+
+        StreamingScaler planned = createScaler(file, decoded, 1);
+        for (Dimension target : targets) {
+            planned.plan(algorithm, target.width, target.height);
+        }
+        for (Dimension target : targets) {
+            assertSamePixels(algorithm.scale(decoded, target.width, target.height), planned.scale(algorithm, target.width, target.height));
+        }
+        assertEquals(stripsPerPass, planned.getStripReads());
+    }
+
+    @Test
+    public void testSequentialFormatStripsBounded() throws Exception {
+        File file = AConverterTest.copyToTestPath(src, "png_example1_alpha_144.png").get(0);
+        assertTrue(StreamingScaler.getStripRows(file, 144, 144, 144 * 4) * StreamingScaler.MAX_SEQUENTIAL_STRIPS >= 144);
+        assertEquals(5, StreamingScaler.getStripRows(new File(file.getParentFile(), "strips.tif"), 144, 144, 144 * 4 * 5));
+
+        StreamingScaler scaler = new StreamingScaler(file, new Dimension(144, 144), 1, true, 144 * 4);
+        scaler.scale(EScalingAlgorithm.LANCZOS3_FAST.getImplementation(), 48, 48);
+        assertTrue(scaler.getStripReads() <= StreamingScaler.MAX_SEQUENTIAL_STRIPS);
+    }
+
+    @Test
+    public void testSubsampled() throws Exception {
+        File file = AConverterTest.copyToTestPath(src, "jpg_example2_512.jpg").get(0);
+        BufferedImage subsampled = readSubsampled(file, 3);
+        StreamingScaler scaler = createScaler(file, ImageIO.read(file), 3);
+        assertEquals(subsampled.getWidth(), scaler.getWidth());
+        assertEquals(subsampled.getHeight(), scaler.getHeight());
+        assertSamePixels(subsampled, scaler.read());
+
+        ScaleAlgorithm algorithm = EScalingAlgorithm.MITCHELL_FAST.getImplementation();
+        assertSamePixels(algorithm.scale(subsampled, 61, 37), scaler.scale(algorithm, 61, 37));
+    }
+
+    @Test
+    public void testImageHandlerScalesStreamed() throws Exception {
+        File file = AConverterTest.copyToTestPath(src, "png_example1_alpha_144.png").get(0);
+        Arguments args = new Arguments.Builder(src, Arguments.DEFAULT_SCALE).dstFolder(dst).downScaleAlgorithm(EScalingAlgorithm.LANCZOS3_FAST).build();
+        Dimension target = new Dimension(48, 48);
+
+        List<File> decodedFiles = new ImageHandler(args).saveToFile(new File(dst, "decoded"), ImageUtil.loadImage(file), target, false);
+        LoadedImage streamed = new LoadedImage(file, createScaler(file, ImageIO.read(file), 1), null);
+        List<File> streamedFiles = new ImageHandler(args).saveToFile(new File(dst, "streamed"), streamed, target, false);
+
+        assertEquals(1, streamedFiles.size());
+        assertSamePixels(ImageIO.read(decodedFiles.get(0)), ImageIO.read(streamedFiles.get(0)));
+        assertEquals(new Dimension(144, 144), streamed.getSourceDimension());
+        assertEquals(144, streamed.getImage().getWidth());
+    }
+
+    private static StreamingScaler createScaler(File file, BufferedImage decoded, int subsampling) {
+        return new StreamingScaler(file, new Dimension(decoded.getWidth(), decoded.getHeight()), subsampling,
+                decoded.getColorModel().hasAlpha(), decoded.getWidth() * 4 * STRIP_ROWS);
+    }
+
+    private static BufferedImage readSubsampled(File file, int subsampling) throws Exception {
+        try (ImageInputStream stream = ImageIO.createImageInputStream(file)) {
+            ImageReader reader = ImageIO.getImageReaders(stream).next();
+            try {
+                reader.setInput(stream);
+                ImageReadParam param = reader.getDefaultReadParam();
+                param.setSourceSubsampling(subsampling, subsampling, 0, 0);
+                return reader.read(0, param);
+            } finally {
+                reader.dispose();
+            }
+        }
+    }
+
+    private static void assertSamePixels(BufferedImage expected, BufferedImage actual) {
+        assertEquals(expected.getWidth(), actual.getWidth());
+        assertEquals(expected.getHeight(), actual.getHeight());
+        for (int y = 0; y < expected.getHeight(); y++) {
+            for (int x = 0; x < expected.getWidth(); x++) {
+                assertEquals("pixel " + x + "," + y, expected.getRGB(x, y), actual.getRGB(x, y));
+            }
+        }
+    }
+}
@@ -0,0 +1,85 @@
+package at.favre.tools.dconvert.test;
+
+import at.favre.tools.dconvert.arg.Arguments;
+import at.favre.tools.dconvert.arg.EPlatform;
+import at.favre.tools.dconvert.converters.AndroidConverter;
+import at.favre.tools.dconvert.converters.Result;
+import at.favre.tools.dconvert.util.ImageUtil;
+import at.favre.tools.dconvert.util.LoadedImage;
+import at.favre.tools.dconvert.util.SvgRenderer;
+import org.junit.Test;
+
+import javax.imageio.ImageIO;
+import java.awt.*;
+import java.awt.image.BufferedImage;
+import java.io.File;
+import java.util.Collections;
+import java.util.List;
+
+import static org.junit.Assert.*;
+
+/**
+ * Tests rendering svgs directly at the target size
+ */
+public class SvgRendererTest extends AIntegrationTest {
+
+    @Test
+    public void testIntrinsicSizeSameAsReader() throws Exception {
+        File svg = AConverterTest.copyToTestPath(src, "svg_example_512.svg").get(0);
+        SvgRenderer renderer = SvgRenderer.parse(svg);
+        assertEquals(ImageUtil.getImageDimension(svg), renderer.getDimension());
+
+        LoadedImage loadedImage = ImageUtil.loadImage(svg);
+        assertNotNull(loadedImage.getVectorSource());
+        assertEquals(renderer.getDimension(), loadedImage.getSourceDimension());
+        assertTrue(meanDifference(ImageIO.read(svg), loadedImage.getImage()) < 1);
+    }
+
+    @Test
+    public void testRenderedAtTargetSize() throws Exception {
+        File svg = AConverterTest.copyToTestPath(src, "svg_example_512.svg").get(0);
+        SvgRenderer renderer = SvgRenderer.parse(svg);
+        BufferedImage intrinsic = renderer.render(renderer.getDimension());
+
+        for (Dimension dimension : new Dimension[]{new Dimension(48, 48), new Dimension(1200, 1200)}) {
+            BufferedImage rendered = renderer.render(dimension);
+            assertEquals(dimension.width, rendered.getWidth());
+            assertEquals(dimension.height, rendered.getHeight());
+            assertTrue(meanDifference(scale(intrinsic, dimension), rendered) < 8);
+        }
+    }
+
+    @Test
+    public void testConverterRendersPerDensity() throws Exception {
+        List<File> files = AConverterTest.copyToTestPath(src, "svg_example_512.svg");
+        Arguments arg = new Arguments.Builder(src, Arguments.DEFAULT_SCALE).dstFolder(dst).platform(Collections.singleton(EPlatform.ANDROID)).build();
+        Result result = new AndroidConverter().convert(files.get(0), arg);
+        assertNull(result.exception);
+        assertTrue(result.log.contains("rendered from vector source"));
+        AndroidConverterTest.checkOutDirAndroid(dst, arg, files);
+    }
+
+    private static BufferedImage scale(BufferedImage image, Dimension dimension) {
+        BufferedImage scaled = new BufferedImage(dimension.width, dimension.height, BufferedImage.TYPE_INT_ARGB);
+        Graphics2D g = scaled.createGraphics();
+        g.drawImage(image.getScaledInstance(dimension.width, dimension.height, Image.SCALE_AREA_AVERAGING), 0, 0, null);
+        g.dispose();
+        return scaled;
+    }
+
+    private static double meanDifference(BufferedImage expected, BufferedImage actual) {
+        assertEquals(expected.getWidth(), actual.getWidth());
+        assertEquals(expected.getHeight(), actual.getHeight());
+        long sum = 0;
+        for (int y = 0; y < expected.getHeight(); y++) {
+            for (int x = 0; x < expected.getWidth(); x++) {
+                int e = expected.getRGB(x, y);
+                int a = actual.getRGB(x, y);
+                for (int shift = 0; shift < 32; shift += 8) {
+                    sum += Math.abs(((e >> shift) & 0xFF) - ((a >> shift) & 0xFF));
+                }
+            }
+        }
+        return sum / (expected.getWidth() * expected.getHeight() * 4.0);
+    }
+}
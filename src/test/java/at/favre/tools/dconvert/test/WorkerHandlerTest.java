@@ -3,18 +3,25 @@ package at.favre.tools.dconvert.test;
 import at.favre.tools.dconvert.WorkerHandler;
 import at.favre.tools.dconvert.arg.Arguments;
 import at.favre.tools.dconvert.arg.EPlatform;
+import at.favre.tools.dconvert.arg.ImageType;
 import at.favre.tools.dconvert.converters.AndroidConverter;
 import at.favre.tools.dconvert.converters.IPlatformConverter;
+import at.favre.tools.dconvert.converters.Result;
+import at.favre.tools.dconvert.converters.descriptors.AndroidDensityDescriptor;
 import at.favre.tools.dconvert.converters.postprocessing.IPostProcessor;
 import at.favre.tools.dconvert.test.helper.MockException;
 import at.favre.tools.dconvert.test.helper.MockProcessor;
+import at.favre.tools.dconvert.util.SourceImageCache;
 import org.junit.Before;
 import org.junit.Test;
 
+import java.awt.*;
 import java.io.File;
 import java.util.*;
+import java.util.List;
 import java.util.concurrent.CountDownLatch;
 import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
 
 import static org.junit.Assert.assertEquals;
 import static org.junit.Assert.assertTrue;
@@ -69,6 +76,100 @@ public class WorkerHandlerTest extends AIntegrationTest {
         checkResult(callback);
     }
 
+    @Test
+    public void testStreamingSubmit() throws Exception {
+        List<File> files = createFiles(20);
+        List<IPostProcessor> postProcessors = createProcessors(2);
+        TestCallback callback = new TestCallback(files.size() * postProcessors.size(), Collections.emptyList(), false, latch);
+        WorkerHandler<IPostProcessor> handler = new WorkerHandler<>(postProcessors, arguments, callback);
+        for (File file : files) {
+            handler.submit(file);
+            Thread.sleep(5);
+        }
+        assertEquals(1, latch.getCount());
+        handler.close();
+        assertTrue(latch.await(WAIT_SEC, TimeUnit.SECONDS));
+        checkResult(callback);
+    }
+
+    @Test
+    public void testBatchPostProcessor() throws Exception {
+        List<File> files = createFiles(10);
+        BatchProcessor batchProcessor = new BatchProcessor(4);
+        List<IPostProcessor> postProcessors = Arrays.asList(batchProcessor, new MockProcessor(5));
+        TestCallback callback = new TestCallback(files.size() * postProcessors.size(), Collections.emptyList(), false, latch);
+        WorkerHandler<IPostProcessor> handler = new WorkerHandler<>(postProcessors, arguments, callback);
+        handler.submit(files.subList(0, 7));
+        handler.submit(files.subList(7, 10));
+        handler.close();
+        assertTrue(latch.await(WAIT_SEC, TimeUnit.SECONDS));
+        checkResult(callback);
+        assertEquals(files.size(), batchProcessor.processedFiles.get());
+        assertEquals(3, batchProcessor.batches.get());
+    }
+
+    @Test(expected = IllegalStateException.class)
+    public void testSubmitAfterClose() throws Exception {
+        WorkerHandler<IPostProcessor> handler = new WorkerHandler<>(Collections.singletonList(new MockProcessor()), arguments, new TestCallback(0, Collections.emptyList(), false, latch));
+        handler.close();
+        handler.submit(new File("mock"));
+    }
+
+    @Test
+    public void testMoreFilesThanQueueCapacity() throws Exception {
+        List<File> files = createFiles(WorkerHandler.DEFAULT_QUEUE_CAPACITY * 12);
+        TestCallback callback = new TestCallback(files.size(), Collections.emptyList(), false, latch);
+        new WorkerHandler<>(Collections.singletonList(new MockProcessor(0)), arguments, callback).start(files);
+        assertTrue(latch.await(WAIT_SEC, TimeUnit.SECONDS));
+        checkResult(callback);
+    }
+
+    @Test
+    public void testSubmitBlocksIfQueueIsFull() throws Exception {
+        List<File> files = createFiles(4);
+        TestCallback callback = new TestCallback(files.size(), Collections.emptyList(), false, latch);
+        WorkerHandler<IPostProcessor> handler = new WorkerHandler<>(Collections.singletonList(new MockProcessor(200)), 1, 1, arguments, callback);
+
+        long startMs = System.currentTimeMillis();
+        handler.start(files);
+        // 1 running + 1 queued, so the feeder had to wait for at least 2 jobs
+        assertTrue(System.currentTimeMillis() - startMs >= 300);
+        assertTrue(latch.await(WAIT_SEC, TimeUnit.SECONDS));
+        checkResult(callback);
+    }
+
+    @Test
+    public void testConcurrentCancelUnblocksOnce() throws Exception {
+        for (int run = 0; run < 50; run++) {
+            WorkerHandler<IPostProcessor> handler = new WorkerHandler<>(Collections.singletonList(new MockProcessor(20)), 1, 1, arguments, new TestCallback(0, Collections.emptyList(), false, latch));
+            handler.submit(createFiles(2));
+
+            CountDownLatch start = new CountDownLatch(1);
+            List<Throwable> errors = Collections.synchronizedList(new ArrayList<>());
+            List<Thread> threads = new ArrayList<>();
+            for (int i = 0; i < 8; i++) {
+                Thread thread = new Thread(() -> {
+                    try {
+                        start.await();
+                        handler.cancel();
+                    } catch (Throwable t) {
+                        errors.add(t);
+                    }
+                });
+                thread.start();
+                threads.add(thread);
+            }
+            start.countDown();
+            for (Thread thread : threads) {
+                thread.join();
+            }
+            assertTrue(errors.toString(), errors.isEmpty());
+
+            // submitting after the cancel must neither block nor overflow the queue slots
+            handler.submit(createFiles(3));
+        }
+    }
+
     @Test
     public void testShouldHaveException() throws Exception {
         List<File> files = createFiles(1);
@@ -123,6 +224,125 @@ public class WorkerHandlerTest extends AIntegrationTest {
         AConverterTest.checkMultiPlatformConvert(dst, arg, files);
     }
 
+    @Test
+    public void testPerDensityTasksRunFileHooksOnce() throws Exception {
+        List<File> files = AConverterTest.copyToTestPath(src, "png_example2_alpha_144.png", "jpg_example_1920.jpg", "png_example4_500.png");
+        Arguments arg = new Arguments.Builder(src, Arguments.DEFAULT_SCALE).dstFolder(dst).platform(Collections.singleton(EPlatform.ANDROID)).threadCount(4).build();
+        CountingAndroidConverter converter = new CountingAndroidConverter();
+        assertEquals(converter.usedOutputDensities(arg).size(), converter.createTasks(files.get(0), arg).size());
+
+        TestCallback callback = new TestCallback(files.size(), Collections.emptyList(), false, latch);
+        new WorkerHandler<>(Collections.singletonList(converter), arg, callback).start(files);
+        assertTrue(latch.await(WAIT_SEC, TimeUnit.SECONDS));
+        checkResult(callback);
+        assertEquals(files.size(), converter.preExecuteCount.get());
+        assertEquals(files.size(), converter.postExecuteCount.get());
+        AndroidConverterTest.checkOutDirAndroid(dst, arg, files);
+    }
+
+    @Test
+    public void testHaltReleasesSourcesOfDroppedTasks() throws Exception {
+        List<File> files = AConverterTest.copyToTestPath(src, "png_example2_alpha_144.png", "jpg_example2_512.jpg");
+        Arguments arg = new Arguments.Builder(src, Arguments.DEFAULT_SCALE).dstFolder(dst).platform(Collections.singleton(EPlatform.ANDROID))
+                .threadCount(2).haltOnError(true).build();
+        HaltingAndroidConverter converter = new HaltingAndroidConverter("png_example2_alpha_144", "jpg_example2_512");
+
+        TestCallback callback = new TestCallback(1, Collections.singletonList(converter.exception), true, latch);
+        new WorkerHandler<>(Collections.singletonList(converter), arg, callback).start(files);
+        assertTrue(latch.await(WAIT_SEC, TimeUnit.SECONDS));
+        checkResult(callback);
+
+        // the interrupted task of the second file finishes after the halt
+        long timeout = System.currentTimeMillis() + TimeUnit.SECONDS.toMillis(WAIT_SEC);
+        while (SourceImageCache.size() > 0 && System.currentTimeMillis() < timeout) {
+            Thread.sleep(20);
+        }
+        assertEquals(0, SourceImageCache.size());
+    }
+
+    /**
+     * Fails the first file as soon as the second one was prepared, whose tasks block until they are interrupted
+     */
+    private static class HaltingAndroidConverter extends AndroidConverter {
+        private final String failingFile;
+        private final String blockedFile;
+        private final CountDownLatch blockedFilePrepared = new CountDownLatch(1);
+        private final RuntimeException exception = new IllegalStateException("mock failure");
+
+        HaltingAndroidConverter(String failingFile, String blockedFile) {
+            this.failingFile = failingFile;
+            this.blockedFile = blockedFile;
+        }
+
+        @Override
+        public void onPreExecute(File dstFolder, String targetFileName, List<AndroidDensityDescriptor> densityDescriptions, ImageType imageType, Arguments arguments) throws Exception {
+            super.onPreExecute(dstFolder, targetFileName, densityDescriptions, imageType, arguments);
+            if (targetFileName.equals(blockedFile)) {
+                blockedFilePrepared.countDown();
+            }
+        }
+
+        @Override
+        public File createFolderForOutputFile(File mainSubFolder, AndroidDensityDescriptor density, Dimension dimension, String targetFileName, Arguments arguments) {
+            try {
+                if (targetFileName.equals(failingFile) && density.equals(usedOutputDensities(arguments).get(0))) {
+                    assertTrue(blockedFilePrepared.await(WAIT_SEC, TimeUnit.SECONDS));
+                    throw exception;
+                } else if (targetFileName.equals(blockedFile)) {
+                    new CountDownLatch(1).await();
+                }
+            } catch (InterruptedException e) {
+                throw new IllegalStateException(e);
+            }
+            return super.createFolderForOutputFile(mainSubFolder, density, dimension, targetFileName, arguments);
+        }
+    }
+
+    private static class CountingAndroidConverter extends AndroidConverter {
+        private final AtomicInteger preExecuteCount = new AtomicInteger();
+        private final AtomicInteger postExecuteCount = new AtomicInteger();
+
+        @Override
+        public void onPreExecute(File dstFolder, String targetFileName, List<AndroidDensityDescriptor> densityDescriptions, ImageType imageType, Arguments arguments) throws Exception {
+            preExecuteCount.incrementAndGet();
+            super.onPreExecute(dstFolder, targetFileName, densityDescriptions, imageType, arguments);
+        }
+
+        @Override
+        public void onPostExecute(Arguments arguments) {
+            postExecuteCount.incrementAndGet();
+            super.onPostExecute(arguments);
+        }
+    }
+
+    private static class BatchProcessor extends MockProcessor {
+        private final int maxBatchSize;
+        private final AtomicInteger batches = new AtomicInteger();
+        private final AtomicInteger processedFiles = new AtomicInteger();
+
+        BatchProcessor(int maxBatchSize) {
+            super(5);
+            this.maxBatchSize = maxBatchSize;
+        }
+
+        @Override
+        public List<Result> processBatch(List<File> rawFiles, boolean keepOriginal) {
+            assertTrue(rawFiles.size() <= maxBatchSize);
+            batches.incrementAndGet();
+            processedFiles.addAndGet(rawFiles.size());
+            List<Result> results = new ArrayList<>();
+            for (File rawFile : rawFiles) {
+                results.add(new Result("batch done", Collections.singletonList(rawFile)));
+            }
+            return results;
+        }
+
+        @Override
+        public int getMaxBatchSize() {
+            return maxBatchSize;
+        }
+    }
+
     private void checkResult(TestCallback callback) {
         assertEquals(callback.expectedJobs, callback.actualJobs);
         assertEquals(callback.expectedExceptions, callback.actualExceptions);